@@ -7,6 +7,8 @@ import android.graphics.SurfaceTexture;
 import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.CaptureResult;
 import android.media.Image;
+import android.media.ImageReader;
+import android.support.annotation.NonNull;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.rule.GrantPermissionRule;
 import android.support.test.runner.AndroidJUnit4;
@@ -20,13 +22,16 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.concurrent.TimeoutException;
 
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -100,6 +105,152 @@ public class StillCaptureTests {
         waiter.await(5, SECONDS);
     }
 
+    @Test
+    public void reconfigureSameCamera() throws Exception {
+        final Context appContext = InstrumentationRegistry.getTargetContext();
+        final Waiter waiter = new Waiter();
+
+        final Camera3 camera = new Camera3(appContext, TestUtils.testErrorHandler);
+        final String cameraId = camera.getAvailableCameras().get(0);
+
+        final Size size = camera.getLargestAvailableImageSize(cameraId, ImageFormat.JPEG);
+
+        final StillCaptureHandler first = new StillCaptureHandler(
+                ImageFormat.JPEG, size, new OnImageAvailableListener() {
+            @Override
+            public ImageAction onImageAvailable(Image image) {
+                waiter.resume();
+                return ImageAction.CLOSE_IMAGE;
+            }
+        });
+        final StillCaptureHandler second = new StillCaptureHandler(
+                ImageFormat.JPEG, size, new OnImageAvailableListener() {
+            @Override
+            public ImageAction onImageAvailable(Image image) {
+                waiter.resume();
+                return ImageAction.CLOSE_IMAGE;
+            }
+        });
+
+        camera.startCaptureSession(cameraId, null, Collections.singletonList(first),
+                null, new Runnable() {
+                    @Override
+                    public void run() {
+                        waiter.resume();
+                    }
+                });
+        waiter.await(5, SECONDS);
+        final ImageReader keptReader = first.getImageReader();
+
+        // same camera: the device stays open and the first handler keeps its reader
+        camera.startCaptureSession(cameraId, null, Arrays.asList(first, second),
+                null, new Runnable() {
+                    @Override
+                    public void run() {
+                        waiter.assertTrue(first.getImageReader() == keptReader);
+                        camera.captureImage(first, Camera3.PRECAPTURE_CONFIG_NONE,
+                                Camera3.CAPTURE_CONFIG_DEFAULT);
+                        camera.captureImage(second, Camera3.PRECAPTURE_CONFIG_NONE,
+                                Camera3.CAPTURE_CONFIG_DEFAULT);
+                    }
+                });
+
+        waiter.await(10, SECONDS, 2);
+        camera.pause();
+    }
+
+    @Test
+    public void warmPauseResume() throws Exception {
+        final Context appContext = InstrumentationRegistry.getTargetContext();
+        final Waiter waiter = new Waiter();
+
+        // resuming within the grace period doesn't restart the background thread, so there
+        // is no warning about starting a session from it
+        final Camera3 camera = new Camera3(appContext, TestUtils.testErrorHandler);
+        camera.setPauseGracePeriod(2, SECONDS);
+        final String cameraId = camera.getAvailableCameras().get(0);
+
+        final Size size = camera.getLargestAvailableImageSize(cameraId, ImageFormat.JPEG);
+
+        final StillCaptureHandler cs = new StillCaptureHandler(
+                ImageFormat.JPEG, size, new OnImageAvailableListener() {
+            @Override
+            public ImageAction onImageAvailable(Image image) {
+                waiter.resume();
+                return ImageAction.CLOSE_IMAGE;
+            }
+        });
+
+        camera.startCaptureSession(cameraId, null, Collections.singletonList(cs),
+                null, new Runnable() {
+                    @Override
+                    public void run() {
+                        final ImageReader keptReader = cs.getImageReader();
+                        camera.pause();
+                        camera.resume(new Runnable() {
+                            @Override
+                            public void run() {
+                                waiter.assertTrue(cs.getImageReader() == keptReader);
+                                camera.captureImage(cs, Camera3.PRECAPTURE_CONFIG_NONE,
+                                        Camera3.CAPTURE_CONFIG_DEFAULT);
+                            }
+                        });
+                    }
+                });
+
+        waiter.await(5, SECONDS);
+        camera.setPauseGracePeriod(0, SECONDS);
+        camera.pause();
+    }
+
+    @Test
+    public void warmPauseDuringCapture() throws Exception {
+        final Context appContext = InstrumentationRegistry.getTargetContext();
+        final Waiter waiter = new Waiter();
+
+        final Camera3 camera = new Camera3(appContext, TestUtils.testErrorHandler);
+        camera.setPauseGracePeriod(2, SECONDS);
+        final String cameraId = camera.getAvailableCameras().get(0);
+
+        final Size size = camera.getLargestAvailableImageSize(cameraId, ImageFormat.JPEG);
+
+        final StillCaptureHandler cs = new StillCaptureHandler(
+                ImageFormat.JPEG, size, new OnImageAvailableListener() {
+            @Override
+            public ImageAction onImageAvailable(Image image) {
+                waiter.resume();
+                return ImageAction.CLOSE_IMAGE;
+            }
+        });
+
+        final CaptureFuture[] interrupted = new CaptureFuture[1];
+        camera.startCaptureSession(cameraId, null, Collections.singletonList(cs),
+                null, new Runnable() {
+                    @Override
+                    public void run() {
+                        // still running the precapture sequence when the app pauses
+                        interrupted[0] = camera.captureImageAsync(cs,
+                                Camera3.PRECAPTURE_CONFIG_TRIGGER_AUTO_EXPOSE,
+                                Camera3.CAPTURE_CONFIG_DEFAULT);
+                        camera.pause();
+                        waiter.assertTrue(interrupted[0].isDone());
+                        camera.resume(new Runnable() {
+                            @Override
+                            public void run() {
+                                // the camera isn't stuck on the interrupted capture
+                                camera.captureImage(cs, Camera3.PRECAPTURE_CONFIG_NONE,
+                                        Camera3.CAPTURE_CONFIG_DEFAULT);
+                            }
+                        });
+                    }
+                });
+
+        waiter.await(5, SECONDS);
+        assertTrue(interrupted[0].isDone());
+        camera.setPauseGracePeriod(0, SECONDS);
+        camera.pause();
+    }
+
     /**
      * This test crashes sometimes due to threading issues when multiple tests run at once
      * However, it will always pass when run on its own
@@ -312,6 +463,136 @@ public class StillCaptureTests {
         assertEquals(NUM_IMAGES, imagesCaptured[0]);
     }
 
+    @Test
+    public void cancelQueuedCaptures() throws Exception {
+        final Context appContext = InstrumentationRegistry.getTargetContext();
+        final Waiter waiter = new Waiter();
+        final int[] imagesCaptured = new int[]{0};
+        final int NUM_IMAGES = 4;
+
+        final Camera3 camera = new Camera3(appContext, TestUtils.testErrorHandler);
+        final String cameraId = camera.getAvailableCameras().get(0);
+
+        final Size size = camera.getLargestAvailableImageSize(cameraId, ImageFormat.JPEG);
+
+        final StillCaptureHandler cs = new StillCaptureHandler(
+                ImageFormat.JPEG, size, new OnImageAvailableListener() {
+                    @Override
+                    public ImageAction onImageAvailable(Image image) {
+                        synchronized (imagesCaptured) {
+                            imagesCaptured[0]++;
+                        }
+                        waiter.resume();
+                        return ImageAction.CLOSE_IMAGE;
+                    }
+                });
+
+        camera.startCaptureSession(cameraId, null, Collections.singletonList(cs));
+        CaptureHandle[] handles = new CaptureHandle[NUM_IMAGES];
+        for (int i = 0; i < NUM_IMAGES; i++) {
+            handles[i] = camera.captureImage(cs, Camera3.PRECAPTURE_CONFIG_NONE,
+                    Camera3.CAPTURE_CONFIG_DEFAULT);
+        }
+        int cancelled = 0;
+        for (int i = NUM_IMAGES / 2; i < NUM_IMAGES; i++) {
+            if (handles[i].cancel()) {
+                cancelled++;
+            }
+        }
+
+        waiter.await(10, SECONDS, NUM_IMAGES - cancelled);
+        // give any wrongly captured images time to arrive
+        Thread.sleep(1000);
+        assertEquals(NUM_IMAGES - cancelled, imagesCaptured[0]);
+        assertEquals(cancelled, camera.getCancelledCaptureCount());
+        assertTrue(cancelled > 0);
+        assertEquals(CaptureHandle.Status.COMPLETED, handles[0].getStatus());
+    }
+
+    @Test
+    public void blockQueueWhileImagesAreHeld() throws Exception {
+        final Context appContext = InstrumentationRegistry.getTargetContext();
+        final Waiter waiter = new Waiter();
+        final List<Image> heldImages = new ArrayList<>();
+        final int DEPTH = 2;
+        final int NUM_IMAGES = 4;
+
+        final Camera3 camera = new Camera3(appContext, TestUtils.testErrorHandler);
+        final String cameraId = camera.getAvailableCameras().get(0);
+
+        final Size size = camera.getLargestAvailableImageSize(cameraId, ImageFormat.JPEG);
+
+        final StillCaptureHandler cs = new StillCaptureHandler(
+                ImageFormat.JPEG, size, DEPTH, OverflowPolicy.BLOCK_QUEUE,
+                new OnImageAvailableListener() {
+                    @Override
+                    public ImageAction onImageAvailable(Image image) {
+                        synchronized (heldImages) {
+                            heldImages.add(image);
+                        }
+                        waiter.resume();
+                        return ImageAction.KEEP_IMAGE_OPEN;
+                    }
+                });
+
+        camera.startCaptureSession(cameraId, null, Collections.singletonList(cs));
+        for (int i = 0; i < NUM_IMAGES; i++) {
+            camera.captureImage(cs, Camera3.PRECAPTURE_CONFIG_NONE,
+                    Camera3.CAPTURE_CONFIG_DEFAULT);
+        }
+
+        waiter.await(10, SECONDS, DEPTH);
+        // the reader is full, so nothing else should arrive until an image is closed
+        Thread.sleep(1000);
+        synchronized (heldImages) {
+            assertEquals(DEPTH, heldImages.size());
+            for (Image image : heldImages) {
+                image.close();
+            }
+        }
+        waiter.await(10, SECONDS, NUM_IMAGES - DEPTH);
+        synchronized (heldImages) {
+            assertEquals(NUM_IMAGES, heldImages.size());
+            for (Image image : heldImages.subList(DEPTH, NUM_IMAGES)) {
+                image.close();
+            }
+        }
+        assertEquals(0, cs.getDroppedImageCount());
+    }
+
+    @Test
+    public void captureImageAsync() throws Exception {
+        final Context appContext = InstrumentationRegistry.getTargetContext();
+        final boolean[] listenerCalled = new boolean[]{false};
+
+        final Camera3 camera = new Camera3(appContext, TestUtils.testErrorHandler);
+        final String cameraId = camera.getAvailableCameras().get(0);
+
+        final Size size = camera.getLargestAvailableImageSize(cameraId, ImageFormat.JPEG);
+
+        final StillCaptureHandler cs = new StillCaptureHandler(
+                ImageFormat.JPEG, size, new OnImageAvailableListener() {
+                    @Override
+                    public ImageAction onImageAvailable(Image image) {
+                        listenerCalled[0] = true;
+                        return ImageAction.CLOSE_IMAGE;
+                    }
+                });
+
+        camera.startCaptureSession(cameraId, null, Collections.singletonList(cs));
+        CaptureFuture future = camera.captureImageAsync(cs, Camera3.PRECAPTURE_CONFIG_NONE,
+                Camera3.CAPTURE_CONFIG_DEFAULT);
+        CaptureBundle bundle = future.get(10, SECONDS);
+        try {
+            assertTrue(future.isDone());
+            assertEquals(bundle.getResult().get(CaptureResult.SENSOR_TIMESTAMP),
+                    Long.valueOf(bundle.getImage().getTimestamp()));
+            assertFalse(listenerCalled[0]);
+        } finally {
+            bundle.close();
+        }
+    }
+
     @Test
     public void captureResultListener() throws Exception {
         final Context appContext = InstrumentationRegistry.getTargetContext();
@@ -439,4 +720,59 @@ public class StillCaptureTests {
         waiter1.await(5, SECONDS);
         waiter2.await(5, SECONDS);
     }
+
+    @Test
+    public void captureBurst() throws Exception {
+        final Context appContext = InstrumentationRegistry.getTargetContext();
+        final Waiter waiter = new Waiter();
+        final int[] imagesCaptured = new int[]{0};
+        final int NUM_IMAGES = 5;
+
+        final Camera3 camera = new Camera3(appContext, TestUtils.testErrorHandler);
+        final String cameraId = camera.getAvailableCameras().get(0);
+
+        final Size size = camera.getLargestAvailableImageSize(cameraId, ImageFormat.JPEG);
+
+        final StillCaptureHandler handler = new StillCaptureHandler(
+                ImageFormat.JPEG, size, new OnImageAvailableListener() {
+            @Override
+            public ImageAction onImageAvailable(Image image) {
+                waiter.assertNotNull(image);
+                synchronized (imagesCaptured) {
+                    imagesCaptured[0]++;
+                    if (imagesCaptured[0] == NUM_IMAGES) {
+                        waiter.resume();
+                    }
+                }
+                return ImageAction.CLOSE_IMAGE;
+            }
+        });
+        PreviewHandler previewHandler = new PreviewHandler(
+                new SurfaceTexture(1),
+                new Size(200, 200));
+
+        camera.startCaptureSession(cameraId, previewHandler, Arrays.asList(handler),
+                null, new Runnable() {
+                    @Override
+                    public void run() {
+                        camera.captureBurst(handler, NUM_IMAGES,
+                                Camera3.PRECAPTURE_CONFIG_TRIGGER_AUTO_EXPOSE,
+                                Camera3.CAPTURE_CONFIG_DEFAULT,
+                                new BurstCaptureListener() {
+                                    @Override
+                                    public void onBurstCompleted(
+                                            @NonNull StillCaptureHandler h,
+                                            int framesCaptured,
+                                            long durationNanos) {
+                                        waiter.assertEquals(NUM_IMAGES, framesCaptured);
+                                        waiter.assertTrue(durationNanos > 0);
+                                        waiter.resume();
+                                    }
+                                });
+                    }
+                });
+
+        waiter.await(10, SECONDS, 2);
+        assertEquals(NUM_IMAGES, imagesCaptured[0]);
+    }
 }
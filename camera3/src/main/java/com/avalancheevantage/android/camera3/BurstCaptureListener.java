@@ -0,0 +1,25 @@
+package com.avalancheevantage.android.camera3;
+
+import android.support.annotation.NonNull;
+
+/**
+ * A listener to be notified when a burst capture has finished
+ *
+ * @see Camera3#captureBurst(StillCaptureHandler, int, CaptureRequestConfiguration,
+ * CaptureRequestConfiguration, BurstCaptureListener)
+ * @author Quinn Freedman
+ */
+public interface BurstCaptureListener {
+    /**
+     * Called once every frame in the burst has been captured (or has failed). The images
+     * themselves are still delivered through the handler's {@link OnImageAvailableListener}.
+     *
+     * @param handler        the handler that received the images
+     * @param framesCaptured the number of frames that were captured successfully
+     * @param durationNanos  the time from the call to <code>captureBurst(...)</code> until the
+     *                       last frame was completed, in nanoseconds
+     */
+    void onBurstCompleted(@NonNull StillCaptureHandler handler,
+                          int framesCaptured,
+                          long durationNanos);
+}
@@ -15,8 +15,10 @@
 package com.avalancheevantage.android.camera3;
 
 import android.Manifest;
+import android.annotation.TargetApi;
 import android.app.Activity;
 import android.content.Context;
+import android.graphics.ImageFormat;
 import android.graphics.SurfaceTexture;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCaptureSession;
@@ -24,20 +26,25 @@ import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureFailure;
 import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.CaptureResult;
 import android.hardware.camera2.TotalCaptureResult;
-import android.hardware.camera2.params.StreamConfigurationMap;
+import android.hardware.camera2.params.InputConfiguration;
+import android.hardware.camera2.params.OutputConfiguration;
 import android.media.Image;
 import android.media.ImageReader;
-import android.media.MediaRecorder;
+import android.media.ImageWriter;
+import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.content.ContextCompat;
 import android.util.Log;
+import android.util.LruCache;
 import android.util.Size;
 import android.util.SparseIntArray;
 import android.view.Surface;
@@ -51,11 +58,15 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
-import java.util.NoSuchElementException;
+import java.util.Locale;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static android.content.pm.PackageManager.PERMISSION_GRANTED;
 import static java.util.Arrays.asList;
@@ -81,13 +92,12 @@ public final class Camera3 {
                 }
             };
     public static final CaptureRequestConfiguration PRECAPTURE_CONFIG_NONE = null;
+    /**
+     * Doesn't change the default capture configuration. Since it is a {@link RequestSettings},
+     * captures that use it can reuse their compiled request.
+     */
     public static final CaptureRequestConfiguration CAPTURE_CONFIG_DEFAULT =
-            new CaptureRequestConfiguration() {
-                @Override
-                public void configure(CaptureRequest.Builder request) {
-
-                }
-            };
+            RequestSettings.EMPTY;
     public static final ErrorHandler ERROR_HANDLER_DEFAULT = null;
     /**
      * Max preview width that is guaranteed by Camera2 API
@@ -97,9 +107,24 @@ public final class Camera3 {
      * Max preview height that is guaranteed by Camera2 API
      */
     static final int MAX_PREVIEW_HEIGHT = 1080;
+    /**
+     * @see #setImageProcessingThreads(int, int)
+     */
+    public static final int DEFAULT_IMAGE_PROCESSING_THREADS = 1;
+    /**
+     * @see #setImageProcessingThreads(int, int)
+     */
+    public static final int DEFAULT_IMAGE_PROCESSING_QUEUE = 8;
     static final String NULL_MANAGER_MESSAGE = "No camera manager. " +
             "`getSystemService(Context.CAMERA_SERVICE)` returned `null`";
     private static final String TAG = "Camera3";
+    private static final int COMPILED_REQUEST_CACHE_SIZE = 8;
+    private static final String PREFERENCES_NAME = "com.avalancheevantage.android.camera3";
+    private static final String PREF_LAST_CAMERA_ID = "lastCameraId";
+    /**
+     * Shared by all instances, since the cameras don't change while the process is running
+     */
+    private static final CapabilityCache CAPABILITIES = new CapabilityCache();
     /**
      * Conversion from screen rotation to JPEG orientation.
      */
@@ -113,7 +138,11 @@ public final class Camera3 {
     }
 
     private final BlockingQueue<ImageCaptureRequest> mCaptureRequestQueue = new
-            LinkedBlockingDeque<>();
+            PriorityBlockingQueue<>(11, ImageCaptureRequest.QUEUE_ORDER);
+    // used to keep requests with the same priority in FIFO order
+    private final AtomicLong mNextRequestSequence = new AtomicLong();
+    private final AtomicInteger mCancelledCaptures = new AtomicInteger();
+    private final AtomicInteger mExpiredCaptures = new AtomicInteger();
     @Nullable
     private Runnable mOnSessionStartedCallback;
     /**
@@ -144,10 +173,169 @@ public final class Camera3 {
     private Session mSession;
     @NonNull
     private ErrorHandler mErrorHandler;
+    /**
+     * Info messages go through here so that they are only built if the error handler wants them
+     */
+    @NonNull
+    private InfoLogger mLog;
     private CaptureRequest mPreviewRequest;
     private boolean mStarted = false;
+    /**
+     * Whether sensor timestamps use the same time base as
+     * {@link SystemClock#elapsedRealtimeNanos()}
+     */
+    private boolean mSensorTimestampRealtime = false;
+    /**
+     * The zero-shutter-lag handler whose frames can be reprocessed in the current session, if any
+     */
+    @Nullable
+    private StillCaptureHandler mReprocessHandler;
     @Nullable
     private CaptureResultListener mCaptureResultListener = null;
+    /**
+     * Still capture requests built from {@link RequestSettings}, so that they don't have to be
+     * created again for every capture. Cleared when the camera is closed.
+     */
+    private final LruCache<RequestCacheKey, CaptureRequest> mCompiledRequests =
+            new LruCache<>(COMPILED_REQUEST_CACHE_SIZE);
+    private final List<CaptureResultSubscription> mCaptureResultSubscriptions =
+            new CopyOnWriteArrayList<>();
+    @Nullable
+    private CaptureReportListener mCaptureReportListener = null;
+    /**
+     * Times the startup of the current session, until its first frame arrives. Created by the
+     * constructor so that the constructor and a camera opened ahead of the first session are
+     * included in the first report.
+     */
+    @Nullable
+    private volatile StartupTimer mStartupTimer = null;
+    @Nullable
+    private volatile StartupReportListener mStartupReportListener = null;
+    @Nullable
+    private volatile StartupReport mLastStartupReport = null;
+    /**
+     * Whether still captures run alongside the repeating preview request instead of stopping it
+     *
+     * @see #setNonDisruptiveCapture(boolean)
+     */
+    private boolean mNonDisruptiveCapture = false;
+    /**
+     * Whether the video being recorded was started by adding a persistent surface to the running
+     * session's repeating request, rather than by rebuilding the session. It has to be stopped
+     * the same way.
+     */
+    private boolean mRecordingInSession = false;
+    private final PreviewGapTracker mPreviewGapTracker = new PreviewGapTracker();
+    /**
+     * @see #getFrameStatistics()
+     */
+    private final FrameStatisticsTracker mFrameStatistics = new FrameStatisticsTracker();
+    /**
+     * Where image work runs, instead of the camera control thread
+     *
+     * @see #setImageProcessingThreads(int, int)
+     */
+    @NonNull
+    private volatile ImageProcessingExecutor mImageProcessor = new ImageProcessingExecutor(
+            DEFAULT_IMAGE_PROCESSING_THREADS, DEFAULT_IMAGE_PROCESSING_QUEUE);
+    /**
+     * @see #saveImageAsync(Image, File, ImageWriteListener)
+     */
+    @NonNull
+    private volatile ImageWritePipeline mImageWritePipeline = new ImageWritePipeline(
+            1, DEFAULT_IMAGE_PROCESSING_QUEUE, ImageWritePipeline.Durability.NONE);
+    /**
+     * Set when the preview config changes. The update is applied on the next preview frame, so
+     * that many updates in a row only cause one new repeating request.
+     */
+    private final AtomicBoolean mPreviewUpdatePending = new AtomicBoolean(false);
+    /**
+     * Whether to skip the steps of the still capture sequence that the 3A state says aren't needed
+     *
+     * @see #setCapturePlanningEnabled(boolean)
+     */
+    private boolean mCapturePlanningEnabled = false;
+    /**
+     * Whether the lens of the open camera has a fixed focus
+     */
+    private boolean mFixedFocus = false;
+    /**
+     * The most recent result of the repeating preview request, used to plan still captures
+     */
+    @Nullable
+    private volatile CaptureResult mLatestPreviewResult;
+    /**
+     * How long a focus lock can be reused by the next queued capture, in nanoseconds
+     *
+     * @see #setFocusLockReuseWindow(long, TimeUnit)
+     */
+    private volatile long mFocusLockReuseWindowNanos = 0;
+    /**
+     * When focus last locked successfully (in {@link SystemClock#elapsedRealtimeNanos()}), or
+     * <code>0</code> if focus is not currently locked
+     */
+    private long mFocusLockedAtNanos = 0;
+    private volatile int mFocusLocksSaved = 0;
+    /**
+     * How long {@link #pause()} keeps the camera open, in milliseconds
+     *
+     * @see #setPauseGracePeriod(long, TimeUnit)
+     */
+    private volatile long mPauseGracePeriodMillis = 0;
+    /**
+     * Whether {@link #pause()} left the camera open and is waiting for the grace period to end
+     */
+    private volatile boolean mWarmPaused = false;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final CapabilityCache.Source mCapabilitySource = new CapabilityCache.Source() {
+        @Nullable
+        @Override
+        public CameraCapabilities load(@NonNull String cameraId) {
+            mLog.info("Reading characteristics of camera {}", cameraId);
+            CameraCharacteristics characteristics =
+                    PrivateUtils.getCameraCharacteristics(cameraId, mContext, mErrorHandler);
+            return characteristics == null ? null : PrivateUtils.toCapabilities(characteristics);
+        }
+    };
+    private final Runnable mWriteCapabilitySnapshot = new Runnable() {
+        @Override
+        public void run() {
+            CapabilitySnapshot.writeIfChanged(mContext, CAPABILITIES, mLog);
+        }
+    };
+    private final Runnable mReleaseWarmCamera = new Runnable() {
+        @Override
+        public void run() {
+            releaseWarmCamera();
+        }
+    };
+    /**
+     * Whether to remember the last camera and open it as soon as Camera3 is created
+     *
+     * @see #Camera3(Context, ErrorHandler, boolean)
+     */
+    private boolean mPredictiveOpen = false;
+    /**
+     * The camera that is being (or has been) opened ahead of the session, until a session
+     * claims it
+     */
+    @Nullable
+    private volatile String mPreopenCameraId = null;
+    // whether the background thread was started for a predictive open
+    private boolean mThreadStartedEarly = false;
+    /**
+     * Whether the camera is being opened before the preview's TextureView has a surface, so the
+     * capture session has to wait for the texture
+     */
+    private volatile boolean mAwaitingPreviewTexture = false;
+    // whether the preview size was chosen before the texture existed, so the session can be
+    // configured with a deferred preview surface (API 26+)
+    private volatile boolean mDeferPreviewSurface = false;
+    // the deferred preview output of the current session, until the texture is added to it
+    @Nullable
+    private OutputConfiguration mDeferredPreviewOutput = null;
+    // reused for every preview frame so that tracking preview gaps doesn't allocate
+    private final List<CaptureReport> mClosedReports = new ArrayList<>();
     private CameraCaptureSession.CaptureCallback mCaptureCallback
             = new CameraCaptureSession.CaptureCallback() {
 
@@ -155,12 +343,13 @@ public final class Camera3 {
             CameraState oldState = mState;
             try {
                 if (mState != CameraState.PREVIEW) {
-                    mErrorHandler.info("Processing capture result. (State: " + mState.name() + ")");
+                    mLog.info("Processing capture result. (State: {})", mState);
                 }
 
                 switch (mState) {
                     case WAITING_CAMERA_OPEN:
                     case RECORDING_VIDEO:
+                    case CAPTURING_BURST:
                     case PREVIEW:
                         //do nothing
                         break;
@@ -168,22 +357,25 @@ public final class Camera3 {
                     case WAITING_FOCUS_LOCK: {
                         Integer afState = result.get(CaptureResult.CONTROL_AF_STATE);
                         if (afState == null || afState == CaptureResult.CONTROL_AF_STATE_INACTIVE) {
-                            mErrorHandler.info(
+                            mLog.info(
                                     "Auto-focus state was null or auto-focus was inactive. " +
                                             "Moving to capture image");
-                            // Improvement: when auto focus is disabled, it takes one extra frame
-                            // to capture an image because we just set the state to
-                            // WAITING_FOCUS_LOCK and then wait to take the picture here
-                            // instead of calling captureStillPicture() right away.
-                            // Maybe change this??
+                            // When auto focus is disabled, it takes one extra frame to get
+                            // here. With capture planning enabled, the focus lock is skipped
+                            // entirely in that case (see startStillCaptureSequence())
                             captureStillPicture();
                         } else if (afState == CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED ||
                                 afState == CaptureResult.CONTROL_AF_STATE_NOT_FOCUSED_LOCKED) {
+                            endCurrentStage(CaptureStage.FOCUS_LOCK);
+                            // only a successful lock is worth reusing for the next capture
+                            mFocusLockedAtNanos =
+                                    afState == CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED ?
+                                            SystemClock.elapsedRealtimeNanos() : 0;
                             // CONTROL_AE_STATE can be null on some devices
                             Integer aeState = result.get(CaptureResult.CONTROL_AE_STATE);
                             if (aeState == null ||
                                     aeState == CaptureResult.CONTROL_AE_STATE_CONVERGED) {
-                                mErrorHandler.info("AE State null or converged, moving to capture" +
+                                mLog.info("AE State null or converged, moving to capture" +
                                         " image");
                                 captureStillPicture();
                             } else {
@@ -196,24 +388,9 @@ public final class Camera3 {
                                     return;
                                 }
                                 if (request.hasPrecapture()) {
-
-                                    mErrorHandler.info("running precapture sequence");
-                                    // Run precapture:
-                                    request.configurePrecapture(mPreviewRequestBuilder);
-
-                                    // Tell #mCaptureCallback to wait for the precapture sequence
-                                    // to be set.
-                                    mState = CameraState.WAITING_PRECAPTURE;
-                                    try {
-                                        mCaptureSession.capture(
-                                                mPreviewRequestBuilder.build(),
-                                                mCaptureCallback,
-                                                mBackgroundHandler);
-                                    } catch (CameraAccessException e) {
-                                        reportCameraAccessException(e);
-                                    }
+                                    runPrecapture(request);
                                 } else {
-                                    mErrorHandler.info("Request does not have precapture, moving " +
+                                    mLog.info("Request does not have precapture, moving " +
                                             "to capture image");
                                     captureStillPicture();
                                 }
@@ -236,6 +413,7 @@ public final class Camera3 {
                         Integer aeState = result.get(CaptureResult.CONTROL_AE_STATE);
                         if (aeState == null ||
                                 aeState != CaptureResult.CONTROL_AE_STATE_PRECAPTURE) {
+                            endCurrentStage(CaptureStage.PRECAPTURE);
                             captureStillPicture();
                         }
                         break;
@@ -245,13 +423,7 @@ public final class Camera3 {
                 reportUnknownException(e);
             }
 
-            try {
-                if (mCaptureResultListener != null) {
-                    mCaptureResultListener.onResult(oldState, result);
-                }
-            } catch (Exception e) {
-                mErrorHandler.error("Error in CaptureResultListener callback", e);
-            }
+            dispatchCaptureResult(oldState, result);
 
         }
 
@@ -266,9 +438,50 @@ public final class Camera3 {
         public void onCaptureCompleted(@NonNull CameraCaptureSession session,
                                        @NonNull CaptureRequest request,
                                        @NonNull TotalCaptureResult result) {
+            StartupTimer startupTimer = mStartupTimer;
+            if (startupTimer != null && startupTimer.hasBegun(StartupPhase.FIRST_FRAME)) {
+                finishStartup(startupTimer);
+            }
+            StillCaptureHandler reprocessHandler = mReprocessHandler;
+            if (reprocessHandler != null) {
+                reprocessHandler.onZslResult(result);
+            }
+            Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+            if (timestamp != null) {
+                mFrameStatistics.onFrame(result.getFrameNumber(), timestamp);
+                mPreviewGapTracker.onPreviewFrame(timestamp, mClosedReports);
+                if (!mClosedReports.isEmpty()) {
+                    for (CaptureReport report : mClosedReports) {
+                        deliverCaptureReport(report);
+                    }
+                    mClosedReports.clear();
+                }
+            }
+            if (mState == CameraState.PREVIEW) {
+                mLatestPreviewResult = result;
+                // apply at most one preview update per frame
+                if (mPreviewUpdatePending.compareAndSet(true, false)) {
+                    applyPreviewUpdate();
+                }
+            }
             this.process(result);
         }
 
+        @Override
+        public void onCaptureFailed(@NonNull CameraCaptureSession session,
+                                    @NonNull CaptureRequest request,
+                                    @NonNull CaptureFailure failure) {
+            mFrameStatistics.onFailure(failure.getFrameNumber());
+        }
+
+        @Override
+        public void onCaptureBufferLost(@NonNull CameraCaptureSession session,
+                                        @NonNull CaptureRequest request,
+                                        @NonNull Surface target,
+                                        long frameNumber) {
+            mFrameStatistics.onBufferLost();
+        }
+
     };
     /**
      * {@link CameraDevice.StateCallback} is called when {@link CameraDevice} changes its state.
@@ -278,24 +491,42 @@ public final class Camera3 {
         @Override
         public void onOpened(@NonNull CameraDevice cameraDevice) {
             // This method is called when the camera is opened.  We start camera preview here.
-            mCameraOpenCloseLock.release();
+            endPhase(StartupPhase.CAMERA_OPEN);
             mCameraDevice = cameraDevice;
+            mCameraOpenCloseLock.release();
+
+            if (mPreopenCameraId != null) {
+                // opened ahead of the session. The session picks it up when it starts
+                mLog.info("Camera {} opened ahead of the session", cameraDevice.getId());
+                return;
+            }
+            if (mSession == null && !mStarted) {
+                // a predictive open that was released before it finished
+                cameraDevice.close();
+                mCameraDevice = null;
+                return;
+            }
 
             if (requireNotNull(mSession,
                     "Internal error: session is null when calling openCamera()")) {
                 return;
             }
 
-            if (mSession.getPreview() != null) {
-                createPreviewCameraCaptureSession(mSession.getPreview());
-            } else {
-                createCameraCaptureSessionWithoutPreview();
+            if (!cameraDevice.getId().equals(mSession.getCameraId())) {
+                // a predictive open guessed the wrong camera
+                cameraDevice.close();
+                mCameraDevice = null;
+                openCameraDevice(mSession.getCameraId());
+                return;
             }
+
+            createCaptureSession();
         }
 
         @Override
         public void onDisconnected(@NonNull CameraDevice cameraDevice) {
-            mErrorHandler.info("Camera disconnected");
+            mLog.info("Camera disconnected");
+            mPreopenCameraId = null;
             mCameraOpenCloseLock.release();
             cameraDevice.close();
             mCameraDevice = null;
@@ -324,6 +555,15 @@ public final class Camera3 {
                     errorName = "No error message";
                     break;
             }
+            if (mPreopenCameraId != null) {
+                // not worth reporting. The session will try to open the camera again
+                mPreopenCameraId = null;
+                mLog.info("Could not open camera ahead of the session: {}", errorName);
+                mCameraOpenCloseLock.release();
+                cameraDevice.close();
+                mCameraDevice = null;
+                return;
+            }
             mErrorHandler.error("Got error when opening camera: " + errorName +
                             "(Error code: " + error + ")",
                     null);
@@ -334,37 +574,6 @@ public final class Camera3 {
 
     };
 
-    /*
-    private BlockingQueue<CaptureRequestConfiguration> scheduledConfigUpdates =
-            new LinkedBlockingDeque<>();
-
-    public void applyPreviewEffect(@NonNull CaptureRequestConfiguration config) {
-        // Update preview request
-        config.configure(mPreviewRequestBuilder);
-        mPreviewRequest = mPreviewRequestBuilder.build();
-
-        if (mState == CameraState.PREVIEW) {
-            mErrorHandler.info("Updating preview");
-            try {
-                mCaptureSession.setRepeatingRequest(mPreviewRequest,
-                        mCaptureCallback, mBackgroundHandler);
-            } catch (CameraAccessException e) {
-                reportCameraAccessException(e);
-            }
-        } else {
-            mErrorHandler.info("Preview onUpdated requested. The camera is in the" +
-                    "middle of completing some other request right now. The update" +
-                    "should be made as soon as preview resumes");
-            try {
-                scheduledConfigUpdates.put(config);
-            } catch (InterruptedException e) {
-                mErrorHandler.error("Interrupted while enqueuing preview " +
-                        "update in blocking queue", e);
-            }
-        }
-
-    }
-    */
 
 
     /**
@@ -381,11 +590,14 @@ public final class Camera3 {
         if (context == null) {
             throw new IllegalArgumentException("activity is null in `new Camera3(activity, ...)`");
         }
+        StartupTimer startupTimer = new StartupTimer();
+        startupTimer.begin(StartupPhase.CONSTRUCTOR, SystemClock.elapsedRealtimeNanos());
+        mStartupTimer = startupTimer;
         this.mContext = context;
         if (errorHandler != null) {
             mErrorHandler = errorHandler;
         } else {
-            mErrorHandler = new ErrorHandler() {
+            mErrorHandler = new LeveledErrorHandler() {
                 @Override
                 public void error(String message, Exception e) {
                     Log.e(TAG, message, e);
@@ -400,8 +612,127 @@ public final class Camera3 {
                 public void info(String message) {
                     Log.i(TAG, message);
                 }
+
+                @Override
+                public boolean isInfoEnabled() {
+                    return Log.isLoggable(TAG, Log.INFO);
+                }
             };
         }
+        mLog = new InfoLogger(mErrorHandler);
+        CapabilitySnapshot.readInBackground(mContext, CAPABILITIES, mLog);
+        endPhase(StartupPhase.CONSTRUCTOR);
+    }
+
+    /**
+     * Creates a new Camera3 manager instance that can open the camera before the session is
+     * started.
+     * <p>
+     * If <code>openLastCamera</code> is true, Camera3 remembers the camera used by the last
+     * session (across app launches) and starts opening it right away. If the next call to
+     * {@link #startCaptureSession(String, PreviewHandler, List, List, Runnable)} uses the same
+     * camera, the session starts without waiting for the camera to open. If not, the early
+     * camera is closed and the right one is opened. {@link #pause()} closes a camera that was
+     * opened early but never used. Nothing is opened early if camera permission has not been
+     * granted yet.
+     *
+     * @param context        The context from which to access the camera. Should usually just be
+     *                       the current activity
+     * @param errorHandler   An {@link ErrorHandler} to handle any errors that arise over the
+     *                       lifetime
+     * @param openLastCamera whether to open the last used camera right away
+     * @see #Camera3(Context, ErrorHandler)
+     */
+    public Camera3(@NonNull Context context,
+                   @Nullable ErrorHandler errorHandler,
+                   boolean openLastCamera) {
+        this(context, errorHandler);
+        mPredictiveOpen = openLastCamera;
+        if (openLastCamera) {
+            openLastCamera();
+        }
+    }
+
+    private void openLastCamera() {
+        String cameraId = mContext.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE)
+                .getString(PREF_LAST_CAMERA_ID, null);
+        if (cameraId == null || !hasCameraPermission()) {
+            return;
+        }
+        CameraManager manager = (CameraManager) mContext.getSystemService(Context.CAMERA_SERVICE);
+        if (manager == null || !mCameraOpenCloseLock.tryAcquire()) {
+            return;
+        }
+        mLog.info("Opening camera {} ahead of the session", cameraId);
+        startBackgroundThread();
+        mThreadStartedEarly = true;
+        mPreopenCameraId = cameraId;
+        try {
+            beginPhase(StartupPhase.CAMERA_OPEN);
+            manager.openCamera(cameraId, mStateCallback, mBackgroundHandler);
+        } catch (CameraAccessException | SecurityException | IllegalArgumentException e) {
+            // not worth reporting. The session will open the camera normally
+            mLog.info("Could not open camera ahead of the session: {}", e);
+            mPreopenCameraId = null;
+            mCameraOpenCloseLock.release();
+        }
+    }
+
+    /**
+     * Closes a camera that was opened ahead of the session and stops the background thread
+     */
+    private void releasePreopenedCamera() {
+        mThreadStartedEarly = false;
+        mPreopenCameraId = null;
+        try {
+            // waits for an open that is still in progress
+            mCameraOpenCloseLock.acquire();
+        } catch (InterruptedException e) {
+            mErrorHandler.error("Interrupted while trying to close camera.", e);
+            return;
+        }
+        try {
+            if (mCameraDevice != null) {
+                mCameraDevice.close();
+                mCameraDevice = null;
+            }
+        } finally {
+            mCameraOpenCloseLock.release();
+        }
+        stopBackgroundThread();
+    }
+
+    /**
+     * Gives a camera that was opened ahead of the session to the session that is starting
+     *
+     * @return <code>false</code> if no camera was opened ahead of the session
+     */
+    private boolean claimPreopenedCamera(@NonNull final String cameraId) {
+        if (mPreopenCameraId == null || mBackgroundHandler == null) {
+            return false;
+        }
+        // runs on the camera thread so that it can't interleave with mStateCallback
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                boolean stillOpening = mPreopenCameraId != null && mCameraDevice == null;
+                mPreopenCameraId = null;
+                if (mCameraDevice != null && mCameraDevice.getId().equals(cameraId)) {
+                    mLog.info("Using camera {}, which was opened ahead of the session",
+                            cameraId);
+                    createCaptureSession();
+                } else if (mCameraDevice != null) {
+                    mCameraDevice.close();
+                    mCameraDevice = null;
+                    openCameraDevice(cameraId);
+                } else if (!stillOpening) {
+                    // the early open failed
+                    openCameraDevice(cameraId);
+                }
+                // otherwise, mStateCallback starts the session once the camera is open
+            }
+        });
+        return true;
     }
 
     @Contract(pure = true)
@@ -410,18 +741,25 @@ public final class Camera3 {
     }
 
     @Nullable
-    private CameraCharacteristics getCameraCharacteristics(String cameraId) {
-        return PrivateUtils.getCameraCharacteristics(cameraId, mContext, mErrorHandler);
+    private CameraCapabilities getCapabilities(@NonNull String cameraId) {
+        return CAPABILITIES.get(cameraId, mCapabilitySource);
     }
 
     @Nullable
     private Integer setSensorOrientation(String cameraId) {
-        CameraCharacteristics characteristics = getCameraCharacteristics(cameraId);
-        if (characteristics == null) {
+        beginPhase(StartupPhase.CHARACTERISTICS_LOOKUP);
+        CameraCapabilities capabilities = getCapabilities(cameraId);
+        endPhase(StartupPhase.CHARACTERISTICS_LOOKUP);
+        if (capabilities == null) {
             mErrorHandler.error("Camera Characteristics were null", null);
             return null;
         }
-        mSensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+        mSensorTimestampRealtime = capabilities.isTimestampRealtime();
+        // a minimum focus distance of 0 means the lens can't focus at all
+        mFixedFocus = capabilities.getMinimumFocusDistance() == 0f;
+        int sensorOrientation = capabilities.getSensorOrientation();
+        mSensorOrientation = sensorOrientation == CameraCapabilities.UNKNOWN_ORIENTATION ?
+                null : sensorOrientation;
         if (mSensorOrientation == null) {
             mErrorHandler.error(
                     "Invalid Camera Configuration: " +
@@ -450,8 +788,25 @@ public final class Camera3 {
                 videoCaptureHandlers, null);
     }
 
+    /**
+     * @see Camera3#startCaptureSession(String, PreviewHandler, List, List, List, Runnable)
+     */
+    public void startCaptureSession(@NonNull String cameraId,
+                                    @Nullable PreviewHandler previewHandler,
+                                    @Nullable List<StillCaptureHandler> stillCaptureHandlers,
+                                    @Nullable List<VideoCaptureHandler> videoCaptureHandlers,
+                                    @Nullable Runnable onSessionStarted) {
+        startCaptureSession(cameraId, previewHandler, stillCaptureHandlers,
+                videoCaptureHandlers, null, onSessionStarted);
+    }
+
     /**
      * Starts a new session. Only one session can be open at a time.
+     * <p>
+     * If a session is already running on the same camera, the camera is kept open and only the
+     * capture session is rebuilt for the new targets. Still capture handlers that are part of
+     * both sessions keep their image readers. Switching to a different camera closes the current
+     * session completely first.
      *
      * @param cameraId             which camera to use (from {@link Camera3#getAvailableCameras()}).
      * @param previewHandler       an object representing the configuration for the camera
@@ -464,44 +819,71 @@ public final class Camera3 {
      * @param videoCaptureHandlers a list of zero or more {@link VideoCaptureHandler}'s,
      *                             or null if no video will be recorded. Usually a maximum of one
      *                             is required.
+     * @param frameAnalysisHandlers a list of zero or more {@link FrameAnalysisHandler}'s to
+     *                             receive live frames from the preview stream, or null. These
+     *                             need a <code>previewHandler</code>.
      * @param onSessionStarted     an optional callback that will be called to notify the user when
      *                             the camera has been opened and the capture session has been
      *                             started.
      * @see PreviewHandler
      * @see StillCaptureHandler
      * @see VideoCaptureHandler
+     * @see FrameAnalysisHandler
      */
     public void startCaptureSession(@NonNull String cameraId,
                                     @Nullable PreviewHandler previewHandler,
                                     @Nullable List<StillCaptureHandler> stillCaptureHandlers,
                                     @Nullable List<VideoCaptureHandler> videoCaptureHandlers,
+                                    @Nullable List<FrameAnalysisHandler> frameAnalysisHandlers,
                                     @Nullable Runnable onSessionStarted) {
         try {
             //noinspection ConstantConditions
             if (cameraId == null) {
                 throw new IllegalArgumentException("cameraId cannot be null");
             }
-            if (this.mStarted) {
-                mErrorHandler.warning(
-                        "A capture session is already started. The current session will be " +
-                                "terminated");
-                //TODO it is redundant to close and then re-open some things. room for optimization
-                pause();
-            }
-
             if (stillCaptureHandlers == null) {
                 stillCaptureHandlers = new ArrayList<>();
             }
             if (videoCaptureHandlers == null) {
                 videoCaptureHandlers = new ArrayList<>();
             }
+            if (frameAnalysisHandlers == null) {
+                frameAnalysisHandlers = new ArrayList<>();
+            }
 
             if (previewHandler == null && stillCaptureHandlers.isEmpty()
                     && videoCaptureHandlers.isEmpty()) {
                 throw new IllegalArgumentException("no targets provided for capture session");
             }
-            mSession = new Session(cameraId, previewHandler,
-                    stillCaptureHandlers, videoCaptureHandlers);
+            if (previewHandler == null && !frameAnalysisHandlers.isEmpty()) {
+                throw new IllegalArgumentException(
+                        "frame analysis handlers need a preview to get frames from");
+            }
+            Session session = new Session(cameraId, previewHandler,
+                    stillCaptureHandlers, videoCaptureHandlers, frameAnalysisHandlers);
+            if (mPredictiveOpen) {
+                mContext.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE).edit()
+                        .putString(PREF_LAST_CAMERA_ID, cameraId).apply();
+            }
+            startStartupTimer(cameraId);
+            mFrameStatistics.reset();
+            boolean warm = cancelWarmRelease();
+            if (this.mStarted || warm) {
+                if (canReconfigure(session)) {
+                    mLog.info("Reconfiguring the current session for camera {}", cameraId);
+                    this.mStarted = true;
+                    mOnSessionStartedCallback = onSessionStarted;
+                    reconfigureCaptureSession(session);
+                    return;
+                }
+                if (!warm) {
+                    mErrorHandler.warning(
+                            "A capture session is already started. The current session will " +
+                                    "be terminated");
+                }
+                closeSession();
+            }
+            mSession = session;
             mOnSessionStartedCallback = onSessionStarted;
             startCaptureSession(mSession);
         } catch (Exception e) {
@@ -539,9 +921,56 @@ public final class Camera3 {
                     "No session configured. Call startCaptureSession(...) first");
         }
         mOnSessionStartedCallback = onSessionRestarted;
+        startStartupTimer(mSession.getCameraId());
+        mFrameStatistics.reset();
+        if (cancelWarmRelease()) {
+            if (resumeWarm()) {
+                return;
+            }
+            closeCamera();
+            stopBackgroundThread();
+        }
         startCaptureSession(mSession);
     }
 
+    /**
+     * Restarts the preview of a session that {@link #pause()} kept open
+     *
+     * @return <code>false</code> if the session can't be restarted (e.g. the camera was
+     * disconnected or the preview texture was destroyed while paused)
+     */
+    private boolean resumeWarm() {
+        if (mSession == null || mCameraDevice == null || mCaptureSession == null ||
+                mBackgroundHandler == null) {
+            return false;
+        }
+        PreviewHandler preview = mSession.getPreview();
+        if (preview != null && !preview.isTargetValid()) {
+            return false;
+        }
+        mLog.info("Resuming the session that was kept open");
+        try {
+            if (preview != null && mPreviewRequest != null) {
+                beginPhase(StartupPhase.FIRST_FRAME);
+                mCaptureSession.setRepeatingRequest(mPreviewRequest, mCaptureCallback,
+                        mBackgroundHandler);
+            }
+        } catch (CameraAccessException | IllegalStateException e) {
+            mLog.info("Could not restart the session that was kept open: {}", e);
+            return false;
+        }
+        this.mStarted = true;
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mStarted) {
+                    onSessionStarted();
+                }
+            }
+        });
+        return true;
+    }
+
     /**
      * Does the actual work of starting the camera session. Called by both
      * {@link Camera3#startCaptureSession(String, PreviewHandler, List)} and
@@ -549,20 +978,15 @@ public final class Camera3 {
      */
     private void startCaptureSession(@NonNull Session session) {
         this.mStarted = true;
-        startBackgroundThread();
-        for (StillCaptureHandler imageCaptureSession : session.getStillCaptures()) {
-            imageCaptureSession.initialize(mBackgroundHandler, this);
-            if (imageCaptureSession.getImageReader() == null ||
-                    !imageCaptureSession.getImageReader().getSurface().isValid()) {
-                mErrorHandler.warning("Internal Error: Image capture surface is not valid");
-            }
-        }
-
-        for (VideoCaptureHandler videoHandler : session.videoCaptureHandlers) {
-            videoHandler.setErrorHandler(mErrorHandler);
+        if (mThreadStartedEarly) {
+            // already running for the predictive open
+            mThreadStartedEarly = false;
+        } else {
+            startBackgroundThread();
         }
+        initializeHandlers(session);
 
-        mErrorHandler.info("starting preview");
+        mLog.info("starting preview");
 
         if (session.getPreview() != null && session.getPreview().getTextureView() != null) {
             TextureView previewTextureView = session.getPreview().getTextureView();
@@ -572,6 +996,8 @@ public final class Camera3 {
             } else {
                 previewTextureView.setSurfaceTextureListener(
                         new PreviewTextureListener(session.getCameraId()));
+                // open the camera while the view is being laid out instead of after
+                openCameraBeforePreviewTexture(session);
             }
         } else {
             openCamera(session.getCameraId());
@@ -579,32 +1005,250 @@ public final class Camera3 {
     }
 
     /**
-     * Stops background threads and frees the camera.
-     * <p>
-     * <code>pause</code> <b>must</b> be called in {@link Activity#onPause()} form the activity
-     * that started the session. Otherwise, the app could close without relinquishing control of the
-     * camera.
+     * Initializes the still capture and frame analysis handlers in the session that don't have
+     * an image reader yet (handlers kept open from the last session already do) and the video
+     * handlers.
      */
-    public void pause() {
-        try {
-            mErrorHandler.info("pause");
-            if (!this.mStarted) {
-                mErrorHandler.warning("Calling `pause()` when Camera3 is already stopped.");
-                return;
+    private void initializeHandlers(@NonNull Session session) {
+        for (StillCaptureHandler imageCaptureSession : session.getStillCaptures()) {
+            if (imageCaptureSession.getImageReader() != null) {
+                continue;
+            }
+            imageCaptureSession.initialize(mBackgroundHandler, this);
+            if (imageCaptureSession.getImageReader() == null ||
+                    !imageCaptureSession.getImageReader().getSurface().isValid()) {
+                mErrorHandler.warning("Internal Error: Image capture surface is not valid");
             }
-            closeCamera();
-            stopBackgroundThread();
-            this.mStarted = false;
-        } catch (Exception e) {
-            reportUnknownException(e);
         }
-    }
 
-    /**
-     * Registers a listener to be updated whenever Camera3 gets a result from the camera. This is
-     * useful for keeping track of what state the camera is in (e.g. if you want to play a sound
-     * when the capture is completed). Note: this is <b>NOT</b> the way you receive the result of
-     * the capture (i.e. an image). For that, use the {@link OnImageAvailableListener} in
+        for (VideoCaptureHandler videoHandler : session.videoCaptureHandlers) {
+            videoHandler.setErrorHandler(mErrorHandler);
+        }
+
+        for (FrameAnalysisHandler analysisHandler : session.getFrameAnalyses()) {
+            if (analysisHandler.getImageReader() == null) {
+                analysisHandler.initialize(mErrorHandler);
+            }
+        }
+    }
+
+    /**
+     * Whether a running session can be switched to <code>next</code> without closing the camera.
+     * That is only possible when both sessions use the same camera, the camera is already open,
+     * no video is being recorded, and the new preview (if any) can be drawn to right away.
+     */
+    @Contract(pure = true)
+    private boolean canReconfigure(@NonNull Session next) {
+        if (mSession == null || mCameraDevice == null || mBackgroundHandler == null ||
+                isRecordingVideo() || !mSession.getCameraId().equals(next.getCameraId())) {
+            return false;
+        }
+        PreviewHandler preview = next.getPreview();
+        return preview == null || preview.getTextureView() == null ||
+                preview.getTextureView().isAvailable();
+    }
+
+    /**
+     * Switches the running session to <code>next</code> without closing the camera. Only the
+     * {@link CameraCaptureSession} is recreated. The camera device and the background thread stay
+     * up, and still capture handlers that are in both sessions keep their image readers (along
+     * with any compiled requests that target them). Handlers that were dropped are closed and new
+     * ones are initialized.
+     * <p>
+     * Reprocessing zero-shutter-lag handlers are always recreated, because the frames they buffer
+     * can only be reprocessed by the session they were captured in.
+     */
+    private void reconfigureCaptureSession(@NonNull final Session next) {
+        Session previous = mSession;
+        assert previous != null;
+        mState = CameraState.WAITING_CAMERA_OPEN;
+        // the capture in progress can't finish once its session is closed
+        abandonCurrentCapture("The session was reconfigured during the capture");
+        resetPreviewGapTracker();
+        mLatestPreviewResult = null;
+        mFocusLockedAtNanos = 0;
+        try {
+            mCameraOpenCloseLock.acquire();
+        } catch (InterruptedException e) {
+            mErrorHandler.error("Interrupted while trying to reconfigure the session.", e);
+            return;
+        }
+        try {
+            if (mCaptureSession != null) {
+                mCaptureSession.close();
+                mCaptureSession = null;
+            }
+            mReprocessHandler = null;
+            // the new preview's texture is already available
+            mAwaitingPreviewTexture = false;
+            mDeferredPreviewOutput = null;
+            for (StillCaptureHandler handler : previous.getStillCaptures()) {
+                if (handler.wantsReprocessing() || !next.getStillCaptures().contains(handler)) {
+                    handler.close();
+                } else {
+                    handler.abandonAsyncCaptures(
+                            "The session was reconfigured during the capture");
+                }
+            }
+            for (VideoCaptureHandler handler : previous.getVideoCaptures()) {
+                if (!next.getVideoCaptures().contains(handler)) {
+                    handler.close();
+                }
+            }
+            for (FrameAnalysisHandler handler : previous.getFrameAnalyses()) {
+                if (!next.getFrameAnalyses().contains(handler)) {
+                    handler.close();
+                }
+            }
+            if (previous.getPreview() != null && previous.getPreview() != next.getPreview()) {
+                previous.getPreview().setListener(null);
+            }
+        } finally {
+            mCameraOpenCloseLock.release();
+        }
+
+        mSession = next;
+        initializeHandlers(next);
+        if (next.getPreview() != null && mSensorOrientation != null) {
+            setUpPreview(next.getCameraId(), mSensorOrientation, next.getPreview());
+        }
+        // the new session is created on the camera thread, after any callbacks from the old one
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mSession != next || mCameraDevice == null) {
+                    return;
+                }
+                if (next.getPreview() != null) {
+                    createPreviewCameraCaptureSession(next.getPreview());
+                } else {
+                    createCameraCaptureSessionWithoutPreview();
+                }
+            }
+        });
+    }
+
+    /**
+     * Fails the capture that is in progress, if any, when its session is about to be closed. The
+     * requests still in the queue are kept.
+     */
+    private void abandonCurrentCapture(@NonNull String reason) {
+        ImageCaptureRequest request = mCurrentCaptureRequest;
+        mCurrentCaptureRequest = null;
+        if (request == null) {
+            return;
+        }
+        finishFailedCapture(request);
+        CaptureFuture future = request.getFuture();
+        if (future != null) {
+            future.fail(reason);
+        }
+    }
+
+    /**
+     * Stops background threads and frees the camera.
+     * <p>
+     * <code>pause</code> <b>must</b> be called in {@link Activity#onPause()} form the activity
+     * that started the session. Otherwise, the app could close without relinquishing control of the
+     * camera.
+     */
+    public void pause() {
+        try {
+            mLog.info("pause");
+            if (!this.mStarted) {
+                if (mThreadStartedEarly) {
+                    releasePreopenedCamera();
+                    return;
+                }
+                mErrorHandler.warning("Calling `pause()` when Camera3 is already stopped.");
+                return;
+            }
+            if (mPauseGracePeriodMillis > 0 && mCaptureSession != null && !isRecordingVideo()) {
+                pauseWarm();
+                return;
+            }
+            closeSession();
+        } catch (Exception e) {
+            reportUnknownException(e);
+        }
+    }
+
+    /**
+     * Sets how long {@link #pause()} keeps the camera open. During the grace period, pause only
+     * stops the preview. The camera, background thread and image readers stay open, so a
+     * {@link #resume(Runnable)} within the grace period just restarts the preview. When the
+     * grace period ends without a resume, everything is released as usual. This is useful for
+     * apps that often leave for a moment and come back, like when sharing a picture.
+     * <p>
+     * While the camera is kept open, no other app can use it. The grace period is 0 (pause
+     * releases the camera right away) by default.
+     *
+     * @param duration how long to keep the camera open after pausing, or 0 to release it
+     *                 right away
+     * @param unit     the unit of <code>duration</code>
+     */
+    public void setPauseGracePeriod(long duration, @NonNull TimeUnit unit) {
+        if (duration < 0) {
+            throw new IllegalArgumentException("duration must not be negative");
+        }
+        mPauseGracePeriodMillis = unit.toMillis(duration);
+    }
+
+    private void pauseWarm() {
+        mLog.info("Keeping the camera open for {} ms", mPauseGracePeriodMillis);
+        mState = CameraState.WAITING_CAMERA_OPEN;
+        // the capture in progress can't finish while the preview is stopped. Its callbacks are
+        // ignored from here on (see isStale()).
+        mWarmPaused = true;
+        abandonCurrentCapture("The session was paused during the capture");
+        if (mSession != null) {
+            for (StillCaptureHandler handler : mSession.getStillCaptures()) {
+                handler.abandonAsyncCaptures("The session was paused during the capture");
+            }
+        }
+        try {
+            mCaptureSession.stopRepeating();
+        } catch (CameraAccessException e) {
+            reportCameraAccessException(e);
+        }
+        this.mStarted = false;
+        mMainHandler.postDelayed(mReleaseWarmCamera, mPauseGracePeriodMillis);
+    }
+
+    /**
+     * Stops the timer that releases a camera kept open by {@link #pause()}
+     *
+     * @return whether the camera was being kept open
+     */
+    private boolean cancelWarmRelease() {
+        if (!mWarmPaused) {
+            return false;
+        }
+        mMainHandler.removeCallbacks(mReleaseWarmCamera);
+        mWarmPaused = false;
+        return true;
+    }
+
+    private void releaseWarmCamera() {
+        if (!mWarmPaused) {
+            return;
+        }
+        mWarmPaused = false;
+        mLog.info("Pause grace period is over. Closing the camera");
+        closeSession();
+    }
+
+    private void closeSession() {
+        closeCamera();
+        stopBackgroundThread();
+        this.mStarted = false;
+    }
+
+    /**
+     * Registers a listener to be updated whenever Camera3 gets a result from the camera. This is
+     * useful for keeping track of what state the camera is in (e.g. if you want to play a sound
+     * when the capture is completed). Note: this is <b>NOT</b> the way you receive the result of
+     * the capture (i.e. an image). For that, use the {@link OnImageAvailableListener} in
      * {@link StillCaptureHandler#StillCaptureHandler(int, Size, OnImageAvailableListener)}
      *
      * @param listener the listener to register or {@code null} to stop listening
@@ -613,6 +1257,289 @@ public final class Camera3 {
         mCaptureResultListener = listener;
     }
 
+    /**
+     * Subscribes to changes in some of the values of the results that Camera3 gets from the
+     * camera. Unlike {@link #setCaptureResultListener(CaptureResultListener)}, which is called
+     * for every partial and total result of every frame, the listener is only called when the
+     * value of at least one of the given keys is different from the last time it was called.
+     * For example, subscribing to {@link CaptureResult#CONTROL_AF_STATE} and
+     * {@link CaptureResult#CONTROL_AE_STATE} gives one call whenever focus or exposure changes
+     * state.
+     * <p>
+     * Any number of subscriptions can be active at once, alongside the capture result listener.
+     *
+     * @param listener the listener to call when a value changes
+     * @param handler  the handler to call the listener on, or {@code null} to call it directly
+     *                 on the camera thread
+     * @param keys     the result keys to watch. At least one is required
+     * @return the subscription, which can be used to unsubscribe
+     */
+    @NonNull
+    public CaptureResultSubscription subscribeToCaptureResults(
+            @NonNull CaptureResultListener listener,
+            @Nullable Handler handler,
+            @NonNull CaptureResult.Key<?>... keys) {
+        //noinspection ConstantConditions
+        if (listener == null) {
+            throw new IllegalArgumentException("listener cannot be null");
+        }
+        //noinspection ConstantConditions
+        if (keys == null || keys.length == 0) {
+            throw new IllegalArgumentException("at least one CaptureResult.Key is required");
+        }
+        CaptureResultSubscription subscription =
+                new CaptureResultSubscription(this, listener, handler, keys);
+        mCaptureResultSubscriptions.add(subscription);
+        return subscription;
+    }
+
+    void removeCaptureResultSubscription(@NonNull CaptureResultSubscription subscription) {
+        mCaptureResultSubscriptions.remove(subscription);
+    }
+
+    private void dispatchCaptureResult(@NonNull CameraState state,
+                                       @NonNull CaptureResult result) {
+        try {
+            if (mCaptureResultListener != null) {
+                mCaptureResultListener.onResult(state, result);
+            }
+        } catch (Exception e) {
+            mErrorHandler.error("Error in CaptureResultListener callback", e);
+        }
+        for (CaptureResultSubscription subscription : mCaptureResultSubscriptions) {
+            try {
+                subscription.onResult(state, result);
+            } catch (Exception e) {
+                mErrorHandler.error("Error in CaptureResultListener callback", e);
+            }
+        }
+    }
+
+    /**
+     * Registers a listener to receive a {@link CaptureReport} after every still capture (or
+     * burst) has finished. Reports are useful for measuring how captures affect the preview.
+     *
+     * @param listener the listener to register or {@code null} to stop listening
+     */
+    public void setCaptureReportListener(@Nullable final CaptureReportListener listener) {
+        mCaptureReportListener = listener;
+    }
+
+    /**
+     * Registers a listener to receive a {@link StartupReport} every time a session starts (from
+     * <code>startCaptureSession</code> or {@link #resume()}). Reports break the time to the
+     * first frame down into {@link StartupPhase}s, which is useful for catching startup
+     * regressions.
+     *
+     * @param listener the listener to register or {@code null} to stop listening
+     * @see #getLastStartupReport()
+     */
+    public void setStartupReportListener(@Nullable final StartupReportListener listener) {
+        mStartupReportListener = listener;
+    }
+
+    /**
+     * @return the report for the last session that got its first frame, or {@code null} if no
+     * session has yet
+     * @see #setStartupReportListener(StartupReportListener)
+     */
+    @Contract(pure = true)
+    @Nullable
+    public StartupReport getLastStartupReport() {
+        return mLastStartupReport;
+    }
+
+    /**
+     * Returns statistics about the frame rate, jitter and dropped frames of the repeating
+     * request (normally the preview) of the current session. This is cheap enough to call on
+     * every frame, e.g. to show a frame rate overlay, and can be called from any thread.
+     * Statistics are reset whenever a session starts or resumes, but stay readable after
+     * {@link #pause()}.
+     *
+     * @return a snapshot of the statistics
+     */
+    @NonNull
+    public FrameStatistics getFrameStatistics() {
+        return mFrameStatistics.snapshot();
+    }
+
+    /**
+     * Sets up the threads that image work runs on: the {@link OnImageAvailableListener}s of
+     * still capture handlers. Image work never runs on the camera control thread, so a slow
+     * listener doesn't hold up focus, exposure or the next capture. Saved images have threads
+     * of their own (see {@link #setImageWritePipeline(ImageWritePipeline)}). By default there
+     * is {@value #DEFAULT_IMAGE_PROCESSING_THREADS} thread with a queue of
+     * {@value #DEFAULT_IMAGE_PROCESSING_QUEUE} tasks.
+     * <p>
+     * With more than one thread, images can be delivered out of order, and listeners may be
+     * called at the same time. Work that is already queued finishes on the old threads.
+     *
+     * @param poolSize      how many images can be processed at once. Must be at least 1
+     * @param queueCapacity how many tasks can wait for a thread. If the queue is full, a task
+     *                      goes to an overflow thread (see
+     *                      {@link ImageProcessingStats#getOverflowTaskCount()}). Must be at
+     *                      least 1
+     * @see #getImageProcessingStats()
+     */
+    public void setImageProcessingThreads(int poolSize, int queueCapacity) {
+        ImageProcessingExecutor previous = mImageProcessor;
+        mImageProcessor = new ImageProcessingExecutor(poolSize, queueCapacity);
+        previous.shutdown();
+    }
+
+    /**
+     * Returns how much image work is queued and how long it waits before it runs. Can be
+     * called from any thread.
+     *
+     * @return a snapshot of the image processing executor
+     * @see #setImageProcessingThreads(int, int)
+     */
+    @NonNull
+    public ImageProcessingStats getImageProcessingStats() {
+        return mImageProcessor.snapshot();
+    }
+
+    /**
+     * Runs image work off the camera control thread
+     */
+    void runImageTask(@NonNull Runnable task) {
+        mImageProcessor.execute(task);
+    }
+
+    /**
+     * Starts timing a new session. The timer made by the constructor is used for the first
+     * session, so the report includes the constructor.
+     */
+    private void startStartupTimer(@NonNull String cameraId) {
+        StartupTimer timer = mStartupTimer;
+        if (timer == null || timer.isSessionStarted()) {
+            timer = new StartupTimer();
+        }
+        timer.startSession(cameraId, SystemClock.elapsedRealtimeNanos());
+        mStartupTimer = timer;
+    }
+
+    private void beginPhase(@NonNull StartupPhase phase) {
+        StartupTimer timer = mStartupTimer;
+        if (timer != null) {
+            timer.begin(phase, SystemClock.elapsedRealtimeNanos());
+        }
+    }
+
+    private void endPhase(@NonNull StartupPhase phase) {
+        StartupTimer timer = mStartupTimer;
+        if (timer != null) {
+            timer.end(phase, SystemClock.elapsedRealtimeNanos());
+        }
+    }
+
+    /**
+     * Ends the first frame phase and delivers the report. Called on the background thread.
+     */
+    private void finishStartup(@NonNull StartupTimer timer) {
+        timer.end(StartupPhase.FIRST_FRAME, SystemClock.elapsedRealtimeNanos());
+        StartupReport report = timer.finish();
+        if (mStartupTimer == timer) {
+            mStartupTimer = null;
+        }
+        if (report == null) {
+            return;
+        }
+        mLastStartupReport = report;
+        mLog.info("{}", report);
+        StartupReportListener listener = mStartupReportListener;
+        if (listener == null) {
+            return;
+        }
+        try {
+            listener.onStartupReport(report);
+        } catch (Exception e) {
+            mErrorHandler.error("Error in StartupReportListener callback", e);
+        }
+    }
+
+    /**
+     * By default, Camera3 stops the repeating preview request before every still capture and
+     * restarts it afterwards, which can freeze the preview for a few frames. In non-disruptive
+     * mode, the still capture request is interleaved with the running preview request instead,
+     * so the preview keeps running at full frame rate while shooting. Some devices produce
+     * better still images when the preview is stopped, so this is off by default.
+     * <p>
+     * Use {@link CaptureReport#getSkippedPreviewFrames()} to measure the difference.
+     *
+     * @param enabled whether to leave the preview running during still captures
+     */
+    public void setNonDisruptiveCapture(boolean enabled) {
+        mNonDisruptiveCapture = enabled;
+    }
+
+    /**
+     * @return whether still captures leave the preview running
+     * @see Camera3#setNonDisruptiveCapture(boolean)
+     */
+    @Contract(pure = true)
+    public boolean isNonDisruptiveCapture() {
+        return mNonDisruptiveCapture;
+    }
+
+    /**
+     * By default, Camera3 always locks auto-focus before a still capture and then runs the
+     * precapture sequence if exposure hasn't converged. With capture planning enabled, Camera3
+     * looks at the camera's characteristics and the latest preview result first, and skips the
+     * steps that aren't needed. For example, it won't lock focus on a fixed-focus lens or
+     * when continuous auto-focus has already settled, and it won't run precapture when exposure
+     * has already converged. This can save several frames of latency per capture.
+     * <p>
+     * When a step is skipped, the {@link CaptureResultListener} will not be called with the
+     * corresponding {@link CameraState}. Use {@link CaptureReport#getPath()} to see which path
+     * each capture took.
+     *
+     * @param enabled whether to skip unneeded focus and exposure steps
+     */
+    public void setCapturePlanningEnabled(boolean enabled) {
+        mCapturePlanningEnabled = enabled;
+    }
+
+    /**
+     * @return whether still captures skip unneeded focus and exposure steps
+     * @see Camera3#setCapturePlanningEnabled(boolean)
+     */
+    @Contract(pure = true)
+    public boolean isCapturePlanningEnabled() {
+        return mCapturePlanningEnabled;
+    }
+
+    /**
+     * When several captures are queued, Camera3 normally unlocks focus after each one and locks
+     * it again for the next. This sets a window during which a successful focus lock is kept
+     * and reused by the following queued captures instead, which go straight to capturing the
+     * image. This is useful when shooting many pictures of the same scene in a row, like
+     * scanning the pages of a document.
+     * <p>
+     * The precapture sequence is skipped along with the focus lock. Use
+     * {@link #getFocusLocksSaved()} or {@link CaptureReport#isFocusLockReused()} to see how
+     * often the lock was reused. The window is 0 (disabled) by default.
+     *
+     * @param duration how long after focus locks it can be reused, or 0 to always re-lock
+     * @param unit     the unit of <code>duration</code>
+     */
+    public void setFocusLockReuseWindow(long duration, @NonNull TimeUnit unit) {
+        if (duration < 0) {
+            throw new IllegalArgumentException("duration must not be negative");
+        }
+        mFocusLockReuseWindowNanos = unit.toNanos(duration);
+    }
+
+    /**
+     * @return the number of times a queued capture reused an earlier focus lock instead of
+     * locking focus again
+     * @see #setFocusLockReuseWindow(long, TimeUnit)
+     */
+    @Contract(pure = true)
+    public int getFocusLocksSaved() {
+        return mFocusLocksSaved;
+    }
+
     /**
      * Asyncronously requests to start capturing video
      *
@@ -658,6 +1585,12 @@ public final class Camera3 {
             return;
         }
 
+        if (handler.usesPersistentSurface() && mCaptureSession != null &&
+                handler.getPersistentSurface() != null) {
+            startVideoCaptureInSession(handler, output, callback);
+            return;
+        }
+
         try {
             //close preview
             if (mCaptureSession != null) {
@@ -667,8 +1600,8 @@ public final class Camera3 {
                 mCaptureSession = null;
             }
 
-            mErrorHandler.info(String.format("Recording %s video to temporary file: %s",
-                    handler.getVideoSize().toString(), output.getPath()));
+            mLog.info("Recording {} video to temporary file: {}",
+                    handler.getVideoSize(), output.getPath());
 
             int rotation = PrivateUtils.getScreenRotation(mContext, mErrorHandler);
             handler.setUpMediaRecorder(output.getPath(), mSensorOrientation, rotation);
@@ -727,6 +1660,77 @@ public final class Camera3 {
         }
     }
 
+    /**
+     * Starts recording with a handler whose persistent surface is already part of the running
+     * session. Only the repeating request is changed, so the session doesn't have to be rebuilt.
+     *
+     * @see VideoCaptureHandler#withPersistentSurface(Size)
+     */
+    private void startVideoCaptureInSession(@NonNull VideoCaptureHandler handler,
+                                            @NonNull File output,
+                                            @Nullable VideoCaptureStartedCallback callback) {
+        if (mState != CameraState.PREVIEW) {
+            mErrorHandler.error("Video capture can't be started while a still capture is in " +
+                    "progress", null);
+            return;
+        }
+        try {
+            mLog.info("Recording {} video to file: {}", handler.getVideoSize(), output.getPath());
+
+            int rotation = PrivateUtils.getScreenRotation(mContext, mErrorHandler);
+            handler.setUpMediaRecorder(output.getPath(), mSensorOrientation, rotation);
+
+            CaptureRequest.Builder recordRequest =
+                    mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
+            PreviewHandler previewHandler = mSession.getPreview();
+            if (previewHandler != null) {
+                recordRequest.addTarget(previewHandler.getTargetSurface());
+            }
+            recordRequest.addTarget(handler.getRecorderSurface());
+            addFrameAnalysisTargets(recordRequest);
+
+            mState = CameraState.RECORDING_VIDEO;
+            mCaptureSession.setRepeatingRequest(recordRequest.build(), mCaptureCallback,
+                    mBackgroundHandler);
+            handler.start();
+            mRecordingInSession = true;
+        } catch (CameraAccessException e) {
+            reportCameraAccessException(e);
+        } catch (Exception e) {
+            mErrorHandler.error("Unable to start video capture", e);
+        }
+        if (!mRecordingInSession) {
+            if (mState == CameraState.RECORDING_VIDEO) {
+                mState = CameraState.PREVIEW;
+                restorePreviewRepeatingRequest();
+            }
+            return;
+        }
+        if (callback != null) {
+            callback.captureStarted(handler, output);
+        }
+    }
+
+    /**
+     * Takes the recorder back out of the repeating request of a session that was recording
+     * video with a persistent surface
+     */
+    private void restorePreviewRepeatingRequest() {
+        if (mCaptureSession == null) {
+            return;
+        }
+        try {
+            if (mPreviewRequest != null && mSession != null && mSession.getPreview() != null) {
+                mCaptureSession.setRepeatingRequest(mPreviewRequest, mCaptureCallback,
+                        mBackgroundHandler);
+            } else {
+                mCaptureSession.stopRepeating();
+            }
+        } catch (CameraAccessException e) {
+            reportCameraAccessException(e);
+        }
+    }
+
     /**
      * Stops video recording. Video recording must have already started.
      * <p>
@@ -736,12 +1740,25 @@ public final class Camera3 {
      * @param handler the handler that is currently recording video
      */
     public void stopVideoCapture(@NonNull VideoCaptureHandler handler) {
+        // stop the same way the recording was started
+        boolean inSession = mRecordingInSession;
+        mRecordingInSession = false;
+        if (inSession) {
+            // take the recorder out of the repeating request before it stops
+            restorePreviewRepeatingRequest();
+        }
         try {
             handler.stop();
         } catch (IllegalStateException e) {
             mErrorHandler.error("Video already stopped", e);
         }
 
+        if (inSession) {
+            mState = CameraState.PREVIEW;
+            popRequestQueue();
+            return;
+        }
+
 
         if (mSession != null && mSession.getPreview() != null) {
             createPreviewCameraCaptureSession(mSession.getPreview());
@@ -764,12 +1781,108 @@ public final class Camera3 {
      * @param capture    the configuration for the actual image capture (on top of the defaults).
      *                   Use {@link Camera3#CAPTURE_CONFIG_DEFAULT} if you don't want to change the
      *                   default configuration at all.
+     * @return a handle to cancel the capture, or <code>null</code> if it could not be queued
+     * @see Camera3#captureImage(StillCaptureHandler, CaptureRequestConfiguration,
+     * CaptureRequestConfiguration, int, long, TimeUnit)
+     */
+    @Nullable
+    public CaptureHandle captureImage(@NonNull StillCaptureHandler handler,
+                                      @Nullable CaptureRequestConfiguration precapture,
+                                      @NonNull CaptureRequestConfiguration capture) {
+        return captureImage(handler, precapture, capture,
+                CaptureHandle.PRIORITY_NORMAL, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues a still capture with a priority and an optional deadline. Queued captures are taken
+     * in order of priority, and in the order they were requested within a priority. If the
+     * deadline passes before the camera gets to the capture, it is dropped instead of being
+     * captured late.
+     *
+     * @param handler    see {@link Camera3#captureImage(StillCaptureHandler,
+     *                   CaptureRequestConfiguration, CaptureRequestConfiguration)}
+     * @param precapture see {@link Camera3#captureImage(StillCaptureHandler,
+     *                   CaptureRequestConfiguration, CaptureRequestConfiguration)}
+     * @param capture    see {@link Camera3#captureImage(StillCaptureHandler,
+     *                   CaptureRequestConfiguration, CaptureRequestConfiguration)}
+     * @param priority   the priority of the capture. Usually one of
+     *                   {@link CaptureHandle#PRIORITY_LOW}, {@link CaptureHandle#PRIORITY_NORMAL}
+     *                   or {@link CaptureHandle#PRIORITY_HIGH}
+     * @param timeout    how long the capture may wait in the queue before it is dropped, or 0 to
+     *                   wait forever
+     * @param unit       the unit of <code>timeout</code>
+     * @return a handle to cancel the capture, or <code>null</code> if it could not be queued
+     * @see Camera3#getCancelledCaptureCount()
+     * @see Camera3#getExpiredCaptureCount()
+     */
+    @Nullable
+    public CaptureHandle captureImage(@NonNull StillCaptureHandler handler,
+                                      @Nullable CaptureRequestConfiguration precapture,
+                                      @NonNull CaptureRequestConfiguration capture,
+                                      int priority,
+                                      long timeout,
+                                      @NonNull TimeUnit unit) {
+        //TODO make capture nullable to be consistent with precapture
+        return enqueueCaptureRequest(handler,
+                new ImageCaptureRequest(handler, precapture, capture, mErrorHandler),
+                priority, unit.toNanos(timeout));
+    }
+
+    /**
+     * Captures a still image and returns a future for the image together with the
+     * {@link TotalCaptureResult} that describes it. Unlike
+     * {@link Camera3#captureImage(StillCaptureHandler, CaptureRequestConfiguration,
+     * CaptureRequestConfiguration)}, the image is not passed to the handler's
+     * {@link OnImageAvailableListener}. It must be closed by the caller once it has been
+     * retrieved from the future.
+     * <p>
+     * Images and results are matched by sensor timestamp. Zero-shutter-lag handlers are not
+     * supported.
+     *
+     * @param handler    see {@link Camera3#captureImage(StillCaptureHandler,
+     *                   CaptureRequestConfiguration, CaptureRequestConfiguration)}
+     * @param precapture see {@link Camera3#captureImage(StillCaptureHandler,
+     *                   CaptureRequestConfiguration, CaptureRequestConfiguration)}
+     * @param capture    see {@link Camera3#captureImage(StillCaptureHandler,
+     *                   CaptureRequestConfiguration, CaptureRequestConfiguration)}
+     * @return a future that completes once both the image and its result have arrived. If the
+     * capture could not be queued, the future has already failed.
      */
-    public void captureImage(@NonNull StillCaptureHandler handler,
-                             @Nullable CaptureRequestConfiguration precapture,
-                             @NonNull CaptureRequestConfiguration capture) {
+    @NonNull
+    public CaptureFuture captureImageAsync(@NonNull StillCaptureHandler handler,
+                                           @Nullable CaptureRequestConfiguration precapture,
+                                           @NonNull CaptureRequestConfiguration capture) {
+        CaptureFuture future = new CaptureFuture();
+        //noinspection ConstantConditions
+        if (handler != null && handler.isZeroShutterLag()) {
+            mErrorHandler.error("captureImageAsync() does not support zero-shutter-lag handlers",
+                    null);
+            future.fail("Zero-shutter-lag handlers are not supported");
+            return future;
+        }
+        ImageCaptureRequest request =
+                new ImageCaptureRequest(handler, precapture, capture, mErrorHandler);
+        request.setFuture(future);
+        CaptureHandle handle = enqueueCaptureRequest(handler, request,
+                CaptureHandle.PRIORITY_NORMAL, 0);
+        if (handle == null) {
+            future.fail("The capture request could not be queued");
+        } else {
+            future.setHandle(handle);
+        }
+        return future;
+    }
+
+    @Nullable
+    private CaptureHandle enqueueCaptureRequest(@NonNull StillCaptureHandler handler,
+                                                @NonNull ImageCaptureRequest request,
+                                                int priority,
+                                                long timeoutNanos) {
+        if (timeoutNanos < 0) {
+            mErrorHandler.error("Capture timeout must not be negative", null);
+            return null;
+        }
         try {
-            //TODO make capture nullable to be consistent with precapture
             if (!this.mStarted) {
                 throw new IllegalStateException("trying to call captureImage(...) " +
                         "but a capture handler has not been started yet");
@@ -781,7 +1894,7 @@ public final class Camera3 {
                     requireNotNull(mSession,
                             "Internal error: Somehow the session is null even though started is " +
                                     "true")) {
-                return;
+                return null;
             }
 
             if (!handler.getImageReader().getSurface().isValid()) {
@@ -792,38 +1905,164 @@ public final class Camera3 {
                 mErrorHandler.error(
                         "StillCaptureHandler is not configured with the current camera session",
                         null);
-                return;
+                return null;
+            }
+
+            long deadline = timeoutNanos == 0 ? 0 : request.getRequestedAtNanos() + timeoutNanos;
+            request.setQueueOrder(priority, deadline, mNextRequestSequence.getAndIncrement());
+            CaptureHandle captureHandle = new CaptureHandle(this, request);
+            request.setHandle(captureHandle);
+
+            if (handler.isZeroShutterLag()) {
+                captureZeroShutterLag(request);
+                return captureHandle;
             }
 
-            mErrorHandler.info("Adding capture request to queue...");
-            mCaptureRequestQueue.add(
-                    new ImageCaptureRequest(handler, precapture, capture, mErrorHandler));
+            mLog.info("Adding capture request to queue...");
+            mCaptureRequestQueue.add(request);
 
             if (mState == CameraState.PREVIEW) {
-                mErrorHandler.info(
+                mLog.info(
                         "Camera was in PREVIEW state, so request will be resolved immediately");
                 popRequestQueue();
             } else {
-                mErrorHandler.info("Camera state is " + mState.name() + ". The image will be " +
-                        "captured ASAP");
+                mLog.info("Camera state is {}. The image will be captured ASAP", mState);
             }
+            return captureHandle;
 
         } catch (Exception e) {
             reportUnknownException(e);
+            return null;
+        }
+    }
+
+    /**
+     * Called by a {@link CaptureHandle} once it has been cancelled
+     */
+    void onCaptureCancelled(@NonNull ImageCaptureRequest request) {
+        mCaptureRequestQueue.remove(request);
+        mCancelledCaptures.incrementAndGet();
+        mLog.info("Capture request was cancelled");
+    }
+
+    /**
+     * Moves a request from the queue into capture, unless it has been cancelled or its deadline
+     * has passed.
+     *
+     * @return <code>false</code> if the request should be skipped
+     */
+    private boolean startCaptureRequest(@NonNull ImageCaptureRequest request) {
+        long now = SystemClock.elapsedRealtimeNanos();
+        CaptureHandle handle = request.getHandle();
+        if (handle == null) {
+            request.endStage(CaptureStage.QUEUE_WAIT, now);
+            return true;
+        }
+        if (request.isExpired(now) &&
+                handle.moveFrom(CaptureHandle.Status.QUEUED, CaptureHandle.Status.EXPIRED)) {
+            mExpiredCaptures.incrementAndGet();
+            mLog.info("Dropping capture request that passed its deadline");
+            return false;
+        }
+        // fails if the request was cancelled after it was taken from the queue
+        if (!handle.moveFrom(CaptureHandle.Status.QUEUED, CaptureHandle.Status.CAPTURING)) {
+            return false;
         }
+        request.endStage(CaptureStage.QUEUE_WAIT, now);
+        return true;
+    }
+
+    /**
+     * @return the number of queued captures that were cancelled through their
+     * {@link CaptureHandle}
+     */
+    @Contract(pure = true)
+    public int getCancelledCaptureCount() {
+        return mCancelledCaptures.get();
+    }
+
+    /**
+     * @return the number of queued captures that were dropped because their deadline passed
+     * @see Camera3#captureImage(StillCaptureHandler, CaptureRequestConfiguration,
+     * CaptureRequestConfiguration, int, long, TimeUnit)
+     */
+    @Contract(pure = true)
+    public int getExpiredCaptureCount() {
+        return mExpiredCaptures.get();
+    }
+
+    /**
+     * @see Camera3#captureBurst(StillCaptureHandler, int, CaptureRequestConfiguration,
+     * CaptureRequestConfiguration, BurstCaptureListener)
+     */
+    @Nullable
+    public CaptureHandle captureBurst(@NonNull StillCaptureHandler handler,
+                                      int count,
+                                      @NonNull CaptureRequestConfiguration capture) {
+        return captureBurst(handler, count, PRECAPTURE_CONFIG_TRIGGER_AUTO_EXPOSE, capture, null);
+    }
+
+    /**
+     * Captures a burst of still images. Focus and exposure are locked once and then all the
+     * frames are sent to the camera in a single
+     * {@link CameraCaptureSession#captureBurst(List, CameraCaptureSession.CaptureCallback,
+     * Handler)} call, so this is much faster than calling
+     * {@link Camera3#captureImage(StillCaptureHandler, CaptureRequestConfiguration,
+     * CaptureRequestConfiguration)} <code>count</code> times.
+     * <p>
+     * The images are delivered in order through the handler's {@link OnImageAvailableListener}.
+     * They should be closed (or copied) quickly, since the handler can only hold a couple of
+     * images at a time.
+     *
+     * @param handler    the {@link StillCaptureHandler} which will be responsible for processing
+     *                   the images
+     * @param count      the number of frames to capture. Must be at least 1
+     * @param precapture the precapture configuration. See
+     *                   {@link Camera3#captureImage(StillCaptureHandler,
+     *                   CaptureRequestConfiguration, CaptureRequestConfiguration)}
+     * @param capture    the configuration for each frame of the burst (on top of the defaults)
+     * @param listener   an optional listener to be notified when the whole burst has been
+     *                   captured, with the end-to-end duration of the burst
+     * @return a handle to cancel the burst, or <code>null</code> if it could not be queued
+     */
+    @Nullable
+    public CaptureHandle captureBurst(@NonNull StillCaptureHandler handler,
+                                      int count,
+                                      @Nullable CaptureRequestConfiguration precapture,
+                                      @NonNull CaptureRequestConfiguration capture,
+                                      @Nullable BurstCaptureListener listener) {
+        if (count < 1) {
+            mErrorHandler.error("Burst count must be at least 1 (was " + count + ")", null);
+            return null;
+        }
+        return enqueueCaptureRequest(handler,
+                new ImageCaptureRequest(handler, precapture, capture, mErrorHandler,
+                        count, listener),
+                CaptureHandle.PRIORITY_NORMAL, 0);
     }
 
     void popRequestQueue() {
-        mErrorHandler.info("Popping request queue...");
-        mErrorHandler.info("About " + mCaptureRequestQueue.size() + " requests left in queue.");
+        mLog.info("Popping request queue...");
+        mLog.info("About {} requests left in queue.", mCaptureRequestQueue.size());
         CameraState state = mState;
         if (state != CameraState.PREVIEW) {
-            mErrorHandler.info("Trying to pop queue when in mode: " + state.name() + ". Aborting.");
+            mLog.info("Trying to pop queue when in mode: {}. Aborting.", state);
+            return;
+        }
+        ImageCaptureRequest head = mCaptureRequestQueue.peek();
+        if (head != null && head.getSession().isBlockingCaptures()) {
+            // the handler pops the queue again once the app closes an image
+            mLog.info("Waiting for images to be closed before capturing more");
             return;
         }
-        mCurrentCaptureRequest = mCaptureRequestQueue.poll();
+        ImageCaptureRequest next = mCaptureRequestQueue.poll();
+        // skip over requests that were cancelled or expired while they were queued
+        while (next != null && !startCaptureRequest(next)) {
+            next = mCaptureRequestQueue.poll();
+        }
+        mCurrentCaptureRequest = next;
         if (mCurrentCaptureRequest != null) {
-            mErrorHandler.info(
+            mLog.info(
                     "Request queue was not empty -- immediately proceeding to capture another " +
                             "image");
             if (!mStarted) {
@@ -837,10 +2076,11 @@ public final class Camera3 {
             if (mSession.getPreview() == null) {
                 captureStillPicture();
             } else {
-                lockFocus();
+                mPreviewGapTracker.begin(mCurrentCaptureRequest.getReport());
+                startStillCaptureSequence(mCurrentCaptureRequest);
             }
         } else {
-            mErrorHandler.info("Request queue was empty -- nothing to do");
+            mLog.info("Request queue was empty -- nothing to do");
         }
     }
 
@@ -885,8 +2125,22 @@ public final class Camera3 {
         return !mCaptureRequestQueue.isEmpty();
     }
 
+    private void setUpPreview(@NonNull String cameraId, int sensorOrientation,
+                              @NonNull PreviewHandler preview) {
+        Size previewTextureSize = preview.getPreferredSize();
+        mLog.info("Preview texture size == {}", previewTextureSize);
+        CameraCapabilities capabilities = getCapabilities(cameraId);
+        List<Size> previewSizes = capabilities == null ? Collections.<Size>emptyList() :
+                capabilities.getSizes(CameraCapabilities.OUTPUT_PREVIEW);
+        beginPhase(StartupPhase.PREVIEW_SIZE_SELECTION);
+        PrivateUtils.setUpPreviewOutput(cameraId, previewTextureSize, sensorOrientation,
+                previewSizes, preview, mContext, mErrorHandler);
+        endPhase(StartupPhase.PREVIEW_SIZE_SELECTION);
+        PrivateUtils.configureTransform(preview, mContext, mErrorHandler);
+    }
+
     private void openCamera(String cameraId) {
-        mErrorHandler.info("opening camera");
+        mLog.info("opening camera");
 
         Integer sensorOrientation = setSensorOrientation(cameraId);
         if (sensorOrientation == null) {
@@ -897,13 +2151,110 @@ public final class Camera3 {
             return;
         }
         if (mSession.getPreview() != null) {
-            Size previewTextureSize = mSession.getPreview().getPreferredSize();
-            mErrorHandler.info("Preview texture size == " + previewTextureSize);
-            PrivateUtils.setUpPreviewOutput(cameraId, previewTextureSize, sensorOrientation,
-                    mSession.getPreview(), mContext, mErrorHandler);
-            PrivateUtils.configureTransform(mSession.getPreview(), mContext, mErrorHandler);
+            setUpPreview(cameraId, sensorOrientation, mSession.getPreview());
+        }
+        if (claimPreopenedCamera(cameraId)) {
+            return;
+        }
+        openCameraDevice(cameraId);
+    }
+
+    /**
+     * Starts opening the camera before the preview's TextureView has a surface. The capture
+     * session is created once both the camera and the texture are ready, whichever comes last
+     * (see {@link #onPreviewTextureAvailable(String)}).
+     * <p>
+     * If the preview size can be chosen without the texture (i.e. a preferred size was given or
+     * the view is already laid out), on API 26+ the session is configured as soon as the camera
+     * is open, with a deferred preview surface that the texture is added to when it arrives.
+     */
+    private void openCameraBeforePreviewTexture(@NonNull Session session) {
+        String cameraId = session.getCameraId();
+        PreviewHandler preview = session.getPreview();
+        assert preview != null;
+        mLog.info("opening camera before the preview texture is available");
+
+        Integer sensorOrientation = setSensorOrientation(cameraId);
+        if (sensorOrientation == null) {
+            return;
+        }
+        mDeferPreviewSurface = canDeferPreviewSurface(session);
+        if (mDeferPreviewSurface) {
+            setUpPreview(cameraId, sensorOrientation, preview);
+        }
+        mAwaitingPreviewTexture = true;
+        if (claimPreopenedCamera(cameraId)) {
+            return;
+        }
+        openCameraDevice(cameraId);
+    }
 
+    private boolean canDeferPreviewSurface(@NonNull Session session) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            return false;
+        }
+        PreviewHandler preview = session.getPreview();
+        assert preview != null;
+        Size size = preview.getPreferredSize();
+        if (size.getWidth() == 0 || size.getHeight() == 0) {
+            // the preview size depends on a layout that hasn't happened yet
+            return false;
+        }
+        // reprocessable sessions are always created from surfaces
+        for (StillCaptureHandler handler : session.getStillCaptures()) {
+            if (handler.isZeroShutterLag() && handler.wantsReprocessing()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Called on the main thread when the preview texture of a session that is already opening
+     * the camera becomes available
+     */
+    private void onPreviewTextureAvailable(@NonNull String cameraId) {
+        final Session session = mSession;
+        if (session == null || session.getPreview() == null || mBackgroundHandler == null) {
+            return;
         }
+        final PreviewHandler preview = session.getPreview();
+        if (mDeferPreviewSurface) {
+            // the size was chosen before layout, but the transform needs the real view size
+            PrivateUtils.configureTransform(preview, mContext, mErrorHandler);
+        } else {
+            if (mSensorOrientation == null) {
+                // already reported by setSensorOrientation()
+                return;
+            }
+            setUpPreview(cameraId, mSensorOrientation, preview);
+        }
+        // runs on the camera thread so that it can't interleave with mStateCallback
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mSession != session || !mAwaitingPreviewTexture) {
+                    return;
+                }
+                mAwaitingPreviewTexture = false;
+                if (mCameraDevice == null) {
+                    // mStateCallback creates the session once the camera is open
+                    mLog.info("Preview texture is ready. Waiting for the camera");
+                    return;
+                }
+                if (!mDeferPreviewSurface) {
+                    createPreviewCameraCaptureSession(preview);
+                } else if (mDeferredPreviewOutput != null &&
+                        Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                    finishDeferredPreview(preview);
+                }
+                // otherwise the deferred session is still being configured and adds the
+                // texture itself
+            }
+        });
+    }
+
+    private void openCameraDevice(String cameraId) {
         CameraManager manager = (CameraManager) mContext.getSystemService(Context.CAMERA_SERVICE);
         try {
             if (!mCameraOpenCloseLock.tryAcquire(2500, TimeUnit.MILLISECONDS)) {
@@ -913,6 +2264,7 @@ public final class Camera3 {
             if (requireNotNull(manager, NULL_MANAGER_MESSAGE)) {
                 return;
             }
+            beginPhase(StartupPhase.CAMERA_OPEN);
             manager.openCamera(cameraId, mStateCallback, mBackgroundHandler);
         } catch (CameraAccessException e) {
             reportCameraAccessException(e);
@@ -933,10 +2285,15 @@ public final class Camera3 {
             mErrorHandler.warning("Starting session from background thread");
             return;
         }
-        mErrorHandler.info("Starting background threads...");
-        mBackgroundThread = new HandlerThread("CameraBackground");
+        mLog.info("Starting background threads...");
+        beginPhase(StartupPhase.BACKGROUND_THREAD_START);
+        // focus, exposure and capture callbacks are latency sensitive. Image work runs on the
+        // image processing threads at normal priority
+        mBackgroundThread = new HandlerThread("CameraBackground",
+                android.os.Process.THREAD_PRIORITY_DISPLAY);
         mBackgroundThread.start();
         mBackgroundHandler = new Handler(mBackgroundThread.getLooper());
+        endPhase(StartupPhase.BACKGROUND_THREAD_START);
     }
 
     private void stopBackgroundThread() {
@@ -957,8 +2314,20 @@ public final class Camera3 {
 
     private void closeCamera() {
         mState = CameraState.WAITING_CAMERA_OPEN;
+        mRecordingInSession = false;
+        resetPreviewGapTracker();
+        mLatestPreviewResult = null;
+        mCompiledRequests.evictAll();
+        for (CaptureResultSubscription subscription : mCaptureResultSubscriptions) {
+            subscription.reset();
+        }
+        mFocusLockedAtNanos = 0;
         try {
             mCameraOpenCloseLock.acquire();
+            // a camera opened ahead of the session is closed along with everything else
+            mPreopenCameraId = null;
+            mAwaitingPreviewTexture = false;
+            mDeferredPreviewOutput = null;
             if (mCaptureSession != null) {
                 mCaptureSession.close();
                 mCaptureSession = null;
@@ -971,10 +2340,14 @@ public final class Camera3 {
                 mErrorHandler.warning("Internal Error: session null when closing camera");
                 return;
             }
+            mReprocessHandler = null;
             for (StillCaptureHandler captureHandler : mSession.getStillCaptures()) {
                 captureHandler.close();
 
             }
+            for (FrameAnalysisHandler analysisHandler : mSession.getFrameAnalyses()) {
+                analysisHandler.close();
+            }
         } catch (InterruptedException e) {
             mErrorHandler.error("Interrupted while trying to close camera.", e);
         } finally {
@@ -983,69 +2356,105 @@ public final class Camera3 {
     }
 
     /**
-     * Creates a new {@link CameraCaptureSession} for camera preview.
+     * Applies the latest preview config to the running preview. Called from
+     * {@link #mCaptureCallback} on the background thread, at most once per frame.
      */
-    private void createPreviewCameraCaptureSession(@NonNull final PreviewHandler previewHandler) {
+    private void applyPreviewUpdate() {
+        if (mSession == null || mSession.getPreview() == null || mCameraDevice == null ||
+                mCaptureSession == null || mPreviewRequestBuilder == null) {
+            return;
+        }
+        try {
+            CaptureRequest.Builder builder = mSession.getPreview().applyLatestConfig(
+                    mPreviewRequestBuilder, mCameraDevice, mErrorHandler);
+            if (builder != mPreviewRequestBuilder) {
+                addZeroShutterLagTargets(builder);
+                addFrameAnalysisTargets(builder);
+                mPreviewRequestBuilder = builder;
+            } else {
+                // the live builder may still hold one-shot triggers from the last capture
+                builder.set(CaptureRequest.CONTROL_AF_TRIGGER,
+                        CameraMetadata.CONTROL_AF_TRIGGER_IDLE);
+                builder.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER,
+                        CameraMetadata.CONTROL_AE_PRECAPTURE_TRIGGER_IDLE);
+            }
+            // also used to restart the preview after a capture
+            mPreviewRequest = builder.build();
+            mCaptureSession.setRepeatingRequest(mPreviewRequest, mCaptureCallback,
+                    mBackgroundHandler);
+        } catch (CameraAccessException e) {
+            reportCameraAccessException(e);
+        }
+    }
 
-        if (requireNotNull(previewHandler, "Internal error: previewHandler is null")) {
+    /**
+     * Creates a {@link CameraCaptureSession} for the current session on the open camera
+     */
+    private void createCaptureSession() {
+        if (requireNotNull(mSession,
+                "Internal error: session is null when creating the capture session")) {
+            return;
+        }
+        if (mSession.getPreview() == null) {
+            createCameraCaptureSessionWithoutPreview();
+            return;
+        }
+        if (mAwaitingPreviewTexture) {
+            if (mDeferPreviewSurface && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                createDeferredPreviewCaptureSession(mSession.getPreview());
+            } else {
+                // onPreviewTextureAvailable() creates the session
+                mLog.info("Camera is open. Waiting for the preview texture");
+            }
             return;
         }
+        createPreviewCameraCaptureSession(mSession.getPreview());
+    }
 
-        previewHandler.init(mErrorHandler);
+    /**
+     * Creates a {@link CameraCaptureSession} whose preview output doesn't have a surface yet, so
+     * that configuring the session overlaps with the preview texture being created. The texture
+     * is added by {@link #finishDeferredPreview(PreviewHandler)}.
+     */
+    @TargetApi(Build.VERSION_CODES.O)
+    private void createDeferredPreviewCaptureSession(@NonNull final PreviewHandler previewHandler) {
+        Size previewSize = previewHandler.getPreviewSize();
+        if (requireNotNull(previewSize, "Internal error: preview size is null")) {
+            return;
+        }
+        mReprocessHandler = null;
 
-        // Create a CameraCaptureSession for camera preview.
-        List<Surface> targetSurfaces = new ArrayList<>(Collections.singletonList(previewHandler.getTargetSurface()));
-        targetSurfaces.addAll(getCaptureTargetSurfaces());
+        final OutputConfiguration previewOutput =
+                new OutputConfiguration(previewSize, SurfaceTexture.class);
+        List<OutputConfiguration> outputs = new ArrayList<>();
+        outputs.add(previewOutput);
+        List<Surface> captureSurfaces = getCaptureTargetSurfaces();
+        for (Surface surface : captureSurfaces) {
+            outputs.add(new OutputConfiguration(surface));
+        }
 
-        mErrorHandler.info("preview target surfaces: " + targetSurfaces);
+        mLog.info("preview target surfaces: deferred {} preview + {}", previewSize,
+                captureSurfaces);
         try {
-            mCameraDevice.createCaptureSession(targetSurfaces,
+            beginPhase(StartupPhase.SESSION_CONFIGURE);
+            mCameraDevice.createCaptureSessionByOutputConfigurations(outputs,
                     new CameraCaptureSession.StateCallback() {
-
                         @Override
                         public void onConfigured(@NonNull CameraCaptureSession
                                                          cameraCaptureSession) {
+                            endPhase(StartupPhase.SESSION_CONFIGURE);
                             // The camera is already closed
                             if (mCameraDevice == null) {
                                 return;
                             }
-
-                            // When the session is ready, we start displaying the preview.
                             mCaptureSession = cameraCaptureSession;
-
-                            try {
-                                // We wait to do this till no so that if the user updates the
-                                // preview config right away those changes get used
-                                mPreviewRequestBuilder =
-                                        previewHandler.configureCaptureRequest(mCameraDevice, mErrorHandler);
-
-                                mPreviewRequest = mPreviewRequestBuilder.build();
-
-                                // Finally, we start displaying the camera preview.
-                                mCaptureSession.setRepeatingRequest(mPreviewRequest,
-                                        mCaptureCallback, mBackgroundHandler);
-                                onSessionStarted();
-                            } catch (CameraAccessException e) {
-                                reportCameraAccessException(e);
+                            mDeferredPreviewOutput = previewOutput;
+                            if (mAwaitingPreviewTexture) {
+                                mLog.info("Capture session configured. " +
+                                        "Waiting for the preview texture");
+                            } else {
+                                finishDeferredPreview(previewHandler);
                             }
-
-                            previewHandler.setListener(new PreviewHandler.ConfigUpdatedListener() {
-                                @Override
-                                public void onUpdated(PreviewHandler thisHandler) {
-                                    if (mState == CameraState.PREVIEW) {
-                                        try {
-                                            mPreviewRequestBuilder =
-                                                    thisHandler.configureCaptureRequest(
-                                                            mCameraDevice, mErrorHandler);
-                                            mCaptureSession.setRepeatingRequest(
-                                                    mPreviewRequestBuilder.build(),
-                                                    mCaptureCallback, mBackgroundHandler);
-                                        } catch (CameraAccessException e) {
-                                            reportCameraAccessException(e);
-                                        }
-                                    }
-                                }
-                            });
                         }
 
                         @Override
@@ -1054,27 +2463,247 @@ public final class Camera3 {
                             mErrorHandler.error(
                                     "Failed to configure CameraCaptureSession", null);
                         }
-                    }, null
-            );
+                    }, mBackgroundHandler);
+        } catch (CameraAccessException e) {
+            reportCameraAccessException(e);
+        }
+    }
+
+    /**
+     * Adds the preview texture to a session created by
+     * {@link #createDeferredPreviewCaptureSession(PreviewHandler)} and starts the preview
+     */
+    @TargetApi(Build.VERSION_CODES.O)
+    private void finishDeferredPreview(@NonNull PreviewHandler previewHandler) {
+        OutputConfiguration previewOutput = mDeferredPreviewOutput;
+        mDeferredPreviewOutput = null;
+        if (previewOutput == null || mCaptureSession == null) {
+            return;
+        }
+        previewHandler.init(mErrorHandler);
+        Surface surface = previewHandler.getTargetSurface();
+        if (surface == null) {
+            // already reported by init()
+            return;
+        }
+        try {
+            previewOutput.addSurface(surface);
+            mCaptureSession.finalizeOutputConfigurations(singletonList(previewOutput));
         } catch (CameraAccessException e) {
             reportCameraAccessException(e);
+            return;
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            mErrorHandler.error("Could not add the preview texture to the capture session", e);
+            return;
+        }
+        startPreview(previewHandler);
+    }
+
+    /**
+     * Creates a new {@link CameraCaptureSession} for camera preview.
+     */
+    private void createPreviewCameraCaptureSession(@NonNull final PreviewHandler previewHandler) {
+
+        if (requireNotNull(previewHandler, "Internal error: previewHandler is null")) {
+            return;
+        }
+
+        previewHandler.init(mErrorHandler);
+
+        mReprocessHandler = chooseReprocessHandler();
+
+        // Create a CameraCaptureSession for camera preview.
+        List<Surface> targetSurfaces = new ArrayList<>(Collections.singletonList(previewHandler.getTargetSurface()));
+        targetSurfaces.addAll(getCaptureTargetSurfaces());
+
+        mLog.info("preview target surfaces: {}", targetSurfaces);
+        CameraCaptureSession.StateCallback stateCallback =
+                new CameraCaptureSession.StateCallback() {
+
+                    @Override
+                    public void onConfigured(@NonNull CameraCaptureSession
+                                                     cameraCaptureSession) {
+                        endPhase(StartupPhase.SESSION_CONFIGURE);
+                        // The camera is already closed
+                        if (mCameraDevice == null) {
+                            return;
+                        }
+
+                        // When the session is ready, we start displaying the preview.
+                        mCaptureSession = cameraCaptureSession;
+
+                        if (mReprocessHandler != null &&
+                                Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                            mReprocessHandler.setReprocessWriter(ImageWriter.newInstance(
+                                    cameraCaptureSession.getInputSurface(), 2));
+                        }
+
+                        startPreview(previewHandler);
+                    }
+
+                    @Override
+                    public void onConfigureFailed(
+                            @NonNull CameraCaptureSession cameraCaptureSession) {
+                        mErrorHandler.error(
+                                "Failed to configure CameraCaptureSession", null);
+                    }
+                };
+        try {
+            beginPhase(StartupPhase.SESSION_CONFIGURE);
+            if (mReprocessHandler != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                Size inputSize = mReprocessHandler.getImageSize();
+                assert inputSize != null;
+                mCameraDevice.createReprocessableCaptureSession(
+                        new InputConfiguration(inputSize.getWidth(), inputSize.getHeight(),
+                                mReprocessHandler.getImageFormat()),
+                        targetSurfaces, stateCallback, null);
+            } else {
+                mCameraDevice.createCaptureSession(targetSurfaces, stateCallback, null);
+            }
+        } catch (CameraAccessException e) {
+            reportCameraAccessException(e);
+        }
+    }
+
+    /**
+     * Starts the repeating preview request on the configured {@link #mCaptureSession}
+     */
+    private void startPreview(@NonNull PreviewHandler previewHandler) {
+        try {
+            // We wait to do this till no so that if the user updates the
+            // preview config right away those changes get used
+            mPreviewUpdatePending.set(false);
+            mPreviewRequestBuilder =
+                    previewHandler.configureCaptureRequest(mCameraDevice, mErrorHandler);
+            addZeroShutterLagTargets(mPreviewRequestBuilder);
+            addFrameAnalysisTargets(mPreviewRequestBuilder);
+
+            mPreviewRequest = mPreviewRequestBuilder.build();
+
+            // Finally, we start displaying the camera preview.
+            beginPhase(StartupPhase.FIRST_FRAME);
+            mCaptureSession.setRepeatingRequest(mPreviewRequest,
+                    mCaptureCallback, mBackgroundHandler);
+            onSessionStarted();
+        } catch (CameraAccessException e) {
+            reportCameraAccessException(e);
+        }
+
+        previewHandler.setListener(new PreviewHandler.ConfigUpdatedListener() {
+            @Override
+            public void onUpdated(PreviewHandler thisHandler) {
+                // picked up by mCaptureCallback on the next preview frame
+                mPreviewUpdatePending.set(true);
+            }
+        });
+    }
+
+    /**
+     * Picks the zero-shutter-lag handler (if any) that the session will be able to reprocess
+     * frames for. A session can only have one reprocessing input.
+     */
+    @Nullable
+    private StillCaptureHandler chooseReprocessHandler() {
+        if (mSession == null) {
+            return null;
+        }
+        StillCaptureHandler chosen = null;
+        for (StillCaptureHandler handler : mSession.getStillCaptures()) {
+            if (!handler.isZeroShutterLag() || !handler.wantsReprocessing()) {
+                continue;
+            }
+            if (chosen != null) {
+                mErrorHandler.error("Only one reprocessing zero-shutter-lag handler can be " +
+                        "used per session", null);
+                break;
+            }
+            if (supportsReprocessing(mSession.getCameraId(), handler.getImageFormat())) {
+                chosen = handler;
+            } else if (handler.getImageFormat() == ImageFormat.PRIVATE) {
+                mErrorHandler.error("This camera can't reprocess PRIVATE frames, so the " +
+                        "zero-shutter-lag handler won't be able to capture images", null);
+            } else {
+                mLog.info("This camera can't reprocess YUV frames. Zero-shutter-lag " +
+                        "captures will deliver the raw frames instead");
+            }
+        }
+        return chosen;
+    }
+
+    private boolean supportsReprocessing(@NonNull String cameraId, int format) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return false;
+        }
+        CameraCapabilities capabilities = getCapabilities(cameraId);
+        if (capabilities == null) {
+            return false;
+        }
+        int needed = format == ImageFormat.PRIVATE ?
+                CameraMetadata.REQUEST_AVAILABLE_CAPABILITIES_PRIVATE_REPROCESSING :
+                CameraMetadata.REQUEST_AVAILABLE_CAPABILITIES_YUV_REPROCESSING;
+        return capabilities.hasCapability(needed);
+    }
+
+    /**
+     * Zero-shutter-lag handlers buffer frames from the repeating request, so their surfaces are
+     * added as targets of every preview request.
+     */
+    private void addZeroShutterLagTargets(@NonNull CaptureRequest.Builder builder) {
+        if (mSession == null) {
+            return;
+        }
+        for (StillCaptureHandler handler : mSession.getStillCaptures()) {
+            if (handler.isZeroShutterLag() && handler.getImageReader() != null) {
+                builder.addTarget(handler.getImageReader().getSurface());
+            }
+        }
+    }
+
+    /**
+     * Frame analysis handlers get their frames from the repeating request, so their surfaces are
+     * added as targets of every preview request.
+     */
+    private void addFrameAnalysisTargets(@NonNull CaptureRequest.Builder builder) {
+        if (mSession == null) {
+            return;
+        }
+        for (FrameAnalysisHandler handler : mSession.getFrameAnalyses()) {
+            if (handler.getImageReader() != null) {
+                builder.addTarget(handler.getImageReader().getSurface());
+            }
         }
     }
 
     private void createCameraCaptureSessionWithoutPreview() {
+        mReprocessHandler = null;
+        if (mSession != null) {
+            for (StillCaptureHandler handler : mSession.getStillCaptures()) {
+                if (handler.isZeroShutterLag()) {
+                    mErrorHandler.error("Zero-shutter-lag handlers need a preview to buffer " +
+                            "frames from", null);
+                }
+            }
+        }
         try {
+            beginPhase(StartupPhase.SESSION_CONFIGURE);
             mCameraDevice.createCaptureSession(getCaptureTargetSurfaces(),
                     new CameraCaptureSession.StateCallback() {
 
                         @Override
                         public void onConfigured(@NonNull CameraCaptureSession
                                                          cameraCaptureSession) {
+                            endPhase(StartupPhase.SESSION_CONFIGURE);
                             // The camera is already closed
                             if (mCameraDevice == null) {
                                 return;
                             }
 
                             mCaptureSession = cameraCaptureSession;
+                            // there is no stream of frames to wait for
+                            StartupTimer startupTimer = mStartupTimer;
+                            if (startupTimer != null) {
+                                finishStartup(startupTimer);
+                            }
                             onSessionStarted();
                         }
 
@@ -1092,11 +2721,15 @@ public final class Camera3 {
 
     private void onSessionStarted() {
         mState = CameraState.PREVIEW;
-        mErrorHandler.info("Session started. Calling onSessionStarted callback...");
+        mLog.info("Session started. Calling onSessionStarted callback...");
         if (mOnSessionStartedCallback != null) {
             mOnSessionStartedCallback.run();
         }
         popRequestQueue();
+        if (CAPABILITIES.hasUnsavedChanges() && mBackgroundHandler != null) {
+            // after the first captures are on their way
+            mBackgroundHandler.post(mWriteCapabilitySnapshot);
+        }
     }
 
     @NonNull
@@ -1120,22 +2753,96 @@ public final class Camera3 {
                         "surface");
             }
             targetSurfaces.add(captureHandler.getImageReader().getSurface());
+            if (captureHandler == mReprocessHandler &&
+                    captureHandler.getReprocessReader() != null) {
+                targetSurfaces.add(captureHandler.getReprocessReader().getSurface());
+            }
+        }
+        for (VideoCaptureHandler videoHandler : mSession.getVideoCaptures()) {
+            Surface persistentSurface = videoHandler.getPersistentSurface();
+            if (persistentSurface != null) {
+                targetSurfaces.add(persistentSurface);
+            }
+        }
+        for (FrameAnalysisHandler analysisHandler : mSession.getFrameAnalyses()) {
+            if (analysisHandler.getImageReader() == null) {
+                mErrorHandler.error("a FrameAnalysisHandler has a null ImageReader", null);
+                continue;
+            }
+            targetSurfaces.add(analysisHandler.getImageReader().getSurface());
         }
         return targetSurfaces;
     }
 
+    /**
+     * Starts the still capture sequence for a request while the preview is running. Unless
+     * capture planning is enabled, this always starts by locking focus.
+     *
+     * @see Camera3#setCapturePlanningEnabled(boolean)
+     */
+    private void startStillCaptureSequence(@NonNull ImageCaptureRequest request) {
+        if (isFocusLockReusable()) {
+            mLog.info("Reusing focus lock from previous capture");
+            mFocusLocksSaved++;
+            request.getReport().setFocusLockReused();
+            captureStillPicture();
+            return;
+        }
+        if (!mCapturePlanningEnabled) {
+            lockFocus();
+            return;
+        }
+        CaptureResult latest = mLatestPreviewResult;
+        CapturePath path = CapturePlanner.plan(mFixedFocus,
+                latest == null ? null : latest.get(CaptureResult.CONTROL_AF_MODE),
+                latest == null ? null : latest.get(CaptureResult.CONTROL_AF_STATE),
+                latest == null ? null : latest.get(CaptureResult.CONTROL_AE_STATE),
+                request.hasPrecapture());
+        mLog.info("Planned capture path: {}", path);
+        switch (path) {
+            case FOCUS_AND_PRECAPTURE:
+            case FOCUS_ONLY:
+                // whether precapture is needed is checked again once focus is locked
+                lockFocus();
+                break;
+            case PRECAPTURE_ONLY:
+                runPrecapture(request);
+                break;
+            case DIRECT:
+                captureStillPicture();
+                break;
+        }
+    }
+
+    /**
+     * Ends a {@link CaptureStage} of the capture request that is in progress
+     */
+    private void endCurrentStage(@NonNull CaptureStage stage) {
+        ImageCaptureRequest request = mCurrentCaptureRequest;
+        if (request != null) {
+            request.endStage(stage, SystemClock.elapsedRealtimeNanos());
+        }
+    }
+
     /**
      * Lock the focus as the first step for a still image capture.
      */
     private void lockFocus() {
-        mErrorHandler.info("Locking focus...");
+        mLog.info("Locking focus...");
         try {
+            if (mFocusLockedAtNanos != 0) {
+                // a lock that is too old to reuse is still held, so release it first
+                releaseFocusLock();
+            }
             // If the camera is previewing, tell it to lock focus.
             mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER,
                     CameraMetadata.CONTROL_AF_TRIGGER_START);
 
             // Tell #mCaptureCallback to wait for the lock.
             mState = CameraState.WAITING_FOCUS_LOCK;
+            if (mCurrentCaptureRequest != null) {
+                mCurrentCaptureRequest.getReport().setFocusLocked();
+            }
 
             mCaptureSession.capture(mPreviewRequestBuilder.build(), mCaptureCallback,
                     mBackgroundHandler);
@@ -1145,23 +2852,72 @@ public final class Camera3 {
         }
     }
 
+    /**
+     * Cancel the auto-focus trigger so that auto-focus goes back to normal
+     */
+    private void releaseFocusLock() throws CameraAccessException {
+        mFocusLockedAtNanos = 0;
+        // Reset the auto-focus trigger
+        mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER,
+                CameraMetadata.CONTROL_AF_TRIGGER_CANCEL);
+        mCaptureSession.capture(mPreviewRequestBuilder.build(), mCaptureCallback,
+                mBackgroundHandler);
+    }
+
+    @Contract(pure = true)
+    private boolean isFocusLockReusable() {
+        return mFocusLockedAtNanos != 0 && SystemClock.elapsedRealtimeNanos() -
+                mFocusLockedAtNanos < mFocusLockReuseWindowNanos;
+    }
+
+    /**
+     * Run the auto-exposure precapture sequence before a still image capture.
+     */
+    private void runPrecapture(@NonNull ImageCaptureRequest request) {
+        mLog.info("running precapture sequence");
+        // Run precapture:
+        request.configurePrecapture(mPreviewRequestBuilder);
+        request.getReport().setPrecaptureRun();
+
+        // Tell #mCaptureCallback to wait for the precapture sequence
+        // to be set.
+        mState = CameraState.WAITING_PRECAPTURE;
+        try {
+            mCaptureSession.capture(
+                    mPreviewRequestBuilder.build(),
+                    mCaptureCallback,
+                    mBackgroundHandler);
+        } catch (CameraAccessException e) {
+            reportCameraAccessException(e);
+        }
+    }
+
     /**
      * Unlock the focus. This method should be called when still image capture sequence is
-     * finished.
+     * finished. The focus lock is kept instead if it can be reused by the next capture.
+     *
+     * @param finished the request whose capture sequence just finished
      */
-    private void unlockFocus() {
-        mErrorHandler.info("Unlocking focus...");
+    private void unlockFocus(@NonNull ImageCaptureRequest finished) {
         try {
             mState = CameraState.PREVIEW;
             if (mPreviewRequestBuilder != null) {
-                // Reset the auto-focus trigger
-                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER,
-                        CameraMetadata.CONTROL_AF_TRIGGER_CANCEL);
-                mCaptureSession.capture(mPreviewRequestBuilder.build(), mCaptureCallback,
-                        mBackgroundHandler);
+                // keep the lock if another capture is waiting for (or already using) it
+                if (isFocusLockReusable() && (!mCaptureRequestQueue.isEmpty() ||
+                        mCurrentCaptureRequest != finished)) {
+                    mLog.info("Keeping focus locked for the next capture");
+                    mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER,
+                            CameraMetadata.CONTROL_AF_TRIGGER_IDLE);
+                } else {
+                    mLog.info("Unlocking focus...");
+                    releaseFocusLock();
+                }
                 // After this, the camera will go back to the normal state of preview.
-                mCaptureSession.setRepeatingRequest(mPreviewRequest, mCaptureCallback,
-                        mBackgroundHandler);
+                // (In non-disruptive mode, preview was never stopped.)
+                if (!mNonDisruptiveCapture) {
+                    mCaptureSession.setRepeatingRequest(mPreviewRequest, mCaptureCallback,
+                            mBackgroundHandler);
+                }
             }
         } catch (CameraAccessException e) {
             reportCameraAccessException(e);
@@ -1195,7 +2951,7 @@ public final class Camera3 {
             return;
         }
 
-        ImageCaptureRequest request = mCurrentCaptureRequest;
+        final ImageCaptureRequest request = mCurrentCaptureRequest;
         if (request == null) {
             mErrorHandler.error("Internal Error: capture queue was empty", null);
             return;
@@ -1209,40 +2965,53 @@ public final class Camera3 {
         }
 
         try {
+            int rotation = PrivateUtils.getScreenRotation(mContext, mErrorHandler);
+            int orientation = getOrientation(rotation);
+            final CaptureFuture future = request.getFuture();
+
+            // A compiled request can be reused if its settings are immutable and it doesn't
+            // carry a per-capture tag
+            RequestSettings settings = request.getCaptureSettings();
+            RequestCacheKey cacheKey = null;
+            CaptureRequest compiledRequest = null;
+            if (settings != null && future == null && !request.isBurst()) {
+                cacheKey = new RequestCacheKey(CameraDevice.TEMPLATE_STILL_CAPTURE,
+                        imageReader.getSurface(), settings, orientation);
+                compiledRequest = mCompiledRequests.get(cacheKey);
+            }
+
             // This is the CaptureRequest.Builder that we use to take a picture.
-            final CaptureRequest.Builder captureBuilder =
-                    mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+            CaptureRequest.Builder captureBuilder = null;
+            if (compiledRequest == null) {
+                captureBuilder =
+                        mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
 
-            //set some defaults:
+                //set some defaults:
 
-            // Use the same AE and AF modes as the preview.
-            captureBuilder.set(CaptureRequest.CONTROL_AF_MODE,
-                    CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+                // Use the same AE and AF modes as the preview.
+                captureBuilder.set(CaptureRequest.CONTROL_AF_MODE,
+                        CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
 
-            int rotation = PrivateUtils.getScreenRotation(mContext, mErrorHandler);
-            captureBuilder.set(CaptureRequest.JPEG_ORIENTATION, getOrientation(rotation));
+                // Orientation
+                captureBuilder.set(CaptureRequest.JPEG_ORIENTATION, orientation);
 
-            request.configureCapture(captureBuilder);
+                request.configureCapture(captureBuilder);
 
-            captureBuilder.addTarget(imageReader.getSurface());
-            // Orientation
+                captureBuilder.addTarget(imageReader.getSurface());
 
-            CameraCaptureSession.CaptureCallback captureCallback
-                    = new CameraCaptureSession.CaptureCallback() {
-                @Override
-                public void onCaptureCompleted(@NonNull CameraCaptureSession session,
-                                               @NonNull CaptureRequest request,
-                                               @NonNull TotalCaptureResult result) {
-//                    mErrorHandler.info("Capture Completed. result == " + result);
-                    if (mCaptureResultListener != null) {
-                        mCaptureResultListener.onResult(CameraState.CAPTURE_COMPLETED, result);
-                    }
-                    unlockFocus();
+                if (future != null) {
+                    // lets the handler find the future again from the result
+                    captureBuilder.setTag(future);
                 }
-            };
+            }
+            if (future != null) {
+                session.beginAsyncCapture(future);
+            }
 
-            mCaptureSession.stopRepeating();
-            mCaptureSession.abortCaptures();
+            if (!mNonDisruptiveCapture) {
+                mCaptureSession.stopRepeating();
+                mCaptureSession.abortCaptures();
+            }
 
             //if this is called from a thread without a looper (esp in testing), use the background
             //handler to handle the result
@@ -1251,13 +3020,393 @@ public final class Camera3 {
             if (Looper.myLooper() == null) {
                 captureHandler = mBackgroundHandler;
             }
-            mCaptureSession.capture(captureBuilder.build(), captureCallback, captureHandler);
+
+            if (request.isBurst()) {
+                // burst requests are never cached, so the builder was created above
+                assert captureBuilder != null;
+                captureBurstPicture(request, captureBuilder, captureHandler);
+                return;
+            }
+
+            CameraCaptureSession.CaptureCallback captureCallback
+                    = new CameraCaptureSession.CaptureCallback() {
+                // the result and the lost buffer can be reported in either order
+                private boolean resultArrived = false;
+                private Long resultTimestamp = null;
+                private boolean bufferLost = false;
+
+                @Override
+                public void onCaptureCompleted(@NonNull CameraCaptureSession session,
+                                               @NonNull CaptureRequest captureRequest,
+                                               @NonNull TotalCaptureResult result) {
+//                    mLog.info("Capture Completed. result == " + result);
+                    if (isStale(session)) {
+                        return;
+                    }
+                    mFrameStatistics.onOtherFrame(result.getFrameNumber());
+                    request.onCaptureResult(SystemClock.elapsedRealtimeNanos());
+                    dispatchCaptureResult(CameraState.CAPTURE_COMPLETED, result);
+                    resultArrived = true;
+                    resultTimestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+                    if (future != null) {
+                        request.getSession().onAsyncResult(result);
+                    }
+                    onCaptureFinished(request);
+                    unlockFocus(request);
+                    if (bufferLost) {
+                        // no image will arrive to move the queue along
+                        popRequestQueue();
+                    }
+                }
+
+                @Override
+                public void onCaptureFailed(@NonNull CameraCaptureSession session,
+                                            @NonNull CaptureRequest captureRequest,
+                                            @NonNull CaptureFailure failure) {
+                    if (isStale(session)) {
+                        return;
+                    }
+                    mFrameStatistics.onFailure(failure.getFrameNumber());
+                    request.getSession().getLatencyTracker().onFailed();
+                    if (future != null) {
+                        request.getSession().onAsyncCaptureFailed(future,
+                                "Capture failed (reason " + failure.getReason() + ")");
+                    }
+                    // no image will arrive to move the queue along
+                    finishFailedCapture(request);
+                    unlockFocus(request);
+                    popRequestQueue();
+                }
+
+                @Override
+                public void onCaptureBufferLost(@NonNull CameraCaptureSession session,
+                                                @NonNull CaptureRequest captureRequest,
+                                                @NonNull Surface target, long frameNumber) {
+                    if (isStale(session)) {
+                        return;
+                    }
+                    mErrorHandler.warning("The image for a capture was lost");
+                    bufferLost = true;
+                    if (future != null) {
+                        request.getSession().onAsyncImageLost(future, resultTimestamp);
+                    }
+                    if (resultArrived) {
+                        // no image will arrive to move the queue along
+                        popRequestQueue();
+                    }
+                }
+            };
+
+            if (compiledRequest == null) {
+                compiledRequest = captureBuilder.build();
+                if (cacheKey != null) {
+                    mCompiledRequests.put(cacheKey, compiledRequest);
+                }
+            }
+            mCaptureSession.capture(compiledRequest, captureCallback, captureHandler);
+            request.onSubmitted(SystemClock.elapsedRealtimeNanos(), 1);
             mState = CameraState.PREVIEW;
         } catch (CameraAccessException e) {
             reportCameraAccessException(e);
         }
     }
 
+    /**
+     * Sends every frame of a burst request in a single
+     * {@link CameraCaptureSession#captureBurst(List, CameraCaptureSession.CaptureCallback,
+     * Handler)} call. Focus stays locked until the whole sequence has completed.
+     */
+    private void captureBurstPicture(@NonNull final ImageCaptureRequest request,
+                                     @NonNull CaptureRequest.Builder captureBuilder,
+                                     @Nullable Handler captureHandler)
+            throws CameraAccessException {
+        final int count = request.getBurstCount();
+        List<CaptureRequest> burst = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            burst.add(captureBuilder.build());
+        }
+
+        CameraCaptureSession.CaptureCallback burstCallback
+                = new CameraCaptureSession.CaptureCallback() {
+            private int completed = 0;
+
+            @Override
+            public void onCaptureCompleted(@NonNull CameraCaptureSession session,
+                                           @NonNull CaptureRequest captureRequest,
+                                           @NonNull TotalCaptureResult result) {
+                if (isStale(session)) {
+                    return;
+                }
+                completed++;
+                mFrameStatistics.onOtherFrame(result.getFrameNumber());
+                request.onCaptureResult(SystemClock.elapsedRealtimeNanos());
+                dispatchCaptureResult(CameraState.CAPTURE_COMPLETED, result);
+            }
+
+            @Override
+            public void onCaptureFailed(@NonNull CameraCaptureSession session,
+                                        @NonNull CaptureRequest captureRequest,
+                                        @NonNull CaptureFailure failure) {
+                if (isStale(session)) {
+                    return;
+                }
+                mFrameStatistics.onFailure(failure.getFrameNumber());
+                request.getSession().getLatencyTracker().onFailed();
+            }
+
+            @Override
+            public void onCaptureSequenceCompleted(@NonNull CameraCaptureSession session,
+                                                   int sequenceId, long frameNumber) {
+                if (!isStale(session)) {
+                    finishBurst();
+                }
+            }
+
+            @Override
+            public void onCaptureSequenceAborted(@NonNull CameraCaptureSession session,
+                                                 int sequenceId) {
+                if (isStale(session)) {
+                    return;
+                }
+                mErrorHandler.warning("Burst capture was aborted after " + completed + " of " +
+                        count + " frames");
+                finishBurst();
+            }
+
+            private void finishBurst() {
+                long durationNanos =
+                        SystemClock.elapsedRealtimeNanos() - request.getRequestedAtNanos();
+                if (mLog.isEnabled()) {
+                    mLog.info(String.format(Locale.US,
+                            "Burst of %d/%d frames captured in %.1f ms (%.2f frames per second)",
+                            completed, count, durationNanos / 1e6,
+                            completed * 1e9 / Math.max(durationNanos, 1)));
+                }
+                BurstCaptureListener listener = request.getBurstListener();
+                if (listener != null) {
+                    try {
+                        listener.onBurstCompleted(request.getSession(), completed, durationNanos);
+                    } catch (Exception e) {
+                        mErrorHandler.error("Error in BurstCaptureListener callback", e);
+                    }
+                }
+                onCaptureFinished(request);
+                unlockFocus(request);
+                popRequestQueue();
+            }
+        };
+
+        mLog.info("Capturing burst of {} frames...", count);
+        mState = CameraState.CAPTURING_BURST;
+        mCaptureSession.captureBurst(burst, burstCallback, captureHandler);
+        request.onSubmitted(SystemClock.elapsedRealtimeNanos(), count);
+    }
+
+    /**
+     * Called when all the frames for a capture request have been captured. The report is sent
+     * once preview has resumed (or right away if there is no preview).
+     */
+    private void onCaptureFinished(@NonNull ImageCaptureRequest request) {
+        if (markCaptureCompleted(request)) {
+            closeCaptureReport(request);
+        }
+    }
+
+    private void closeCaptureReport(@NonNull ImageCaptureRequest request) {
+        if (mSession != null && mSession.getPreview() != null) {
+            mPreviewGapTracker.complete(request.getReport());
+        } else {
+            request.getReport().setCaptureCompleted();
+            deliverCaptureReport(request.getReport());
+        }
+    }
+
+    /**
+     * Called when a capture request fails and no image will arrive. The report is sent the same
+     * way as for {@link #onCaptureFinished(ImageCaptureRequest)}.
+     */
+    private void finishFailedCapture(@NonNull ImageCaptureRequest request) {
+        CaptureHandle handle = request.getHandle();
+        if (handle == null ||
+                handle.moveFrom(CaptureHandle.Status.CAPTURING, CaptureHandle.Status.FAILED)) {
+            closeCaptureReport(request);
+        }
+    }
+
+    /**
+     * @return <code>false</code> if the capture had already finished (or failed)
+     */
+    private static boolean markCaptureCompleted(@NonNull ImageCaptureRequest request) {
+        CaptureHandle handle = request.getHandle();
+        return handle == null ||
+                handle.moveFrom(CaptureHandle.Status.CAPTURING, CaptureHandle.Status.COMPLETED);
+    }
+
+    /**
+     * Whether a capture callback comes from a session that has since been closed or replaced,
+     * or that is being kept open by {@link #pause()}. Its capture has already been failed by
+     * then.
+     */
+    @Contract(pure = true)
+    private boolean isStale(@NonNull CameraCaptureSession session) {
+        return session != mCaptureSession || mWarmPaused;
+    }
+
+    /**
+     * Resets {@link #mPreviewGapTracker} when the preview stops for good. Reports that were
+     * still waiting for the preview to come back are delivered as they are.
+     */
+    private void resetPreviewGapTracker() {
+        for (CaptureReport report : mPreviewGapTracker.reset()) {
+            deliverCaptureReport(report);
+        }
+    }
+
+    private void deliverCaptureReport(@NonNull CaptureReport report) {
+        mLog.info("Capture finished: {}", report);
+        CaptureReportListener listener = mCaptureReportListener;
+        if (listener != null) {
+            try {
+                listener.onCaptureReport(report);
+            } catch (Exception e) {
+                mErrorHandler.error("Error in CaptureReportListener callback", e);
+            }
+        }
+    }
+
+    /**
+     * Captures an image from a zero-shutter-lag handler. No focus or exposure sequence is run;
+     * the buffered frame closest to the time of the request is used right away.
+     */
+    private void captureZeroShutterLag(@NonNull final ImageCaptureRequest request) {
+        if (requireNotNull(mBackgroundHandler,
+                "Internal error: background handler is null during ZSL capture")) {
+            return;
+        }
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!startCaptureRequest(request)) {
+                    return;
+                }
+                StillCaptureHandler handler = request.getSession();
+                // Sensor timestamps are only comparable to the request time if they come from
+                // the same clock. Otherwise, just use the newest frame.
+                long target = mSensorTimestampRealtime ?
+                        request.getRequestedAtNanos() : Long.MAX_VALUE;
+                Image frame = handler.takeZslFrame(target);
+                if (frame == null) {
+                    mErrorHandler.error("No zero-shutter-lag frames have been buffered yet", null);
+                    failZeroShutterLagCapture(request,
+                            "No zero-shutter-lag frames have been buffered yet");
+                    return;
+                }
+                mLog.info("Using ZSL frame {}us from request time",
+                        (request.getRequestedAtNanos() - frame.getTimestamp()) / 1000);
+
+                ImageWriter writer = handler.getReprocessWriter();
+                TotalCaptureResult result = handler.getZslResult(frame.getTimestamp());
+                if (writer == null || result == null || mCameraDevice == null ||
+                        Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+                    if (handler.getImageFormat() == ImageFormat.PRIVATE) {
+                        mErrorHandler.error("Unable to reprocess zero-shutter-lag frame", null);
+                        frame.close();
+                        failZeroShutterLagCapture(request,
+                                "Unable to reprocess zero-shutter-lag frame");
+                        return;
+                    }
+                    // the frame was already buffered, so it arrives as soon as it is chosen
+                    handler.getLatencyTracker().record(CaptureStage.TOTAL,
+                            SystemClock.elapsedRealtimeNanos() - request.getRequestedAtNanos());
+                    handler.deliverImage(frame);
+                    finishZeroShutterLagCapture(request);
+                    return;
+                }
+
+                boolean frameQueued = false;
+                try {
+                    CaptureRequest.Builder builder =
+                            mCameraDevice.createReprocessCaptureRequest(result);
+                    ImageReader output = handler.getReprocessReader();
+                    assert output != null;
+                    builder.addTarget(output.getSurface());
+                    int rotation = PrivateUtils.getScreenRotation(mContext, mErrorHandler);
+                    builder.set(CaptureRequest.JPEG_ORIENTATION, getOrientation(rotation));
+                    request.configureCapture(builder);
+
+                    // the writer takes ownership of the frame and closes it
+                    writer.queueInputImage(frame);
+                    frameQueued = true;
+                    mCaptureSession.capture(builder.build(),
+                            new CameraCaptureSession.CaptureCallback() {
+                                @Override
+                                public void onCaptureCompleted(
+                                        @NonNull CameraCaptureSession session,
+                                        @NonNull CaptureRequest captureRequest,
+                                        @NonNull TotalCaptureResult result) {
+                                    request.onCaptureResult(
+                                            SystemClock.elapsedRealtimeNanos());
+                                    dispatchCaptureResult(
+                                            CameraState.CAPTURE_COMPLETED, result);
+                                    finishZeroShutterLagCapture(request);
+                                }
+
+                                @Override
+                                public void onCaptureFailed(
+                                        @NonNull CameraCaptureSession session,
+                                        @NonNull CaptureRequest captureRequest,
+                                        @NonNull CaptureFailure failure) {
+                                    request.getSession().getLatencyTracker().onFailed();
+                                    failZeroShutterLagCapture(request,
+                                            "Reprocess capture failed (reason " +
+                                                    failure.getReason() + ")");
+                                }
+                            }, mBackgroundHandler);
+                    request.onSubmitted(SystemClock.elapsedRealtimeNanos(), 1);
+                } catch (CameraAccessException e) {
+                    reportCameraAccessException(e);
+                    failZeroShutterLagCapture(request, "Unable to reprocess zero-shutter-lag " +
+                            "frame");
+                } catch (Exception e) {
+                    reportUnknownException(e);
+                    failZeroShutterLagCapture(request, "Unable to reprocess zero-shutter-lag " +
+                            "frame");
+                } finally {
+                    if (!frameQueued) {
+                        frame.close();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Called once the frame of a zero-shutter-lag capture is on its way to the app. The preview
+     * is never interrupted for a ZSL capture, so the report is sent right away.
+     */
+    private void finishZeroShutterLagCapture(@NonNull ImageCaptureRequest request) {
+        if (markCaptureCompleted(request)) {
+            request.getReport().setCaptureCompleted();
+            deliverCaptureReport(request.getReport());
+        }
+    }
+
+    /**
+     * Called when a zero-shutter-lag capture fails and no image will arrive
+     */
+    private void failZeroShutterLagCapture(@NonNull ImageCaptureRequest request,
+                                           @NonNull String reason) {
+        CaptureHandle handle = request.getHandle();
+        if (handle == null ||
+                handle.moveFrom(CaptureHandle.Status.CAPTURING, CaptureHandle.Status.FAILED)) {
+            deliverCaptureReport(request.getReport());
+        }
+        CaptureFuture future = request.getFuture();
+        if (future != null) {
+            future.fail(reason);
+        }
+    }
+
     /* Private Utils */
     private void reportCameraAccessException(CameraAccessException e) {
         PrivateUtils.reportCameraAccessException(e, mErrorHandler);
@@ -1287,50 +3436,22 @@ public final class Camera3 {
         return manager.getCameraCharacteristics(cameraId);
     }
 
-    @Nullable
-    private StreamConfigurationMap getConfigurationMap(@NonNull String cameraId) {
-        CameraCharacteristics characteristics;
-        try {
-            characteristics = getCameraInfo(cameraId);
-        } catch (CameraAccessException e) {
-            reportCameraAccessException(e);
-            return null;
-        }
-        if (characteristics == null) {
-            return null;
-        }
-        StreamConfigurationMap map = characteristics.get(
-                CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
-        if (map == null) {
-            mErrorHandler.error(
-                    "CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP was null " +
-                            "for the given cameraId",
-                    null);
-            return null;
-        }
-
-        return map;
-    }
-
     /**
-     * Get all supported image sizes for the given image format and camera
+     * Get all supported image sizes for the given image format and camera. The camera is only
+     * asked once. After that, the sizes come from a cache.
      *
      * @param cameraId the id of the camera form {@link Camera3#getAvailableCameras()}
      * @param format   one of {@link android.graphics.ImageFormat}
-     * @return an unmodifiable Collection of all the supported sizes
+     * @return an unmodifiable list of all the supported sizes, from largest to smallest
      */
     @NonNull
     public List<Size> getAvailableImageSizes(@NonNull String cameraId, int format) {
 
-        StreamConfigurationMap map = getConfigurationMap(cameraId);
-
-        if (map == null) return Collections.emptyList();
+        CameraCapabilities capabilities = getCapabilities(cameraId);
 
-        Size[] sizes = map.getOutputSizes(format);
+        if (capabilities == null) return Collections.emptyList();
 
-        if (sizes == null) return Collections.emptyList();
-
-        return Collections.unmodifiableList(asList(sizes));
+        return capabilities.getSizes(format);
     }
 
     /**
@@ -1345,13 +3466,8 @@ public final class Camera3 {
      */
     @Nullable
     public Size getLargestAvailableImageSize(String cameraId, int imageFormat) {
-        try {
-            return Collections.max(
-                    getAvailableImageSizes(cameraId, imageFormat),
-                    new PrivateUtils.CompareSizesByArea());
-        } catch (NoSuchElementException e) {
-            return null;
-        }
+        CameraCapabilities capabilities = getCapabilities(cameraId);
+        return capabilities == null ? null : capabilities.getLargestSize(imageFormat);
     }
 
     /**
@@ -1364,10 +3480,10 @@ public final class Camera3 {
     @NonNull
     public Collection<Size> getAvailableVideoSizes(@NonNull String cameraId) {
 
-        StreamConfigurationMap map = getConfigurationMap(cameraId);
+        CameraCapabilities capabilities = getCapabilities(cameraId);
 
-        return map == null ? Collections.<Size>emptySet() :
-                Collections.unmodifiableCollection(asList(map.getOutputSizes(MediaRecorder.class)));
+        return capabilities == null ? Collections.<Size>emptySet() :
+                capabilities.getSizes(CameraCapabilities.OUTPUT_VIDEO);
     }
 
     /**
@@ -1389,20 +3505,85 @@ public final class Camera3 {
         return choices.isEmpty() ? null : choices.get(choices.size() - 1);
     }
 
+    /**
+     * @see Camera3#saveImageAsync(Image, File, ImageWriteListener)
+     */
+    public void saveImageAsync(Image image, File file) {
+        saveImageAsync(image, file, null);
+    }
+
     /**
      * A utility method to <b>asynchronously</b> save an image file. The image will
-     * be closed once it is saved.
+     * be closed once it is saved. The file is written by the {@link ImageWritePipeline} (see
+     * {@link #setImageWritePipeline(ImageWritePipeline)}), so this never blocks.
      * <p>
      * The caller must obtain permission to write to external storage (if necessary)
      * before calling this method.
      *
-     * @param image the image to save
-     * @param file  the file to write to
+     * @param image    the image to save
+     * @param file     the file to write to
+     * @param listener an optional callback for when the file has been saved. If there is no
+     *                 listener, errors go to the {@link ErrorHandler}.
      * @see Camera3#saveImageSync(Image, File)
      */
-    public void saveImageAsync(Image image, File file) {
-        //TODO mBackgroundHandler might be busy handling preview requests. maybe use another thread?
-        mBackgroundHandler.post(new ImageSaver(image, file, true));
+    public void saveImageAsync(@NonNull Image image,
+                               @NonNull final File file,
+                               @Nullable final ImageWriteListener listener) {
+        boolean queued = mImageWritePipeline.write(image, file, new ImageWriteListener() {
+            @Override
+            public void onImageWritten(@NonNull File file, long bytes) {
+                mLog.info("Saved {} bytes to {}", bytes, file);
+                if (listener != null) {
+                    listener.onImageWritten(file, bytes);
+                }
+            }
+
+            @Override
+            public void onImageWriteFailed(@NonNull File file, @NonNull IOException error) {
+                if (listener != null) {
+                    listener.onImageWriteFailed(file, error);
+                } else {
+                    mErrorHandler.error("Unable to save image to " + file, error);
+                }
+            }
+        });
+        if (!queued) {
+            IOException error = new IOException("The image write queue is full. " +
+                    "The image was not saved");
+            if (listener != null) {
+                listener.onImageWriteFailed(file, error);
+            } else {
+                mErrorHandler.error("Unable to save image to " + file, error);
+            }
+        }
+    }
+
+    /**
+     * Sets the pipeline that {@link #saveImageAsync(Image, File, ImageWriteListener)} saves
+     * images with. The default pipeline has one writer thread, a queue of
+     * {@value #DEFAULT_IMAGE_PROCESSING_QUEUE} images and doesn't sync files to disk. Writes
+     * that are already queued finish on the old pipeline.
+     *
+     * @param pipeline the pipeline to use from now on
+     */
+    public void setImageWritePipeline(@NonNull ImageWritePipeline pipeline) {
+        if (requireNotNull(pipeline, "pipeline cannot be null")) {
+            return;
+        }
+        ImageWritePipeline previous = mImageWritePipeline;
+        mImageWritePipeline = pipeline;
+        if (previous != pipeline) {
+            previous.shutdown();
+        }
+    }
+
+    /**
+     * @return the pipeline that {@link #saveImageAsync(Image, File, ImageWriteListener)} saves
+     * images with, e.g. to read its metrics
+     */
+    @NonNull
+    public ImageWritePipeline getImageWritePipeline() {
+        return mImageWritePipeline;
     }
 
     /**
@@ -1414,7 +3595,17 @@ public final class Camera3 {
      * @param file  the file to write to
      */
     public void saveImageSync(Image image, File file) {
-        new ImageSaver(image, file, false).run();
+        saveImage(new ImageSaver(image, file, false));
+    }
+
+    private void saveImage(@NonNull ImageSaver saver) {
+        saver.run();
+        if (saver.getError() != null) {
+            mErrorHandler.error("Unable to save image", saver.getError());
+            return;
+        }
+        mLog.info("Saved {} bytes in {} us", saver.getBytesWritten(),
+                TimeUnit.NANOSECONDS.toMicros(saver.getWriteNanos()));
     }
 
     /**
@@ -1467,6 +3658,8 @@ public final class Camera3 {
         WAITING_NON_PRECAPTURE,
         //Recording video. May also be showing preview
         RECORDING_VIDEO,
+        //Waiting for all the frames of a burst capture to be completed
+        CAPTURING_BURST,
         // not really a state. just passed to captureResultListener after an
         // image is captured.
         CAPTURE_COMPLETED
@@ -1496,15 +3689,19 @@ public final class Camera3 {
         private final List<StillCaptureHandler> stillCaptureHandlers;
         @NonNull
         private final List<VideoCaptureHandler> videoCaptureHandlers;
+        @NonNull
+        private final List<FrameAnalysisHandler> frameAnalysisHandlers;
 
         Session(@NonNull String cameraId,
                 @Nullable PreviewHandler previewHandler,
                 @NonNull List<StillCaptureHandler> stillCaptureHandlers,
-                @NonNull List<VideoCaptureHandler> videoCaptureHandlers) {
+                @NonNull List<VideoCaptureHandler> videoCaptureHandlers,
+                @NonNull List<FrameAnalysisHandler> frameAnalysisHandlers) {
             this.cameraId = cameraId;
             this.previewHandler = previewHandler;
             this.stillCaptureHandlers = stillCaptureHandlers;
             this.videoCaptureHandlers = videoCaptureHandlers;
+            this.frameAnalysisHandlers = frameAnalysisHandlers;
         }
 
         @Contract(pure = true)
@@ -1530,6 +3727,12 @@ public final class Camera3 {
         List<VideoCaptureHandler> getVideoCaptures() {
             return videoCaptureHandlers;
         }
+
+        @Contract(pure = true)
+        @NonNull
+        List<FrameAnalysisHandler> getFrameAnalyses() {
+            return frameAnalysisHandlers;
+        }
     }
 
     //TODO: implement a acquirePermission(callback) convenience method similar to Dexter
@@ -1548,7 +3751,12 @@ public final class Camera3 {
 
         @Override
         public void onSurfaceTextureAvailable(SurfaceTexture texture, int width, int height) {
-            openCamera(cameraId);
+            if (mAwaitingPreviewTexture) {
+                // the camera is already being opened
+                onPreviewTextureAvailable(cameraId);
+            } else {
+                openCamera(cameraId);
+            }
         }
 
         @Override
@@ -0,0 +1,325 @@
+package com.avalancheevantage.android.camera3;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Size;
+
+import org.jetbrains.annotations.Contract;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Package-private class. The parts of a camera's
+ * {@link android.hardware.camera2.CameraCharacteristics} that Camera3 uses, read once and kept in
+ * a {@link CapabilityCache}.
+ * <p>
+ * Output sizes are stored as flat tables of (width, height) pairs, sorted from the largest area
+ * to the smallest. Sizes with the same area keep the order the camera listed them in. Each
+ * table is keyed by an image format, or by {@link #OUTPUT_PREVIEW} or {@link #OUTPUT_VIDEO}
+ * for the sizes of class-based outputs. The {@link Size} lists are only built the first time
+ * they are asked for, and are shared after that.
+ * <p>
+ * Instances are immutable and can be used from any thread.
+ *
+ * @author Quinn Freedman
+ */
+final class CameraCapabilities {
+    /**
+     * Table key for the sizes of a {@link android.graphics.SurfaceTexture} output. Image formats
+     * are never negative
+     */
+    static final int OUTPUT_PREVIEW = -1;
+    /**
+     * Table key for the sizes of a {@link android.media.MediaRecorder} output
+     */
+    static final int OUTPUT_VIDEO = -2;
+    static final int UNKNOWN_ORIENTATION = -1;
+    // limits for reading snapshots, so that a corrupt file can't make us allocate a lot
+    private static final int MAX_TABLES = 64;
+    private static final int MAX_TABLE_LENGTH = 2 * 512;
+    private static final int[] EMPTY_TABLE = new int[0];
+
+    private final int sensorOrientation;
+    private final boolean timestampRealtime;
+    private final float minimumFocusDistance;
+    // sorted
+    @NonNull
+    private final int[] capabilities;
+    @NonNull
+    private final Map<Integer, int[]> sizeTables;
+    private final ConcurrentHashMap<Integer, List<Size>> sizeLists = new ConcurrentHashMap<>();
+
+    private CameraCapabilities(@NonNull Builder builder) {
+        this.sensorOrientation = builder.sensorOrientation;
+        this.timestampRealtime = builder.timestampRealtime;
+        this.minimumFocusDistance = builder.minimumFocusDistance;
+        this.capabilities = builder.capabilities.clone();
+        Arrays.sort(this.capabilities);
+        this.sizeTables = Collections.unmodifiableMap(new TreeMap<>(builder.sizeTables));
+    }
+
+    @Contract(pure = true)
+    @NonNull
+    static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return the sensor orientation in degrees, or {@link #UNKNOWN_ORIENTATION}
+     */
+    @Contract(pure = true)
+    int getSensorOrientation() {
+        return sensorOrientation;
+    }
+
+    /**
+     * @return whether sensor timestamps use the same time base as
+     * {@link android.os.SystemClock#elapsedRealtimeNanos()}
+     */
+    @Contract(pure = true)
+    boolean isTimestampRealtime() {
+        return timestampRealtime;
+    }
+
+    /**
+     * @return the minimum focus distance in diopters (0 for a fixed-focus lens), or
+     * {@link Float#NaN} if the camera didn't say
+     */
+    @Contract(pure = true)
+    float getMinimumFocusDistance() {
+        return minimumFocusDistance;
+    }
+
+    @Contract(pure = true)
+    boolean hasCapability(int capability) {
+        return Arrays.binarySearch(capabilities, capability) >= 0;
+    }
+
+    /**
+     * @return the table keys that have sizes
+     */
+    @Contract(pure = true)
+    @NonNull
+    Set<Integer> getOutputs() {
+        return sizeTables.keySet();
+    }
+
+    /**
+     * @return the size table for the output without copying it. It must not be modified.
+     */
+    @Contract(pure = true)
+    @NonNull
+    int[] getSizeTable(int output) {
+        int[] table = sizeTables.get(output);
+        return table == null ? EMPTY_TABLE : table;
+    }
+
+    /**
+     * @return an unmodifiable list of the sizes for the output, largest first
+     */
+    @NonNull
+    List<Size> getSizes(int output) {
+        List<Size> sizes = sizeLists.get(output);
+        if (sizes != null) {
+            return sizes;
+        }
+        int[] table = getSizeTable(output);
+        List<Size> built = new ArrayList<>(table.length / 2);
+        for (int i = 0; i < table.length; i += 2) {
+            built.add(new Size(table[i], table[i + 1]));
+        }
+        sizes = Collections.unmodifiableList(built);
+        List<Size> raced = sizeLists.putIfAbsent(output, sizes);
+        return raced == null ? sizes : raced;
+    }
+
+    /**
+     * @return the size with the largest area for the output, or {@code null} if it has no sizes
+     */
+    @Nullable
+    Size getLargestSize(int output) {
+        List<Size> sizes = getSizes(output);
+        return sizes.isEmpty() ? null : sizes.get(0);
+    }
+
+    void writeTo(@NonNull DataOutput out) throws IOException {
+        out.writeInt(sensorOrientation);
+        out.writeBoolean(timestampRealtime);
+        out.writeFloat(minimumFocusDistance);
+        writeInts(out, capabilities);
+        out.writeInt(sizeTables.size());
+        for (Map.Entry<Integer, int[]> entry : sizeTables.entrySet()) {
+            out.writeInt(entry.getKey());
+            writeInts(out, entry.getValue());
+        }
+    }
+
+    @NonNull
+    static CameraCapabilities readFrom(@NonNull DataInput in) throws IOException {
+        Builder builder = builder()
+                .setSensorOrientation(in.readInt())
+                .setTimestampRealtime(in.readBoolean())
+                .setMinimumFocusDistance(in.readFloat())
+                .setCapabilities(readInts(in));
+        int tables = in.readInt();
+        if (tables < 0 || tables > MAX_TABLES) {
+            throw new IOException("Bad number of size tables: " + tables);
+        }
+        for (int i = 0; i < tables; i++) {
+            int output = in.readInt();
+            int[] table = readInts(in);
+            if (table.length % 2 != 0) {
+                throw new IOException("Size table has an odd length");
+            }
+            // already sorted, but sorting is cheap and keeps a bad file from breaking the order
+            builder.addSizes(output, table);
+        }
+        return builder.build();
+    }
+
+    private static void writeInts(@NonNull DataOutput out, @NonNull int[] values)
+            throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    @NonNull
+    private static int[] readInts(@NonNull DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_TABLE_LENGTH) {
+            throw new IOException("Bad table length: " + length);
+        }
+        int[] values = new int[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    /**
+     * Sorts a table of (width, height) pairs from the largest area to the smallest. The sort is
+     * stable. Tables are short, so an insertion sort is fine.
+     *
+     * @return a sorted copy of the table
+     */
+    @NonNull
+    static int[] sortByArea(@NonNull int[] table) {
+        int[] sorted = table.clone();
+        for (int i = 2; i < sorted.length; i += 2) {
+            int width = sorted[i];
+            int height = sorted[i + 1];
+            long area = (long) width * height;
+            int j = i - 2;
+            while (j >= 0 && (long) sorted[j] * sorted[j + 1] < area) {
+                sorted[j + 2] = sorted[j];
+                sorted[j + 3] = sorted[j + 1];
+                j -= 2;
+            }
+            sorted[j + 2] = width;
+            sorted[j + 3] = height;
+        }
+        return sorted;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CameraCapabilities)) {
+            return false;
+        }
+        CameraCapabilities other = (CameraCapabilities) o;
+        if (sensorOrientation != other.sensorOrientation ||
+                timestampRealtime != other.timestampRealtime ||
+                Float.compare(minimumFocusDistance, other.minimumFocusDistance) != 0 ||
+                !Arrays.equals(capabilities, other.capabilities) ||
+                !sizeTables.keySet().equals(other.sizeTables.keySet())) {
+            return false;
+        }
+        for (Map.Entry<Integer, int[]> entry : sizeTables.entrySet()) {
+            if (!Arrays.equals(entry.getValue(), other.sizeTables.get(entry.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = sensorOrientation;
+        result = 31 * result + (timestampRealtime ? 1 : 0);
+        result = 31 * result + Float.floatToIntBits(minimumFocusDistance);
+        result = 31 * result + Arrays.hashCode(capabilities);
+        for (Map.Entry<Integer, int[]> entry : sizeTables.entrySet()) {
+            result = 31 * result + (entry.getKey() ^ Arrays.hashCode(entry.getValue()));
+        }
+        return result;
+    }
+
+    static final class Builder {
+        private int sensorOrientation = UNKNOWN_ORIENTATION;
+        private boolean timestampRealtime = false;
+        private float minimumFocusDistance = Float.NaN;
+        @NonNull
+        private int[] capabilities = EMPTY_TABLE;
+        private final Map<Integer, int[]> sizeTables = new TreeMap<>();
+
+        private Builder() {
+        }
+
+        @NonNull
+        Builder setSensorOrientation(int sensorOrientation) {
+            this.sensorOrientation = sensorOrientation;
+            return this;
+        }
+
+        @NonNull
+        Builder setTimestampRealtime(boolean timestampRealtime) {
+            this.timestampRealtime = timestampRealtime;
+            return this;
+        }
+
+        @NonNull
+        Builder setMinimumFocusDistance(float minimumFocusDistance) {
+            this.minimumFocusDistance = minimumFocusDistance;
+            return this;
+        }
+
+        @NonNull
+        Builder setCapabilities(@NonNull int[] capabilities) {
+            this.capabilities = capabilities.clone();
+            return this;
+        }
+
+        /**
+         * @param output a format or one of the <code>OUTPUT_</code> keys
+         * @param table  (width, height) pairs in any order
+         */
+        @NonNull
+        Builder addSizes(int output, @NonNull int[] table) {
+            if (table.length % 2 != 0) {
+                throw new IllegalArgumentException("size table must hold (width, height) pairs");
+            }
+            sizeTables.put(output, sortByArea(table));
+            return this;
+        }
+
+        @NonNull
+        CameraCapabilities build() {
+            return new CameraCapabilities(this);
+        }
+    }
+}
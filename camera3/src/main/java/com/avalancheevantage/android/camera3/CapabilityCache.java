@@ -0,0 +1,140 @@
+package com.avalancheevantage.android.camera3;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.jetbrains.annotations.Contract;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Package-private class. Keeps the {@link CameraCapabilities} of each camera so that the camera
+ * service only has to be asked once per camera, instead of every time a size or the sensor
+ * orientation is needed.
+ * <p>
+ * The cache can be written to a compact snapshot and read back on the next launch, so that
+ * sizes can be chosen before the camera service has answered at all. A snapshot is tagged with
+ * the build fingerprint and is ignored after a system update, since that can change what the
+ * cameras report.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author Quinn Freedman
+ */
+final class CapabilityCache {
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int MAX_CAMERAS = 64;
+
+    /**
+     * Where the cache gets the capabilities of cameras that it doesn't have yet
+     */
+    interface Source {
+        /**
+         * @return the capabilities, or {@code null} if they could not be read (in which case
+         * the source is responsible for reporting the error)
+         */
+        @Nullable
+        CameraCapabilities load(@NonNull String cameraId);
+    }
+
+    private final ConcurrentHashMap<String, CameraCapabilities> entries =
+            new ConcurrentHashMap<>();
+    // whether anything was loaded since the last snapshot was written
+    private volatile boolean changed = false;
+    private final AtomicBoolean snapshotRead = new AtomicBoolean(false);
+
+    /**
+     * @return the cached capabilities for the camera, loading them from <code>source</code> if
+     * they aren't cached yet. Failed loads are not cached.
+     */
+    @Nullable
+    CameraCapabilities get(@NonNull String cameraId, @NonNull Source source) {
+        CameraCapabilities cached = entries.get(cameraId);
+        if (cached != null) {
+            return cached;
+        }
+        CameraCapabilities loaded = source.load(cameraId);
+        if (loaded == null) {
+            return null;
+        }
+        CameraCapabilities raced = entries.putIfAbsent(cameraId, loaded);
+        if (raced != null) {
+            return raced;
+        }
+        changed = true;
+        return loaded;
+    }
+
+    @Contract(pure = true)
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return whether cameras were loaded since the last snapshot was written
+     */
+    @Contract(pure = true)
+    boolean hasUnsavedChanges() {
+        return changed;
+    }
+
+    void clear() {
+        entries.clear();
+        changed = false;
+    }
+
+    /**
+     * Used to read the snapshot only once per process
+     *
+     * @return <code>true</code> the first time it is called
+     */
+    boolean claimSnapshotRead() {
+        return snapshotRead.compareAndSet(false, true);
+    }
+
+    void writeSnapshot(@NonNull DataOutput out, @NonNull String fingerprint) throws IOException {
+        // cleared first so that a camera loaded while writing is saved next time
+        changed = false;
+        Map<String, CameraCapabilities> cameras = new TreeMap<>(entries);
+        out.writeInt(SNAPSHOT_VERSION);
+        out.writeUTF(fingerprint);
+        out.writeInt(cameras.size());
+        for (Map.Entry<String, CameraCapabilities> entry : cameras.entrySet()) {
+            out.writeUTF(entry.getKey());
+            entry.getValue().writeTo(out);
+        }
+    }
+
+    /**
+     * Adds the cameras from a snapshot. Cameras that are already cached are kept as they are.
+     *
+     * @return the number of cameras in the snapshot, or <code>-1</code> if the snapshot was
+     * written by a different build or version and was ignored
+     * @throws IOException if the snapshot is corrupt. Nothing is added in that case.
+     */
+    int readSnapshot(@NonNull DataInput in, @NonNull String fingerprint) throws IOException {
+        if (in.readInt() != SNAPSHOT_VERSION || !fingerprint.equals(in.readUTF())) {
+            return -1;
+        }
+        int count = in.readInt();
+        if (count < 0 || count > MAX_CAMERAS) {
+            throw new IOException("Bad number of cameras: " + count);
+        }
+        Map<String, CameraCapabilities> cameras = new HashMap<>(count);
+        for (int i = 0; i < count; i++) {
+            String cameraId = in.readUTF();
+            cameras.put(cameraId, CameraCapabilities.readFrom(in));
+        }
+        for (Map.Entry<String, CameraCapabilities> entry : cameras.entrySet()) {
+            entries.putIfAbsent(entry.getKey(), entry.getValue());
+        }
+        return count;
+    }
+}
@@ -0,0 +1,104 @@
+package com.avalancheevantage.android.camera3;
+
+import android.content.Context;
+import android.os.Build;
+import android.support.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Package-private class. Reads and writes the on-disk snapshot of a {@link CapabilityCache}.
+ * The snapshot lives in the app's cache directory, so it is fine for the system to delete it.
+ *
+ * @author Quinn Freedman
+ */
+final class CapabilitySnapshot {
+    private static final String FILE_NAME = "camera3-capabilities.bin";
+
+    private CapabilitySnapshot() {
+    }
+
+    /**
+     * Fills the cache from the snapshot, if there is one for this build, on a thread of its own
+     * so that the caller (usually the main thread) doesn't wait for the disk. Lookups that
+     * happen before it finishes ask the camera service as usual. Only reads the file the first
+     * time it is called in a process.
+     */
+    static void readInBackground(@NonNull final Context context,
+                                 @NonNull final CapabilityCache cache,
+                                 @NonNull final InfoLogger log) {
+        if (!cache.claimSnapshotRead()) {
+            return;
+        }
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                read(context, cache, log);
+            }
+        }, "CapabilitySnapshot");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Fills the cache from the snapshot, if there is one for this build. Problems with the file
+     * are logged and the file is deleted, since the cache works fine without it.
+     */
+    private static void read(@NonNull Context context,
+                             @NonNull CapabilityCache cache,
+                             @NonNull InfoLogger log) {
+        File file = new File(context.getCacheDir(), FILE_NAME);
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            int cameras = cache.readSnapshot(in, Build.FINGERPRINT);
+            if (cameras < 0) {
+                log.info("Ignoring camera capability snapshot from another build");
+            } else {
+                log.info("Read capabilities of {} cameras from snapshot", cameras);
+            }
+        } catch (IOException e) {
+            log.info("Ignoring unreadable camera capability snapshot: {}", e);
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    /**
+     * Writes the cache to the snapshot if it has changed. Does disk I/O, so it should not be
+     * called on the main thread.
+     */
+    static void writeIfChanged(@NonNull Context context,
+                               @NonNull CapabilityCache cache,
+                               @NonNull InfoLogger log) {
+        if (!cache.hasUnsavedChanges()) {
+            return;
+        }
+        File file = new File(context.getCacheDir(), FILE_NAME);
+        // written next to the real file and then renamed, so a crash can't leave half a file
+        File temp = new File(context.getCacheDir(), FILE_NAME + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)))) {
+            cache.writeSnapshot(out, Build.FINGERPRINT);
+        } catch (IOException e) {
+            log.info("Could not write camera capability snapshot: {}", e);
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            log.info("Could not replace camera capability snapshot");
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+        }
+    }
+}
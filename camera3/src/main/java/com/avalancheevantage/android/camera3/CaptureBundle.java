@@ -0,0 +1,58 @@
+package com.avalancheevantage.android.camera3;
+
+import android.hardware.camera2.TotalCaptureResult;
+import android.media.Image;
+import android.support.annotation.NonNull;
+
+import org.jetbrains.annotations.Contract;
+
+/**
+ * A captured image together with the {@link TotalCaptureResult} that describes how it was
+ * captured (exposure, focus, lens state, etc.).
+ *
+ * @see Camera3#captureImageAsync(StillCaptureHandler, CaptureRequestConfiguration,
+ * CaptureRequestConfiguration)
+ * @author Quinn Freedman
+ */
+public final class CaptureBundle {
+    @NonNull
+    private final Image image;
+    @NonNull
+    private final TotalCaptureResult result;
+
+    CaptureBundle(@NonNull Image image, @NonNull TotalCaptureResult result) {
+        this.image = image;
+        this.result = result;
+    }
+
+    /**
+     * @return the image. It must be closed (directly or with {@link #close()}) when you are done
+     * with it, or the handler will run out of images
+     */
+    @Contract(pure = true)
+    @NonNull
+    public Image getImage() {
+        return image;
+    }
+
+    @Contract(pure = true)
+    @NonNull
+    public TotalCaptureResult getResult() {
+        return result;
+    }
+
+    /**
+     * @return the sensor timestamp shared by the image and the result
+     */
+    @Contract(pure = true)
+    public long getTimestamp() {
+        return image.getTimestamp();
+    }
+
+    /**
+     * Closes the image
+     */
+    public void close() {
+        image.close();
+    }
+}
@@ -0,0 +1,127 @@
+package com.avalancheevantage.android.camera3;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.jetbrains.annotations.Contract;
+
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The pending result of
+ * {@link Camera3#captureImageAsync(StillCaptureHandler, CaptureRequestConfiguration,
+ * CaptureRequestConfiguration)}. Completes with a {@link CaptureBundle} once both the image and
+ * its capture result have arrived.
+ * <p>
+ * The image in the bundle must be closed by whoever calls {@link #get()}. If the image arrives
+ * after the future has already finished (e.g. because it was cancelled), it is closed
+ * automatically.
+ *
+ * @author Quinn Freedman
+ */
+public final class CaptureFuture implements Future<CaptureBundle> {
+    private final CountDownLatch done = new CountDownLatch(1);
+    @Nullable
+    private CaptureHandle handle;
+    @Nullable
+    private CaptureBundle bundle;
+    @Nullable
+    private String failure;
+    private boolean cancelled = false;
+
+    CaptureFuture() {
+    }
+
+    synchronized void setHandle(@NonNull CaptureHandle handle) {
+        this.handle = handle;
+    }
+
+    /**
+     * Cancels the capture if it has not started yet. Once the camera has started capturing,
+     * the future can't be cancelled.
+     *
+     * @param mayInterruptIfRunning ignored, since a running capture can't be interrupted
+     * @return <code>true</code> if the capture was cancelled
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        CaptureHandle handle;
+        synchronized (this) {
+            if (done.getCount() == 0) {
+                return false;
+            }
+            handle = this.handle;
+        }
+        if (handle == null || !handle.cancel()) {
+            return false;
+        }
+        synchronized (this) {
+            cancelled = true;
+            done.countDown();
+        }
+        return true;
+    }
+
+    @Contract(pure = true)
+    @Override
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Contract(pure = true)
+    @Override
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    @Override
+    public CaptureBundle get() throws InterruptedException, ExecutionException {
+        done.await();
+        return getNow();
+    }
+
+    @Override
+    public CaptureBundle get(long timeout, @NonNull TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException("Capture did not finish in " + timeout + " " +
+                    unit.name().toLowerCase(Locale.US));
+        }
+        return getNow();
+    }
+
+    private synchronized CaptureBundle getNow() throws ExecutionException {
+        if (cancelled) {
+            throw new CancellationException("Capture was cancelled");
+        }
+        if (failure != null) {
+            throw new ExecutionException(new IllegalStateException(failure));
+        }
+        return bundle;
+    }
+
+    void complete(@NonNull CaptureBundle bundle) {
+        synchronized (this) {
+            if (done.getCount() != 0) {
+                this.bundle = bundle;
+                done.countDown();
+                return;
+            }
+        }
+        // nobody can receive the image any more
+        bundle.close();
+    }
+
+    synchronized void fail(@NonNull String message) {
+        if (done.getCount() != 0) {
+            failure = message;
+            done.countDown();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.avalancheevantage.android.camera3;
+
+import android.support.annotation.NonNull;
+
+import org.jetbrains.annotations.Contract;
+
+/**
+ * A handle to a still capture (or burst) that has been queued with
+ * {@link Camera3#captureImage(StillCaptureHandler, CaptureRequestConfiguration,
+ * CaptureRequestConfiguration, int, long, java.util.concurrent.TimeUnit)}. It can be used to
+ * cancel the capture if it has not started yet, or to check what happened to it.
+ *
+ * @author Quinn Freedman
+ */
+public final class CaptureHandle {
+    /**
+     * Priority for captures that should wait until all other queued captures are done
+     */
+    public static final int PRIORITY_LOW = -1;
+    /**
+     * The default priority. Captures with the same priority are taken in the order they
+     * were requested
+     */
+    public static final int PRIORITY_NORMAL = 0;
+    /**
+     * Priority for captures that should jump ahead of everything else in the queue
+     */
+    public static final int PRIORITY_HIGH = 1;
+
+    public enum Status {
+        /**
+         * The capture is waiting in the queue
+         */
+        QUEUED,
+        /**
+         * The camera has started capturing. It can no longer be cancelled
+         */
+        CAPTURING,
+        /**
+         * The image(s) have been captured
+         */
+        COMPLETED,
+        /**
+         * The camera failed to capture the image
+         */
+        FAILED,
+        /**
+         * The capture was cancelled with {@link CaptureHandle#cancel()} before it started
+         */
+        CANCELLED,
+        /**
+         * The capture's deadline passed before it could be started, so it was dropped
+         */
+        EXPIRED
+    }
+
+    @NonNull
+    private final Camera3 camera3;
+    @NonNull
+    private final ImageCaptureRequest request;
+    @NonNull
+    private Status status = Status.QUEUED;
+
+    CaptureHandle(@NonNull Camera3 camera3, @NonNull ImageCaptureRequest request) {
+        this.camera3 = camera3;
+        this.request = request;
+    }
+
+    /**
+     * Removes the capture from the queue if it has not started yet. Does nothing if the capture
+     * has already started or finished.
+     *
+     * @return <code>true</code> if the capture was cancelled
+     */
+    public boolean cancel() {
+        if (!moveFrom(Status.QUEUED, Status.CANCELLED)) {
+            return false;
+        }
+        camera3.onCaptureCancelled(request);
+        return true;
+    }
+
+    @Contract(pure = true)
+    @NonNull
+    public synchronized Status getStatus() {
+        return status;
+    }
+
+    @Contract(pure = true)
+    public boolean isCancelled() {
+        return getStatus() == Status.CANCELLED;
+    }
+
+    /**
+     * @return <code>true</code> if the capture was cancelled or expired, or if the image(s) have
+     * been captured
+     */
+    @Contract(pure = true)
+    public boolean isDone() {
+        Status status = getStatus();
+        return status != Status.QUEUED && status != Status.CAPTURING;
+    }
+
+    /**
+     * @return the priority that the capture was queued with
+     */
+    @Contract(pure = true)
+    public int getPriority() {
+        return request.getPriority();
+    }
+
+    /**
+     * Atomically moves from one status to another
+     *
+     * @return <code>false</code> if the handle was not in the <code>from</code> status
+     */
+    synchronized boolean moveFrom(@NonNull Status from, @NonNull Status to) {
+        if (status != from) {
+            return false;
+        }
+        status = to;
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "CaptureHandle(" + getStatus().name() + ")";
+    }
+}
@@ -0,0 +1,87 @@
+package com.avalancheevantage.android.camera3;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Package-private class. Keeps a {@link LatencyHistogram} for each {@link CaptureStage} of the
+ * captures of one {@link StillCaptureHandler}.
+ * <p>
+ * Images arrive from the ImageReader without saying which request they belong to, so
+ * submitted captures wait in a small FIFO and each image that arrives is matched with the
+ * oldest one. A capture that fails is removed from the FIFO so that it doesn't throw off the
+ * matching. If more than {@link #MAX_PENDING} captures are waiting, the oldest are forgotten.
+ *
+ * @author Quinn Freedman
+ */
+final class CaptureLatencyTracker {
+    static final int MAX_PENDING = 16;
+
+    private final LatencyHistogram[] histograms =
+            new LatencyHistogram[CaptureStage.values().length];
+    // a ring of (requested at, submitted at) pairs for captures whose image hasn't arrived
+    private final long[] pending = new long[MAX_PENDING * 2];
+    private int pendingStart = 0;
+    private int pendingCount = 0;
+
+    CaptureLatencyTracker() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    void record(@NonNull CaptureStage stage, long nanos) {
+        histograms[stage.ordinal()].record(nanos);
+    }
+
+    /**
+     * Called once for each image that the camera was asked to capture
+     */
+    synchronized void onSubmitted(long requestedAtNanos, long submittedAtNanos) {
+        if (pendingCount == MAX_PENDING) {
+            dropOldest();
+        }
+        int slot = (pendingStart + pendingCount) % MAX_PENDING;
+        pending[2 * slot] = requestedAtNanos;
+        pending[2 * slot + 1] = submittedAtNanos;
+        pendingCount++;
+    }
+
+    /**
+     * Called when a submitted capture failed, so its image will never arrive
+     */
+    synchronized void onFailed() {
+        if (pendingCount > 0) {
+            dropOldest();
+        }
+    }
+
+    synchronized void onImageArrived(long nowNanos) {
+        if (pendingCount == 0) {
+            // e.g. a zero-shutter-lag frame or an image from before a reset
+            return;
+        }
+        long requestedAt = pending[2 * pendingStart];
+        long submittedAt = pending[2 * pendingStart + 1];
+        dropOldest();
+        record(CaptureStage.IMAGE_DELIVERY, nowNanos - submittedAt);
+        record(CaptureStage.TOTAL, nowNanos - requestedAt);
+    }
+
+    private void dropOldest() {
+        pendingStart = (pendingStart + 1) % MAX_PENDING;
+        pendingCount--;
+    }
+
+    @NonNull
+    LatencyHistogram snapshot(@NonNull CaptureStage stage) {
+        return histograms[stage.ordinal()].copy();
+    }
+
+    synchronized void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        pendingStart = 0;
+        pendingCount = 0;
+    }
+}
@@ -0,0 +1,29 @@
+package com.avalancheevantage.android.camera3;
+
+/**
+ * The sequence of steps that Camera3 went through to capture a still image.
+ *
+ * @see CaptureReport#getPath()
+ * @see Camera3#setCapturePlanningEnabled(boolean)
+ * @author Quinn Freedman
+ */
+public enum CapturePath {
+    /**
+     * Auto-focus was locked, then the auto-exposure precapture sequence was run
+     */
+    FOCUS_AND_PRECAPTURE,
+    /**
+     * Auto-focus was locked. Precapture was skipped (because exposure had already converged or
+     * because no precapture was requested)
+     */
+    FOCUS_ONLY,
+    /**
+     * The focus lock was skipped (e.g. a fixed-focus lens or continuous auto-focus that was
+     * already focused), but the auto-exposure precapture sequence was run
+     */
+    PRECAPTURE_ONLY,
+    /**
+     * The image was captured right away, without locking focus or running precapture
+     */
+    DIRECT
+}
@@ -0,0 +1,77 @@
+package com.avalancheevantage.android.camera3;
+
+import android.hardware.camera2.CaptureResult;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.jetbrains.annotations.Contract;
+
+/**
+ * Package-private class. Decides which steps of the still capture sequence can be skipped,
+ * based on what the camera can do and on the most recent preview result.
+ *
+ * @see Camera3#setCapturePlanningEnabled(boolean)
+ * @author Quinn Freedman
+ */
+final class CapturePlanner {
+
+    private CapturePlanner() {
+    }
+
+    /**
+     * @param fixedFocus    whether the lens can't focus at all
+     *                      ({@code LENS_INFO_MINIMUM_FOCUS_DISTANCE == 0})
+     * @param afMode        the last reported {@link CaptureResult#CONTROL_AF_MODE}, if any
+     * @param afState       the last reported {@link CaptureResult#CONTROL_AF_STATE}, if any
+     * @param aeState       the last reported {@link CaptureResult#CONTROL_AE_STATE}, if any
+     * @param hasPrecapture whether the request asked for a precapture sequence
+     * @return the shortest path that still produces a focused, exposed image
+     */
+    @Contract(pure = true)
+    @NonNull
+    static CapturePath plan(boolean fixedFocus,
+                            @Nullable Integer afMode,
+                            @Nullable Integer afState,
+                            @Nullable Integer aeState,
+                            boolean hasPrecapture) {
+        boolean needsFocus = !(fixedFocus || focusSettled(afMode, afState));
+        boolean needsPrecapture = hasPrecapture && !exposureSettled(aeState);
+
+        if (needsFocus) {
+            // whether precapture actually runs is decided once focus is locked
+            return needsPrecapture ? CapturePath.FOCUS_AND_PRECAPTURE : CapturePath.FOCUS_ONLY;
+        }
+        return needsPrecapture ? CapturePath.PRECAPTURE_ONLY : CapturePath.DIRECT;
+    }
+
+    @Contract(pure = true)
+    private static boolean focusSettled(@Nullable Integer afMode, @Nullable Integer afState) {
+        if (afMode != null && (afMode == CaptureResult.CONTROL_AF_MODE_OFF ||
+                afMode == CaptureResult.CONTROL_AF_MODE_EDOF)) {
+            // there is no auto-focus routine to lock
+            return true;
+        }
+        if (afState == null) {
+            // the camera doesn't report auto-focus state, so a lock would never be confirmed
+            return true;
+        }
+        switch (afState) {
+            case CaptureResult.CONTROL_AF_STATE_INACTIVE:
+                // auto-focus isn't running. Triggering it would only cost an extra frame
+                return afMode == null || afMode == CaptureResult.CONTROL_AF_MODE_OFF;
+            case CaptureResult.CONTROL_AF_STATE_PASSIVE_FOCUSED:
+            case CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Contract(pure = true)
+    private static boolean exposureSettled(@Nullable Integer aeState) {
+        // CONTROL_AE_STATE can be null on some devices
+        return aeState == null ||
+                aeState == CaptureResult.CONTROL_AE_STATE_CONVERGED ||
+                aeState == CaptureResult.CONTROL_AE_STATE_LOCKED;
+    }
+}
@@ -0,0 +1,110 @@
+package com.avalancheevantage.android.camera3;
+
+import android.support.annotation.NonNull;
+
+import org.jetbrains.annotations.Contract;
+
+import java.util.Locale;
+
+/**
+ * A summary of how a single still capture (or burst) went. One report is produced for every
+ * capture request once it has finished.
+ *
+ * @see Camera3#setCaptureReportListener(CaptureReportListener)
+ * @author Quinn Freedman
+ */
+public final class CaptureReport {
+    @NonNull
+    private final StillCaptureHandler handler;
+    private int skippedPreviewFrames = 0;
+    private boolean captureCompleted = false;
+    private boolean focusLocked = false;
+    private boolean precaptureRun = false;
+    private boolean focusLockReused = false;
+
+    CaptureReport(@NonNull StillCaptureHandler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * @return the handler that the image(s) were captured for
+     */
+    @Contract(pure = true)
+    @NonNull
+    public StillCaptureHandler getHandler() {
+        return handler;
+    }
+
+    /**
+     * The number of preview frames that were not displayed because of this capture, from the
+     * time the request left the queue until preview resumed. This is estimated from the sensor
+     * timestamps of the preview frames around the capture, so it also counts frames that were
+     * never produced because the repeating request was stopped.
+     *
+     * @return the number of skipped preview frames, or 0 if there was no preview
+     * @see Camera3#setNonDisruptiveCapture(boolean)
+     */
+    @Contract(pure = true)
+    public int getSkippedPreviewFrames() {
+        return skippedPreviewFrames;
+    }
+
+    void addSkippedPreviewFrames(int frames) {
+        skippedPreviewFrames += frames;
+    }
+
+    /**
+     * Which focus and exposure steps were run before the image was captured. Captures for
+     * sessions without a preview (and zero-shutter-lag captures) are always
+     * {@link CapturePath#DIRECT}.
+     *
+     * @return the path that this capture took
+     * @see Camera3#setCapturePlanningEnabled(boolean)
+     */
+    @Contract(pure = true)
+    @NonNull
+    public CapturePath getPath() {
+        if (focusLocked) {
+            return precaptureRun ? CapturePath.FOCUS_AND_PRECAPTURE : CapturePath.FOCUS_ONLY;
+        }
+        return precaptureRun ? CapturePath.PRECAPTURE_ONLY : CapturePath.DIRECT;
+    }
+
+    /**
+     * @return <code>true</code> if this capture skipped locking focus because it reused the
+     * focus lock from an earlier queued capture
+     * @see Camera3#setFocusLockReuseWindow(long, java.util.concurrent.TimeUnit)
+     */
+    @Contract(pure = true)
+    public boolean isFocusLockReused() {
+        return focusLockReused;
+    }
+
+    void setFocusLockReused() {
+        focusLockReused = true;
+    }
+
+    void setFocusLocked() {
+        focusLocked = true;
+    }
+
+    void setPrecaptureRun() {
+        precaptureRun = true;
+    }
+
+    @Contract(pure = true)
+    boolean isCaptureCompleted() {
+        return captureCompleted;
+    }
+
+    void setCaptureCompleted() {
+        captureCompleted = true;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "CaptureReport(path=%s, focusLockReused=%b, skippedPreviewFrames=%d)",
+                getPath().name(), focusLockReused, skippedPreviewFrames);
+    }
+}
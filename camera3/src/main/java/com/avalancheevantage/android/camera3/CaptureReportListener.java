@@ -0,0 +1,19 @@
+package com.avalancheevantage.android.camera3;
+
+import android.support.annotation.NonNull;
+
+/**
+ * A listener for per-capture reports
+ *
+ * @see Camera3#setCaptureReportListener(CaptureReportListener)
+ * @author Quinn Freedman
+ */
+public interface CaptureReportListener {
+    /**
+     * Called from the camera background thread once a capture has finished and preview has
+     * resumed.
+     *
+     * @param report the report for the finished capture
+     */
+    void onCaptureReport(@NonNull CaptureReport report);
+}
@@ -0,0 +1,99 @@
+package com.avalancheevantage.android.camera3;
+
+import android.hardware.camera2.CaptureResult;
+import android.os.Handler;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.jetbrains.annotations.Contract;
+
+/**
+ * A subscription to changes in a few {@link CaptureResult} values. The listener is only called
+ * when one of the subscribed keys has a different value than the last time it was called, instead
+ * of on every frame.
+ *
+ * @see Camera3#subscribeToCaptureResults(CaptureResultListener, Handler, CaptureResult.Key[])
+ * @author Quinn Freedman
+ */
+public final class CaptureResultSubscription {
+    @NonNull
+    private final Camera3 camera3;
+    @NonNull
+    private final CaptureResultListener listener;
+    @Nullable
+    private final Handler handler;
+    @NonNull
+    private final CaptureResult.Key<?>[] keys;
+    @NonNull
+    private final ValueChangeFilter filter;
+    private volatile boolean active = true;
+
+    CaptureResultSubscription(@NonNull Camera3 camera3,
+                              @NonNull CaptureResultListener listener,
+                              @Nullable Handler handler,
+                              @NonNull CaptureResult.Key<?>[] keys) {
+        this.camera3 = camera3;
+        this.listener = listener;
+        this.handler = handler;
+        this.keys = keys.clone();
+        this.filter = new ValueChangeFilter(keys.length);
+    }
+
+    /**
+     * Stops the listener from being called. Calls that have already been posted to the
+     * subscription's handler are skipped too.
+     */
+    public void unsubscribe() {
+        active = false;
+        camera3.removeCaptureResultSubscription(this);
+    }
+
+    @Contract(pure = true)
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Called for every result. Passes the result on to the listener if any subscribed values
+     * have changed.
+     */
+    void onResult(@NonNull final Camera3.CameraState state, @NonNull final CaptureResult result) {
+        boolean changed = false;
+        synchronized (filter) {
+            for (int i = 0; i < keys.length; i++) {
+                // every key has to be offered so that the filter stays up to date
+                changed |= filter.offer(i, result.get(keys[i]));
+            }
+        }
+        if (!changed || !active) {
+            return;
+        }
+        if (handler == null) {
+            listener.onResult(state, result);
+        } else {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!active) {
+                        return;
+                    }
+                    try {
+                        listener.onResult(state, result);
+                    } catch (Exception e) {
+                        camera3.getErrorHandler().error(
+                                "Error in CaptureResultListener callback", e);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Makes the next value of every key count as a change (e.g. after the camera is reopened)
+     */
+    void reset() {
+        synchronized (filter) {
+            filter.reset();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.avalancheevantage.android.camera3;
+
+/**
+ * The stages of a still capture, from the call to <code>captureImage</code> until the image
+ * reaches the handler. The time spent in each stage is kept in a {@link LatencyHistogram} per
+ * {@link StillCaptureHandler}.
+ * <p>
+ * Stages that a capture skips (e.g. the focus lock for a fixed-focus lens) are not recorded for
+ * it, and their time counts towards the next stage that is.
+ *
+ * @see StillCaptureHandler#getLatencyHistogram(CaptureStage)
+ * @author Quinn Freedman
+ */
+public enum CaptureStage {
+    /**
+     * From the call to <code>captureImage</code> until the request leaves the capture queue
+     */
+    QUEUE_WAIT,
+    /**
+     * Until auto-focus reports that it is locked
+     */
+    FOCUS_LOCK,
+    /**
+     * Until the auto-exposure precapture sequence is done
+     */
+    PRECAPTURE,
+    /**
+     * Until the still capture request has been built and sent to the camera
+     */
+    REQUEST_SUBMIT,
+    /**
+     * From sending the still capture request until the camera reports the capture as completed
+     */
+    CAPTURE_RESULT,
+    /**
+     * From sending the still capture request until the image arrives from the
+     * {@link android.media.ImageReader}. This often overlaps {@link #CAPTURE_RESULT}, since the
+     * image and the result arrive independently
+     */
+    IMAGE_DELIVERY,
+    /**
+     * From the call to <code>captureImage</code> until the image arrives. This is what the user
+     * perceives as shutter lag
+     */
+    TOTAL
+}
@@ -0,0 +1,226 @@
+package com.avalancheevantage.android.camera3;
+
+import android.graphics.ImageFormat;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Size;
+
+import org.jetbrains.annotations.Contract;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class represents the configuration for continuous analysis of live frames (e.g. barcode
+ * scanning or face detection). Its {@link android.graphics.ImageFormat#YUV_420_888} stream is
+ * added to the repeating preview request, so it gets frames without going through the still
+ * capture sequence, and the frames are passed to a {@link FrameAnalyzer} on a worker thread of
+ * its own.
+ * <p>
+ * Only the newest frame is ever analyzed. Frames that arrive while the analyzer is busy are
+ * skipped, so a slow analyzer lowers the analysis rate instead of stalling the preview. The
+ * rate can also be lowered on purpose with {@link #setFrameInterval(int)} and
+ * {@link #setMaxFrameRate(double)}.
+ * <p>
+ * It should be passed to
+ * {@link Camera3#startCaptureSession(String, PreviewHandler, List, List, List, Runnable)}
+ * together with a {@link PreviewHandler}, since it needs the preview stream.
+ *
+ * @author Quinn Freedman
+ */
+public final class FrameAnalysisHandler {
+    // one frame being analyzed and one arriving. acquireLatestImage() needs at least 2
+    private static final int MAX_IMAGES = 2;
+
+    @NonNull
+    private final Size imageSize;
+    @NonNull
+    private final FrameAnalyzer analyzer;
+    private final FrameDecimator decimator = new FrameDecimator();
+    private final LatencyHistogram analysisTimes = new LatencyHistogram();
+    private final AtomicLong analyzedFrames = new AtomicLong(0);
+    private final AtomicLong skippedFrames = new AtomicLong(0);
+    private final AtomicLong decimatedFrames = new AtomicLong(0);
+
+    @Nullable
+    private ImageReader imageReader;
+    @Nullable
+    private HandlerThread workerThread;
+    @Nullable
+    private ErrorHandler errorHandler;
+
+    /**
+     * @param imageSize The size of the frames to analyze. This size should come from
+     *                  {@link Camera3#getAvailableImageSizes(String, int)} for
+     *                  {@link android.graphics.ImageFormat#YUV_420_888}. Smaller frames are
+     *                  cheaper to analyze and use less camera bandwidth
+     * @param analyzer  a callback to receive the frames
+     */
+    public FrameAnalysisHandler(@NonNull Size imageSize, @NonNull FrameAnalyzer analyzer) {
+        //noinspection ConstantConditions
+        if (imageSize == null) {
+            throw new IllegalArgumentException("imageSize cannot be null");
+        }
+        //noinspection ConstantConditions
+        if (analyzer == null) {
+            throw new IllegalArgumentException("analyzer cannot be null");
+        }
+        this.imageSize = imageSize;
+        this.analyzer = analyzer;
+    }
+
+    @Contract(pure = true)
+    @NonNull
+    public Size getImageSize() {
+        return imageSize;
+    }
+
+    /**
+     * Only analyzes every <code>frameInterval</code>th frame. The count is of frames that reach
+     * the handler, which doesn't include frames skipped while the analyzer was busy. Can be
+     * changed while the session is running.
+     *
+     * @param frameInterval 1 to analyze every frame (the default), 2 for every other frame, etc.
+     */
+    public void setFrameInterval(int frameInterval) {
+        decimator.setFrameInterval(frameInterval);
+    }
+
+    /**
+     * Limits how many frames are analyzed per second. Can be changed while the session is
+     * running.
+     *
+     * @param framesPerSecond the most frames to analyze per second, or 0 for no limit (the
+     *                        default)
+     */
+    public void setMaxFrameRate(double framesPerSecond) {
+        decimator.setMaxFrameRate(framesPerSecond);
+    }
+
+    /**
+     * @return how long {@link FrameAnalyzer#analyze(Image)} has taken, over every frame analyzed
+     * since the stats were last reset
+     */
+    @NonNull
+    public LatencyHistogram getAnalysisTimeHistogram() {
+        return analysisTimes.copy();
+    }
+
+    /**
+     * @return how many frames have been passed to the analyzer
+     */
+    public long getAnalyzedFrameCount() {
+        return analyzedFrames.get();
+    }
+
+    /**
+     * @return how many frames were skipped because the analyzer was still busy with an earlier
+     * one
+     */
+    public long getSkippedFrameCount() {
+        return skippedFrames.get();
+    }
+
+    /**
+     * @return how many frames were left out by {@link #setFrameInterval(int)} or
+     * {@link #setMaxFrameRate(double)}
+     */
+    public long getDecimatedFrameCount() {
+        return decimatedFrames.get();
+    }
+
+    /**
+     * Forgets the analysis times and frame counts
+     */
+    public void resetStats() {
+        analysisTimes.reset();
+        analyzedFrames.set(0);
+        skippedFrames.set(0);
+        decimatedFrames.set(0);
+    }
+
+    @Contract(pure = true)
+    @Nullable
+    ImageReader getImageReader() {
+        return imageReader;
+    }
+
+    void initialize(@NonNull ErrorHandler errorHandler) {
+        this.errorHandler = errorHandler;
+        decimator.reset();
+        workerThread = new HandlerThread("FrameAnalysis");
+        workerThread.start();
+        imageReader = ImageReader.newInstance(imageSize.getWidth(), imageSize.getHeight(),
+                ImageFormat.YUV_420_888, MAX_IMAGES);
+        imageReader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
+            @Override
+            public void onImageAvailable(ImageReader reader) {
+                analyzeLatestImage(reader);
+            }
+        }, new Handler(workerThread.getLooper()));
+    }
+
+    /**
+     * Called on the worker thread once for every frame that arrives. While the analyzer is
+     * busy, these calls queue up behind it, and the first one after it returns takes the newest
+     * frame and throws away the rest. The calls for the frames that were thrown away find the
+     * reader empty.
+     */
+    private void analyzeLatestImage(@NonNull ImageReader reader) {
+        Image image;
+        try {
+            image = reader.acquireLatestImage();
+        } catch (IllegalStateException e) {
+            // the reader was closed while this call was queued
+            return;
+        }
+        if (image == null) {
+            skippedFrames.incrementAndGet();
+            return;
+        }
+        try {
+            if (!decimator.accept(image.getTimestamp())) {
+                decimatedFrames.incrementAndGet();
+                return;
+            }
+            long start = SystemClock.elapsedRealtimeNanos();
+            analyzer.analyze(image);
+            analysisTimes.record(SystemClock.elapsedRealtimeNanos() - start);
+            analyzedFrames.incrementAndGet();
+        } catch (RuntimeException e) {
+            if (errorHandler != null) {
+                errorHandler.error("FrameAnalyzer threw an exception", e);
+            }
+        } finally {
+            image.close();
+        }
+    }
+
+    void close() {
+        final ImageReader reader = imageReader;
+        imageReader = null;
+        if (workerThread == null) {
+            if (reader != null) {
+                reader.close();
+            }
+            return;
+        }
+        // closing the reader closes its images, so a frame that is being analyzed has to
+        // finish first
+        if (reader != null) {
+            new Handler(workerThread.getLooper()).post(new Runnable() {
+                @Override
+                public void run() {
+                    reader.close();
+                }
+            });
+        }
+        workerThread.quitSafely();
+        workerThread = null;
+    }
+}
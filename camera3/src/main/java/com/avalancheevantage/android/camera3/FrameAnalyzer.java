@@ -0,0 +1,22 @@
+package com.avalancheevantage.android.camera3;
+
+import android.media.Image;
+import android.support.annotation.NonNull;
+
+/**
+ * Receives live frames from a {@link FrameAnalysisHandler}
+ *
+ * @author Quinn Freedman
+ */
+public interface FrameAnalyzer {
+    /**
+     * Called with the newest frame from the preview stream. Frames that arrive while this method
+     * is running are skipped, so a slow analyzer never holds up the camera.
+     * <p>
+     * This method is called on the handler's own worker thread, not the camera thread. The image
+     * is closed as soon as this method returns, so it must not be kept.
+     *
+     * @param image a {@link android.graphics.ImageFormat#YUV_420_888} frame
+     */
+    void analyze(@NonNull Image image);
+}
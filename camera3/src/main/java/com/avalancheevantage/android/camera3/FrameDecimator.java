@@ -0,0 +1,64 @@
+package com.avalancheevantage.android.camera3;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Package-private class. Decides which frames a {@link FrameAnalysisHandler} passes on to its
+ * analyzer. A frame is analyzed if it is the Nth frame since the last one that was, and if
+ * enough time has passed since the last analyzed frame to stay under the maximum rate.
+ * <p>
+ * Frame timestamps jitter a bit, so the rate limit accepts frames up to an eighth of an
+ * interval early. Otherwise a 15fps limit on a 30fps stream would reject every frame that came
+ * slightly early and end up analyzing only 10 frames per second.
+ *
+ * @author Quinn Freedman
+ */
+final class FrameDecimator {
+    private static final long NONE = Long.MIN_VALUE;
+
+    private int frameInterval = 1;
+    private long minIntervalNanos = 0;
+    // frames to reject before the next one can be accepted
+    private int framesToSkip = 0;
+    private long lastAcceptedNanos = NONE;
+
+    synchronized void setFrameInterval(int frameInterval) {
+        if (frameInterval < 1) {
+            throw new IllegalArgumentException("frameInterval must be at least 1");
+        }
+        this.frameInterval = frameInterval;
+    }
+
+    /**
+     * @param framesPerSecond the most frames to accept per second, or 0 for no limit
+     */
+    synchronized void setMaxFrameRate(double framesPerSecond) {
+        if (framesPerSecond < 0 || Double.isNaN(framesPerSecond)) {
+            throw new IllegalArgumentException("framesPerSecond must not be negative");
+        }
+        this.minIntervalNanos = framesPerSecond == 0 ? 0 :
+                (long) (TimeUnit.SECONDS.toNanos(1) / framesPerSecond);
+    }
+
+    synchronized boolean accept(long timestampNanos) {
+        if (framesToSkip > 0) {
+            framesToSkip--;
+            return false;
+        }
+        if (minIntervalNanos > 0 && lastAcceptedNanos != NONE &&
+                timestampNanos - lastAcceptedNanos < minIntervalNanos - minIntervalNanos / 8) {
+            return false;
+        }
+        framesToSkip = frameInterval - 1;
+        lastAcceptedNanos = timestampNanos;
+        return true;
+    }
+
+    /**
+     * Starts over, so that the next frame is accepted. The settings are kept.
+     */
+    synchronized void reset() {
+        framesToSkip = 0;
+        lastAcceptedNanos = NONE;
+    }
+}
@@ -0,0 +1,151 @@
+package com.avalancheevantage.android.camera3;
+
+import android.support.annotation.NonNull;
+
+import org.jetbrains.annotations.Contract;
+
+import java.util.Locale;
+
+/**
+ * A snapshot of how the repeating request (usually the preview) of the current session is
+ * performing: how fast frames arrive, how evenly, and how many are dropped or fail.
+ * <p>
+ * The frame rate and jitter are measured over the last {@link #WINDOW_FRAMES} frames, so they
+ * follow changes (e.g. the camera falling to 15fps in low light) within a couple of seconds.
+ * The histogram and the counters cover the whole session.
+ *
+ * @see Camera3#getFrameStatistics()
+ * @author Quinn Freedman
+ */
+public final class FrameStatistics {
+    /**
+     * The number of most recent frames that the frame rate and jitter are measured over
+     */
+    public static final int WINDOW_FRAMES = 64;
+    /**
+     * The width of each bucket of the interval histogram
+     */
+    public static final long HISTOGRAM_BUCKET_NANOS = 1_000_000L;
+    /**
+     * The number of buckets in the interval histogram. The last bucket counts every interval
+     * that is too long for the others.
+     */
+    public static final int HISTOGRAM_BUCKETS = 101;
+
+    private final long frameCount;
+    private final int windowIntervals;
+    private final long windowDurationNanos;
+    private final long jitterNanos;
+    @NonNull
+    private final int[] intervalHistogram;
+    private final long droppedFrames;
+    private final long failedCaptures;
+    private final long lostBuffers;
+
+    FrameStatistics(long frameCount,
+                    int windowIntervals,
+                    long windowDurationNanos,
+                    long jitterNanos,
+                    @NonNull int[] intervalHistogram,
+                    long droppedFrames,
+                    long failedCaptures,
+                    long lostBuffers) {
+        this.frameCount = frameCount;
+        this.windowIntervals = windowIntervals;
+        this.windowDurationNanos = windowDurationNanos;
+        this.jitterNanos = jitterNanos;
+        this.intervalHistogram = intervalHistogram;
+        this.droppedFrames = droppedFrames;
+        this.failedCaptures = failedCaptures;
+        this.lostBuffers = lostBuffers;
+    }
+
+    /**
+     * @return the number of frames delivered since the session started
+     */
+    @Contract(pure = true)
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return the frame rate over the last {@link #WINDOW_FRAMES} frames, or 0 if fewer than two
+     * frames have been delivered
+     */
+    @Contract(pure = true)
+    public double getFramesPerSecond() {
+        if (windowIntervals == 0 || windowDurationNanos <= 0) {
+            return 0;
+        }
+        return windowIntervals * 1e9 / windowDurationNanos;
+    }
+
+    /**
+     * @return the mean time between the sensor timestamps of the last {@link #WINDOW_FRAMES}
+     * frames, or 0 if fewer than two frames have been delivered
+     */
+    @Contract(pure = true)
+    public long getMeanIntervalNanos() {
+        return windowIntervals == 0 ? 0 : windowDurationNanos / windowIntervals;
+    }
+
+    /**
+     * @return the standard deviation of the time between the sensor timestamps of the last
+     * {@link #WINDOW_FRAMES} frames
+     */
+    @Contract(pure = true)
+    public long getJitterNanos() {
+        return jitterNanos;
+    }
+
+    /**
+     * Bucket <code>i</code> counts the intervals between consecutive sensor timestamps that were
+     * at least <code>i * HISTOGRAM_BUCKET_NANOS</code> and less than
+     * <code>(i + 1) * HISTOGRAM_BUCKET_NANOS</code> long. The last bucket counts everything
+     * longer.
+     *
+     * @return a copy of the interval histogram for the session
+     */
+    @Contract(pure = true)
+    @NonNull
+    public int[] getIntervalHistogram() {
+        return intervalHistogram.clone();
+    }
+
+    /**
+     * Frames are counted as dropped when the camera skips frame numbers, i.e. frames that
+     * were started but never delivered or reported as failed.
+     *
+     * @return the number of dropped frames since the session started
+     */
+    @Contract(pure = true)
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * @return the number of frames reported as failed since the session started. This includes
+     * frames that were flushed when a capture stopped the repeating request.
+     */
+    @Contract(pure = true)
+    public long getFailedCaptures() {
+        return failedCaptures;
+    }
+
+    /**
+     * @return the number of buffers the camera reported as lost since the session started
+     * (only reported on API 24+)
+     */
+    @Contract(pure = true)
+    public long getLostBuffers() {
+        return lostBuffers;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "FrameStatistics(frames=%d, fps=%.1f, jitter=%.2fms, " +
+                        "dropped=%d, failed=%d, lostBuffers=%d)",
+                frameCount, getFramesPerSecond(), jitterNanos / 1e6, droppedFrames,
+                failedCaptures, lostBuffers);
+    }
+}
@@ -0,0 +1,114 @@
+package com.avalancheevantage.android.camera3;
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Package-private class. Collects {@link FrameStatistics} for the repeating request of a
+ * session.
+ * <p>
+ * Every frame is recorded from the camera callback, so recording must not allocate. Everything
+ * is kept in fixed-size primitive arrays: a ring of the last {@link FrameStatistics#WINDOW_FRAMES}
+ * sensor timestamps and the interval histogram. {@link #snapshot()} can be called from any
+ * thread and does the arithmetic, so the per-frame work is just a few array writes.
+ *
+ * @author Quinn Freedman
+ */
+final class FrameStatisticsTracker {
+    private static final int WINDOW = FrameStatistics.WINDOW_FRAMES;
+
+    private final long[] timestamps = new long[WINDOW];
+    private final int[] histogram = new int[FrameStatistics.HISTOGRAM_BUCKETS];
+    // index of the next timestamp to write
+    private int next = 0;
+    private long frameCount = 0;
+    private long lastTimestamp = -1;
+    private long maxFrameNumber = -1;
+    private long droppedFrames = 0;
+    private long failedCaptures = 0;
+    private long lostBuffers = 0;
+
+    /**
+     * Called for every completed frame of the repeating request
+     */
+    synchronized void onFrame(long frameNumber, long timestampNanos) {
+        onFrameNumber(frameNumber);
+        if (timestampNanos <= lastTimestamp) {
+            // duplicate or out of order result
+            return;
+        }
+        if (lastTimestamp >= 0) {
+            long bucket = (timestampNanos - lastTimestamp) / FrameStatistics.HISTOGRAM_BUCKET_NANOS;
+            histogram[(int) Math.min(bucket, histogram.length - 1)]++;
+        }
+        lastTimestamp = timestampNanos;
+        timestamps[next] = timestampNanos;
+        next = (next + 1) % WINDOW;
+        frameCount++;
+    }
+
+    /**
+     * Called for frames of other requests in the same session (e.g. still captures), so that
+     * their frame numbers aren't counted as dropped
+     */
+    synchronized void onOtherFrame(long frameNumber) {
+        onFrameNumber(frameNumber);
+    }
+
+    synchronized void onFailure(long frameNumber) {
+        onFrameNumber(frameNumber);
+        failedCaptures++;
+    }
+
+    synchronized void onBufferLost() {
+        lostBuffers++;
+    }
+
+    private void onFrameNumber(long frameNumber) {
+        if (maxFrameNumber < 0) {
+            maxFrameNumber = frameNumber;
+        } else if (frameNumber > maxFrameNumber) {
+            droppedFrames += frameNumber - maxFrameNumber - 1;
+            maxFrameNumber = frameNumber;
+        } else if (droppedFrames > 0) {
+            // a late result for a frame that was counted as dropped
+            droppedFrames--;
+        }
+    }
+
+    synchronized void reset() {
+        Arrays.fill(timestamps, 0);
+        Arrays.fill(histogram, 0);
+        next = 0;
+        frameCount = 0;
+        lastTimestamp = -1;
+        maxFrameNumber = -1;
+        droppedFrames = 0;
+        failedCaptures = 0;
+        lostBuffers = 0;
+    }
+
+    @NonNull
+    synchronized FrameStatistics snapshot() {
+        int frames = (int) Math.min(frameCount, WINDOW);
+        int intervals = Math.max(frames - 1, 0);
+        long duration = 0;
+        long jitter = 0;
+        if (intervals > 0) {
+            int newest = (next - 1 + WINDOW) % WINDOW;
+            int oldest = (next - frames + WINDOW) % WINDOW;
+            duration = timestamps[newest] - timestamps[oldest];
+            double mean = (double) duration / intervals;
+            double squares = 0;
+            for (int i = 1; i < frames; i++) {
+                long interval = timestamps[(oldest + i) % WINDOW] -
+                        timestamps[(oldest + i - 1) % WINDOW];
+                squares += (interval - mean) * (interval - mean);
+            }
+            jitter = Math.round(Math.sqrt(squares / intervals));
+        }
+        return new FrameStatistics(frameCount, intervals, duration, jitter, histogram.clone(),
+                droppedFrames, failedCaptures, lostBuffers);
+    }
+}
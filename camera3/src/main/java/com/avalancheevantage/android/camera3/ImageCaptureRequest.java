@@ -1,16 +1,35 @@
 package com.avalancheevantage.android.camera3;
 
 import android.hardware.camera2.CaptureRequest;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import java.util.Comparator;
+
 /**
- * Package-private class. Represents the intention to capture a single still image.
+ * Package-private class. Represents the intention to capture a single still image (or a burst
+ * of still images that share one 3A lock).
  *
  * @author Quinn Freedman
  */
 
 class ImageCaptureRequest {
+    /**
+     * Orders requests by priority (highest first), then by the order in which they were queued
+     */
+    static final Comparator<ImageCaptureRequest> QUEUE_ORDER =
+            new Comparator<ImageCaptureRequest>() {
+                @Override
+                public int compare(ImageCaptureRequest lhs, ImageCaptureRequest rhs) {
+                    if (lhs.priority != rhs.priority) {
+                        return lhs.priority > rhs.priority ? -1 : 1;
+                    }
+                    return lhs.sequence < rhs.sequence ? -1 :
+                            (lhs.sequence == rhs.sequence ? 0 : 1);
+                }
+            };
+
     @NonNull
     private final StillCaptureHandler session;
     @Nullable
@@ -19,16 +38,60 @@ class ImageCaptureRequest {
     private final CaptureRequestConfiguration capture;
     @NonNull
     private ErrorHandler errorHandler;
+    private final int burstCount;
+    // set for requests made by captureBurst(), even with a count of 1
+    private final boolean burst;
+    @Nullable
+    private final BurstCaptureListener burstListener;
+    private final long requestedAtNanos;
+    @NonNull
+    private final CaptureReport report;
+    private int priority = CaptureHandle.PRIORITY_NORMAL;
+    // 0 means no deadline
+    private long deadlineNanos = 0;
+    private long sequence = 0;
+    @Nullable
+    private CaptureHandle handle;
+    @Nullable
+    private CaptureFuture future;
+    // when the last CaptureStage of this request ended
+    private long stageEndNanos;
+    private long submittedAtNanos = 0;
 
     ImageCaptureRequest(@NonNull StillCaptureHandler session,
                         @Nullable CaptureRequestConfiguration precapture,
                         @NonNull CaptureRequestConfiguration capture,
                         @NonNull ErrorHandler errorHandler) {
+        this(session, precapture, capture, errorHandler, 1, null, false);
+    }
+
+    ImageCaptureRequest(@NonNull StillCaptureHandler session,
+                        @Nullable CaptureRequestConfiguration precapture,
+                        @NonNull CaptureRequestConfiguration capture,
+                        @NonNull ErrorHandler errorHandler,
+                        int burstCount,
+                        @Nullable BurstCaptureListener burstListener) {
+        this(session, precapture, capture, errorHandler, burstCount, burstListener, true);
+    }
+
+    private ImageCaptureRequest(@NonNull StillCaptureHandler session,
+                                @Nullable CaptureRequestConfiguration precapture,
+                                @NonNull CaptureRequestConfiguration capture,
+                                @NonNull ErrorHandler errorHandler,
+                                int burstCount,
+                                @Nullable BurstCaptureListener burstListener,
+                                boolean burst) {
 
         this.session = session;
         this.precapture = precapture;
         this.capture = capture;
         this.errorHandler = errorHandler;
+        this.burstCount = burstCount;
+        this.burst = burst;
+        this.burstListener = burstListener;
+        this.requestedAtNanos = SystemClock.elapsedRealtimeNanos();
+        this.stageEndNanos = requestedAtNanos;
+        this.report = new CaptureReport(session);
     }
 
     @NonNull
@@ -51,4 +114,127 @@ class ImageCaptureRequest {
     void configureCapture(CaptureRequest.Builder request) {
         capture.configure(request);
     }
-}
\ No newline at end of file
+
+    /**
+     * @return the capture configuration if it is an immutable {@link RequestSettings}, so that
+     * the compiled request can be cached
+     */
+    @Nullable
+    RequestSettings getCaptureSettings() {
+        return capture instanceof RequestSettings ? (RequestSettings) capture : null;
+    }
+
+    /**
+     * @return the number of frames to capture for this request. 1 for a normal still capture.
+     */
+    int getBurstCount() {
+        return burstCount;
+    }
+
+    /**
+     * @return whether this request was made by
+     * {@link Camera3#captureBurst(StillCaptureHandler, int, CaptureRequestConfiguration,
+     * CaptureRequestConfiguration, BurstCaptureListener)}, so it takes the burst path and
+     * notifies its {@link BurstCaptureListener}, whatever its count
+     */
+    boolean isBurst() {
+        return burst;
+    }
+
+    @Nullable
+    BurstCaptureListener getBurstListener() {
+        return burstListener;
+    }
+
+    /**
+     * @return the {@link SystemClock#elapsedRealtimeNanos()} at which this request was made
+     */
+    long getRequestedAtNanos() {
+        return requestedAtNanos;
+    }
+
+    /**
+     * Ends the current {@link CaptureStage} of this request and records how long it took in the
+     * handler's latency histograms
+     */
+    void endStage(@NonNull CaptureStage stage, long nowNanos) {
+        session.getLatencyTracker().record(stage, nowNanos - stageEndNanos);
+        stageEndNanos = nowNanos;
+    }
+
+    /**
+     * Ends the {@link CaptureStage#REQUEST_SUBMIT} stage. Called once the still capture
+     * request has been sent to the camera.
+     *
+     * @param images the number of images the camera was asked for
+     */
+    void onSubmitted(long nowNanos, int images) {
+        endStage(CaptureStage.REQUEST_SUBMIT, nowNanos);
+        submittedAtNanos = nowNanos;
+        for (int i = 0; i < images; i++) {
+            session.getLatencyTracker().onSubmitted(requestedAtNanos, nowNanos);
+        }
+    }
+
+    /**
+     * Records the {@link CaptureStage#CAPTURE_RESULT} stage for one image of this request
+     */
+    void onCaptureResult(long nowNanos) {
+        if (submittedAtNanos != 0) {
+            session.getLatencyTracker().record(CaptureStage.CAPTURE_RESULT,
+                    nowNanos - submittedAtNanos);
+        }
+    }
+
+    @NonNull
+    CaptureReport getReport() {
+        return report;
+    }
+
+    int getPriority() {
+        return priority;
+    }
+
+    /**
+     * Sets the values used to order and expire this request. Must be called before the
+     * request is queued.
+     *
+     * @param deadlineNanos the {@link SystemClock#elapsedRealtimeNanos()} after which the
+     *                      request should be dropped, or 0 for no deadline
+     * @param sequence      a number that increases with every queued request
+     */
+    void setQueueOrder(int priority, long deadlineNanos, long sequence) {
+        this.priority = priority;
+        this.deadlineNanos = deadlineNanos;
+        this.sequence = sequence;
+    }
+
+    /**
+     * @return <code>true</code> if this request has a deadline and it has passed
+     */
+    boolean isExpired(long nowNanos) {
+        return deadlineNanos != 0 && nowNanos > deadlineNanos;
+    }
+
+    @Nullable
+    CaptureHandle getHandle() {
+        return handle;
+    }
+
+    void setHandle(@NonNull CaptureHandle handle) {
+        this.handle = handle;
+    }
+
+    /**
+     * @return the future to complete with the image and its result, or {@code null} if the
+     * image should just be given to the handler's listener
+     */
+    @Nullable
+    CaptureFuture getFuture() {
+        return future;
+    }
+
+    void setFuture(@NonNull CaptureFuture future) {
+        this.future = future;
+    }
+}
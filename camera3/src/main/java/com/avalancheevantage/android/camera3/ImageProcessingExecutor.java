@@ -0,0 +1,106 @@
+package com.avalancheevantage.android.camera3;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Package-private class. A bounded thread pool for image work, kept apart from the camera
+ * control thread, that measures how long tasks wait to run.
+ * <p>
+ * A task that doesn't fit in the queue (or arrives after {@link #shutdown()}) goes to an
+ * overflow thread with an unbounded queue. It never runs on the thread that submitted it, which
+ * is usually the camera control thread. Images must never be lost, and each image waiting is
+ * still holding a slot in its ImageReader, so the readers bound the overflow queue in practice
+ * and it is only used when the queue is smaller than the readers.
+ * <p>
+ * Threads stop after being idle for {@link #KEEP_ALIVE_SECONDS}, so an idle executor doesn't
+ * need to be shut down.
+ *
+ * @author Quinn Freedman
+ */
+final class ImageProcessingExecutor {
+    static final long KEEP_ALIVE_SECONDS = 10;
+
+    private final ThreadPoolExecutor executor;
+    private final ThreadPoolExecutor overflow;
+    private final LatencyHistogram waitTimes = new LatencyHistogram();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger(0);
+    private final AtomicLong overflowTasks = new AtomicLong(0);
+
+    ImageProcessingExecutor(int poolSize, int queueCapacity) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("poolSize must be at least 1");
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity must be at least 1");
+        }
+        executor = new ThreadPoolExecutor(poolSize, poolSize,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger(0);
+
+                    @Override
+                    public Thread newThread(@NonNull Runnable runnable) {
+                        return new Thread(runnable,
+                                "ImageProcessing-" + count.incrementAndGet());
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        // only has a thread while there is overflow, so it is never shut down
+        overflow = new ThreadPoolExecutor(1, 1,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(@NonNull Runnable runnable) {
+                        return new Thread(runnable, "ImageProcessing-overflow");
+                    }
+                });
+        overflow.allowCoreThreadTimeOut(true);
+    }
+
+    void execute(@NonNull final Runnable task) {
+        final long queuedAt = System.nanoTime();
+        Runnable timed = new Runnable() {
+            @Override
+            public void run() {
+                waitTimes.record(System.nanoTime() - queuedAt);
+                task.run();
+            }
+        };
+        try {
+            executor.execute(timed);
+        } catch (RejectedExecutionException e) {
+            overflowTasks.incrementAndGet();
+            overflow.execute(timed);
+            return;
+        }
+        int depth = executor.getQueue().size();
+        int max = maxQueueDepth.get();
+        while (depth > max && !maxQueueDepth.compareAndSet(max, depth)) {
+            max = maxQueueDepth.get();
+        }
+    }
+
+    /**
+     * Lets the queued tasks finish, but doesn't take any more
+     */
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    @NonNull
+    ImageProcessingStats snapshot() {
+        return new ImageProcessingStats(executor.getQueue().size(), maxQueueDepth.get(),
+                executor.getCompletedTaskCount(), overflowTasks.get(), waitTimes.copy());
+    }
+}
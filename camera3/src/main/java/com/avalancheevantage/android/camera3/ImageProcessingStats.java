@@ -0,0 +1,88 @@
+package com.avalancheevantage.android.camera3;
+
+import android.support.annotation.NonNull;
+
+import org.jetbrains.annotations.Contract;
+
+import java.util.Locale;
+
+/**
+ * A snapshot of the image processing executor: how much work is waiting, and how long work
+ * waits before it runs. Image work (the still image callbacks) runs there instead of on the
+ * camera control thread, so that it can't delay focus, exposure or the next capture.
+ *
+ * @see Camera3#getImageProcessingStats()
+ * @see Camera3#setImageProcessingThreads(int, int)
+ * @author Quinn Freedman
+ */
+public final class ImageProcessingStats {
+    private final int queueDepth;
+    private final int maxQueueDepth;
+    private final long completedTasks;
+    private final long overflowTasks;
+    @NonNull
+    private final LatencyHistogram waitTimes;
+
+    ImageProcessingStats(int queueDepth,
+                         int maxQueueDepth,
+                         long completedTasks,
+                         long overflowTasks,
+                         @NonNull LatencyHistogram waitTimes) {
+        this.queueDepth = queueDepth;
+        this.maxQueueDepth = maxQueueDepth;
+        this.completedTasks = completedTasks;
+        this.overflowTasks = overflowTasks;
+        this.waitTimes = waitTimes;
+    }
+
+    /**
+     * @return how many tasks were waiting for a thread when the snapshot was taken
+     */
+    @Contract(pure = true)
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * @return the most tasks that have been waiting for a thread at once
+     */
+    @Contract(pure = true)
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    /**
+     * @return how many tasks have finished on the executor
+     */
+    @Contract(pure = true)
+    public long getCompletedTaskCount() {
+        return completedTasks;
+    }
+
+    /**
+     * @return how many tasks were handed to the overflow thread because the queue was full.
+     * When this is more than 0, images were arriving faster than they could be processed, and
+     * the executor needs more threads or a longer queue.
+     */
+    @Contract(pure = true)
+    public long getOverflowTaskCount() {
+        return overflowTasks;
+    }
+
+    /**
+     * @return how long tasks waited in the queue before a thread started them
+     */
+    @Contract(pure = true)
+    @NonNull
+    public LatencyHistogram getWaitTimeHistogram() {
+        return waitTimes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "ImageProcessingStats{queued=%d, maxQueued=%d, completed=%d, overflow=%d, " +
+                        "wait=%s}",
+                queueDepth, maxQueueDepth, completedTasks, overflowTasks, waitTimes);
+    }
+}
@@ -0,0 +1,30 @@
+package com.avalancheevantage.android.camera3;
+
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Notified when an {@link ImageWritePipeline} has finished with a file. Called on one of the
+ * pipeline's writer threads.
+ *
+ * @author Quinn Freedman
+ */
+public interface ImageWriteListener {
+    /**
+     * Called once the file is complete at its final path (and, if the pipeline syncs, on disk)
+     *
+     * @param file  the file that was written
+     * @param bytes the size of the file
+     */
+    void onImageWritten(@NonNull File file, long bytes);
+
+    /**
+     * Called if the file couldn't be written. No partial file is left at <code>file</code>.
+     *
+     * @param file  the file that was being written
+     * @param error what went wrong
+     */
+    void onImageWriteFailed(@NonNull File file, @NonNull IOException error);
+}
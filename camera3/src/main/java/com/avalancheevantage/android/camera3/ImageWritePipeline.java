@@ -0,0 +1,494 @@
+package com.avalancheevantage.android.camera3;
+
+import android.media.Image;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.jetbrains.annotations.Contract;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Saves JPEG (and YUV) images to files on a pool of writer threads, so that saving a burst never
+ * holds up the thread that captures it.
+ * <p>
+ * Each image is written to a temporary file next to its destination, and renamed into place
+ * once it is complete. A file at the destination path is always a whole image, even if the
+ * process dies in the middle of a write. Temporary files left behind by a write that never
+ * finished can be removed with {@link #deleteIncompleteFiles(File)}. The image is closed as
+ * soon as its data has been written, before the file is synced or renamed, to give its buffer
+ * back to the camera as early as possible.
+ * <p>
+ * Writes go through a bounded queue. A write that doesn't fit is refused instead of blocking
+ * the caller (see {@link #write(Image, File, ImageWriteListener)}).
+ *
+ * @see Camera3#saveImageAsync(Image, File, ImageWriteListener)
+ * @author Quinn Freedman
+ */
+public final class ImageWritePipeline {
+    /**
+     * How hard the pipeline works to make sure a file survives a power loss or a crash of the
+     * whole device. Renaming a complete temporary file already protects against the app
+     * process dying, since the data is in the OS's cache once it is written.
+     */
+    public enum Durability {
+        /**
+         * Leave it to the OS to flush files to disk. Fastest.
+         */
+        NONE,
+        /**
+         * Sync every file to disk before it is renamed into place. Each sync waits for the
+         * disk, so this makes every write much slower.
+         */
+        EACH_FILE,
+        /**
+         * Sync files to disk in groups before they are renamed into place. The syncs happen
+         * together, once a group of files has been written or the queue has run dry, so they
+         * don't slow down the writes of a burst. Files are only reported as written once their
+         * group is synced.
+         */
+        GROUPED
+    }
+
+    /**
+     * The extension of the temporary file that a write goes to before it is renamed into place.
+     * Its name starts with the destination's name.
+     */
+    public static final String TEMP_SUFFIX = ".part";
+    /**
+     * How many files are synced together by {@link Durability#GROUPED}, unless another group
+     * size is given
+     */
+    public static final int DEFAULT_SYNC_GROUP_SIZE = 8;
+    static final long KEEP_ALIVE_SECONDS = 10;
+
+    @NonNull
+    private final Durability durability;
+    private final int syncGroupSize;
+    private final ThreadPoolExecutor executor;
+    // written files waiting for their group to be synced. Guarded by itself.
+    private final List<PendingFile> unsynced = new ArrayList<>();
+
+    private final LatencyHistogram writeTimes = new LatencyHistogram();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger(0);
+    private final AtomicLong filesWritten = new AtomicLong(0);
+    private final AtomicLong filesFailed = new AtomicLong(0);
+    private final AtomicLong filesRefused = new AtomicLong(0);
+    private final AtomicLong bytesWritten = new AtomicLong(0);
+    private final AtomicLong writeNanos = new AtomicLong(0);
+
+    /**
+     * @param writerThreads how many files can be written at once. Must be at least 1
+     * @param queueCapacity how many writes can wait for a writer. Must be at least 1
+     * @param durability    whether and how files are synced to disk
+     */
+    public ImageWritePipeline(int writerThreads,
+                              int queueCapacity,
+                              @NonNull Durability durability) {
+        this(writerThreads, queueCapacity, durability, DEFAULT_SYNC_GROUP_SIZE);
+    }
+
+    /**
+     * @param writerThreads how many files can be written at once. Must be at least 1
+     * @param queueCapacity how many writes can wait for a writer. Must be at least 1
+     * @param durability    whether and how files are synced to disk
+     * @param syncGroupSize the most files to sync together with {@link Durability#GROUPED}.
+     *                      Must be at least 1
+     */
+    public ImageWritePipeline(int writerThreads,
+                              int queueCapacity,
+                              @NonNull Durability durability,
+                              int syncGroupSize) {
+        if (writerThreads < 1) {
+            throw new IllegalArgumentException("writerThreads must be at least 1");
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity must be at least 1");
+        }
+        //noinspection ConstantConditions
+        if (durability == null) {
+            throw new IllegalArgumentException("durability cannot be null");
+        }
+        if (syncGroupSize < 1) {
+            throw new IllegalArgumentException("syncGroupSize must be at least 1");
+        }
+        this.durability = durability;
+        this.syncGroupSize = syncGroupSize;
+        this.executor = new ThreadPoolExecutor(writerThreads, writerThreads,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger(0);
+
+                    @Override
+                    public Thread newThread(@NonNull Runnable runnable) {
+                        return new Thread(runnable, "ImageWrite-" + count.incrementAndGet());
+                    }
+                });
+        // idle writers stop, so an unused pipeline doesn't have to be shut down
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues a JPEG image to be saved. Returns right away. The image is closed once it has been
+     * written, or right away if the write is refused.
+     * <p>
+     * {@link android.graphics.ImageFormat#YUV_420_888} images are compressed to JPEG on the
+     * writer thread.
+     *
+     * @param image    the JPEG or YUV image
+     * @param file     where to save it. An existing file is replaced.
+     * @param listener an optional callback for when the file is complete or the write failed
+     * @return <code>false</code> if the queue is full (or the pipeline was shut down) and the
+     * image was not saved
+     */
+    public boolean write(@NonNull final Image image,
+                         @NonNull File file,
+                         @Nullable ImageWriteListener listener) {
+        return write(new Content() {
+            @Override
+            public long writeTo(@NonNull FileOutputStream output) throws IOException {
+                return ImageSaver.write(image, output);
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                image.close();
+            }
+        }, file, listener);
+    }
+
+    /**
+     * Queues the remaining bytes of <code>buffer</code> to be saved
+     *
+     * @param release called on the writer thread once the buffer is no longer needed (or on
+     *                this thread, if the write is refused)
+     * @see #write(Image, File, ImageWriteListener)
+     */
+    boolean write(@NonNull final ByteBuffer buffer,
+                  @NonNull Runnable release,
+                  @NonNull File file,
+                  @Nullable ImageWriteListener listener) {
+        return write(new Content() {
+            @Override
+            public long writeTo(@NonNull FileOutputStream output) throws IOException {
+                return ImageSaver.write(buffer, output.getChannel());
+            }
+        }, release, file, listener);
+    }
+
+    private boolean write(@NonNull Content content,
+                          @NonNull Runnable release,
+                          @NonNull File file,
+                          @Nullable ImageWriteListener listener) {
+        try {
+            executor.execute(new WriteTask(content, release, file, listener));
+        } catch (RejectedExecutionException e) {
+            filesRefused.incrementAndGet();
+            release.run();
+            return false;
+        }
+        int depth = executor.getQueue().size();
+        int max = maxQueueDepth.get();
+        while (depth > max && !maxQueueDepth.compareAndSet(max, depth)) {
+            max = maxQueueDepth.get();
+        }
+        return true;
+    }
+
+    /**
+     * Finishes the writes that are already queued, but doesn't take any more
+     */
+    public void shutdown() {
+        if (durability == Durability.GROUPED) {
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        syncPendingFiles(true);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // the queue is full or already shut down. The last write to finish syncs
+                // whatever is left.
+            }
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * @return how many writes are waiting for a writer thread
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return the most writes that have been waiting for a writer thread at once
+     */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * @return how many files have been completed
+     */
+    public long getFilesWritten() {
+        return filesWritten.get();
+    }
+
+    /**
+     * @return how many writes failed with an error
+     */
+    public long getFilesFailed() {
+        return filesFailed.get();
+    }
+
+    /**
+     * @return how many writes were refused because the queue was full
+     */
+    public long getFilesRefused() {
+        return filesRefused.get();
+    }
+
+    /**
+     * @return how many bytes have been written to completed and failed files
+     */
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /**
+     * @return the average speed of a single writer while it is writing, in bytes per second, or
+     * 0 if nothing has been written yet. Syncing in groups isn't included.
+     */
+    public double getBytesPerSecond() {
+        long nanos = writeNanos.get();
+        if (nanos <= 0) {
+            return 0;
+        }
+        return bytesWritten.get() * 1e9 / nanos;
+    }
+
+    /**
+     * @return how long each file took to write, from opening the temporary file to closing it
+     */
+    @NonNull
+    public LatencyHistogram getWriteTimeHistogram() {
+        return writeTimes.copy();
+    }
+
+    @Contract(pure = true)
+    @NonNull
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Deletes the temporary files that writes which never finished (e.g. because the process
+     * died) left in <code>directory</code>. Must not be called while a pipeline is writing to
+     * the directory.
+     *
+     * @param directory a directory images are saved to
+     * @return how many files were deleted
+     */
+    public static int deleteIncompleteFiles(@NonNull File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        int deleted = 0;
+        for (File file : files) {
+            if (file.isFile() && file.getName().endsWith(TEMP_SUFFIX) && file.delete()) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Creates an empty temporary file next to <code>file</code>. Its name is unique, so two
+     * writes to the same destination never share a temporary file.
+     */
+    @NonNull
+    static File tempFileFor(@NonNull File file) throws IOException {
+        // the prefix has to be at least 3 characters long
+        return File.createTempFile(file.getName() + "-", TEMP_SUFFIX,
+                file.getAbsoluteFile().getParentFile());
+    }
+
+    private void commit(@NonNull PendingFile pending) {
+        if (!pending.temp.renameTo(pending.file)) {
+            //noinspection ResultOfMethodCallIgnored
+            pending.temp.delete();
+            fail(pending.file, new IOException("Unable to rename " + pending.temp + " to " +
+                    pending.file), pending.listener);
+            return;
+        }
+        filesWritten.incrementAndGet();
+        if (pending.listener != null) {
+            pending.listener.onImageWritten(pending.file, pending.bytes);
+        }
+    }
+
+    private void fail(@NonNull File file,
+                      @NonNull IOException error,
+                      @Nullable ImageWriteListener listener) {
+        filesFailed.incrementAndGet();
+        if (listener != null) {
+            listener.onImageWriteFailed(file, error);
+        }
+    }
+
+    /**
+     * Syncs and commits the written files that are waiting for their group, if the group is
+     * full or nothing else is queued. Called whenever a write ends, however it ends, so that the
+     * last group is never left waiting.
+     *
+     * @param force whether to sync the waiting files even if the group isn't complete
+     */
+    private void syncPendingFiles(boolean force) {
+        List<PendingFile> group;
+        synchronized (unsynced) {
+            if (unsynced.isEmpty() || !(force || unsynced.size() >= syncGroupSize ||
+                    executor.getQueue().isEmpty())) {
+                return;
+            }
+            group = new ArrayList<>(unsynced);
+            unsynced.clear();
+        }
+        for (PendingFile file : group) {
+            // fsync flushes everything written to the file, through any descriptor
+            try (RandomAccessFile synced = new RandomAccessFile(file.temp, "rw")) {
+                synced.getChannel().force(true);
+            } catch (IOException e) {
+                //noinspection ResultOfMethodCallIgnored
+                file.temp.delete();
+                fail(file.file, e, file.listener);
+                continue;
+            }
+            commit(file);
+        }
+    }
+
+    /**
+     * What a write puts in its file
+     */
+    private interface Content {
+        /**
+         * @return the number of bytes written
+         */
+        long writeTo(@NonNull FileOutputStream output) throws IOException;
+    }
+
+    private static final class PendingFile {
+        @NonNull
+        final File temp;
+        @NonNull
+        final File file;
+        final long bytes;
+        @Nullable
+        final ImageWriteListener listener;
+
+        PendingFile(@NonNull File temp,
+                    @NonNull File file,
+                    long bytes,
+                    @Nullable ImageWriteListener listener) {
+            this.temp = temp;
+            this.file = file;
+            this.bytes = bytes;
+            this.listener = listener;
+        }
+    }
+
+    private final class WriteTask implements Runnable {
+        @NonNull
+        private final Content content;
+        @NonNull
+        private final Runnable release;
+        @NonNull
+        private final File file;
+        @Nullable
+        private final ImageWriteListener listener;
+
+        WriteTask(@NonNull Content content,
+                  @NonNull Runnable release,
+                  @NonNull File file,
+                  @Nullable ImageWriteListener listener) {
+            this.content = content;
+            this.release = release;
+            this.file = file;
+            this.listener = listener;
+        }
+
+        @Override
+        public void run() {
+            try {
+                write();
+            } finally {
+                if (durability == Durability.GROUPED) {
+                    syncPendingFiles(false);
+                }
+            }
+        }
+
+        private void write() {
+            long start = System.nanoTime();
+            long bytes = 0;
+            boolean released = false;
+            File temp = null;
+            try {
+                temp = tempFileFor(file);
+                try (FileOutputStream output = new FileOutputStream(temp)) {
+                    try {
+                        bytes = content.writeTo(output);
+                    } finally {
+                        released = true;
+                        release.run();
+                    }
+                    if (durability == Durability.EACH_FILE) {
+                        output.getChannel().force(true);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                if (!released) {
+                    release.run();
+                }
+                if (temp != null) {
+                    //noinspection ResultOfMethodCallIgnored
+                    temp.delete();
+                }
+                fail(file, e instanceof IOException ? (IOException) e : new IOException(e),
+                        listener);
+                return;
+            } finally {
+                long nanos = System.nanoTime() - start;
+                writeTimes.record(nanos);
+                writeNanos.addAndGet(nanos);
+                bytesWritten.addAndGet(bytes);
+            }
+
+            PendingFile pending = new PendingFile(temp, file, bytes, listener);
+            if (durability == Durability.GROUPED) {
+                synchronized (unsynced) {
+                    unsynced.add(pending);
+                }
+            } else {
+                commit(pending);
+            }
+        }
+    }
+}
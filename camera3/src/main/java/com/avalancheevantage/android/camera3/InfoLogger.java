@@ -0,0 +1,84 @@
+package com.avalancheevantage.android.camera3;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.jetbrains.annotations.Contract;
+
+/**
+ * Package-private class. Sends info messages to an {@link ErrorHandler}, but only builds them if
+ * the handler wants them (see {@link LeveledErrorHandler}). Messages are templates where each
+ * <code>{}</code> is replaced by the next argument, so that nothing is concatenated (or boxed)
+ * when info logging is off.
+ *
+ * @author Quinn Freedman
+ */
+final class InfoLogger {
+    private static final String PLACEHOLDER = "{}";
+
+    @NonNull
+    private final ErrorHandler errorHandler;
+
+    InfoLogger(@NonNull ErrorHandler errorHandler) {
+        this.errorHandler = errorHandler;
+    }
+
+    /**
+     * @return <code>false</code> if info messages would be thrown away. Use this to skip
+     * expensive work that is only done for logging.
+     */
+    @Contract(pure = true)
+    boolean isEnabled() {
+        return !(errorHandler instanceof LeveledErrorHandler) ||
+                ((LeveledErrorHandler) errorHandler).isInfoEnabled();
+    }
+
+    void info(@NonNull String message) {
+        if (isEnabled()) {
+            errorHandler.info(message);
+        }
+    }
+
+    void info(@NonNull String template, @Nullable Object arg) {
+        if (isEnabled()) {
+            errorHandler.info(format(template, String.valueOf(arg), null));
+        }
+    }
+
+    void info(@NonNull String template, long arg) {
+        if (isEnabled()) {
+            errorHandler.info(format(template, String.valueOf(arg), null));
+        }
+    }
+
+    void info(@NonNull String template, @Nullable Object arg1, @Nullable Object arg2) {
+        if (isEnabled()) {
+            errorHandler.info(format(template, String.valueOf(arg1), String.valueOf(arg2)));
+        }
+    }
+
+    void info(@NonNull String template, long arg1, long arg2) {
+        if (isEnabled()) {
+            errorHandler.info(format(template, String.valueOf(arg1), String.valueOf(arg2)));
+        }
+    }
+
+    @NonNull
+    static String format(@NonNull String template,
+                         @NonNull String arg1,
+                         @Nullable String arg2) {
+        StringBuilder builder = new StringBuilder(template.length() + 32);
+        int start = 0;
+        for (int n = 0; n < 2; n++) {
+            String arg = n == 0 ? arg1 : arg2;
+            int i = template.indexOf(PLACEHOLDER, start);
+            if (arg == null || i < 0) {
+                break;
+            }
+            builder.append(template, start, i).append(arg);
+            start = i + PLACEHOLDER.length();
+        }
+        builder.append(template, start, template.length());
+        return builder.toString();
+    }
+}
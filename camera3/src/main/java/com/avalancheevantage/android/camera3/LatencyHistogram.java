@@ -0,0 +1,162 @@
+package com.avalancheevantage.android.camera3;
+
+import android.support.annotation.NonNull;
+
+import org.jetbrains.annotations.Contract;
+
+import java.util.Locale;
+
+/**
+ * A histogram of latencies with logarithmic buckets, for measuring things like shutter lag.
+ * <p>
+ * Latencies are counted in microseconds. Below 8us every value has its own bucket; above that,
+ * each power of two is split into 8 buckets, so percentiles are accurate to within 12.5%.
+ * Latencies of more than about a minute all go in the last bucket. Recording a latency is a
+ * couple of arithmetic operations and an array increment, and never allocates.
+ * <p>
+ * The histograms returned by Camera3 are snapshots and can be read from any thread.
+ *
+ * @author Quinn Freedman
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // values from 2^MAX_EXPONENT us (~67s) up all go in the last bucket
+    private static final int MAX_EXPONENT = 26;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count = 0;
+    private long totalMicros = 0;
+    private long minMicros = Long.MAX_VALUE;
+    private long maxMicros = 0;
+
+    LatencyHistogram() {
+    }
+
+    /**
+     * @return the bucket that a latency in microseconds belongs in
+     */
+    @Contract(pure = true)
+    static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) Math.max(micros, 0);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int subBucket = (int) (micros >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the smallest latency in microseconds that goes in the bucket
+     */
+    @Contract(pure = true)
+    static long bucketStart(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        return (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    synchronized void record(long nanos) {
+        long micros = Math.max(nanos / 1000, 0);
+        counts[bucketOf(micros)]++;
+        count++;
+        totalMicros += micros;
+        minMicros = Math.min(minMicros, micros);
+        maxMicros = Math.max(maxMicros, micros);
+    }
+
+    synchronized void reset() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = 0;
+        }
+        count = 0;
+        totalMicros = 0;
+        minMicros = Long.MAX_VALUE;
+        maxMicros = 0;
+    }
+
+    @NonNull
+    synchronized LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram();
+        System.arraycopy(counts, 0, copy.counts, 0, counts.length);
+        copy.count = count;
+        copy.totalMicros = totalMicros;
+        copy.minMicros = minMicros;
+        copy.maxMicros = maxMicros;
+        return copy;
+    }
+
+    /**
+     * @return the number of latencies recorded
+     */
+    @Contract(pure = true)
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the smallest latency recorded, or 0 if none were
+     */
+    @Contract(pure = true)
+    public synchronized long getMinNanos() {
+        return count == 0 ? 0 : minMicros * 1000;
+    }
+
+    /**
+     * @return the largest latency recorded, or 0 if none were
+     */
+    @Contract(pure = true)
+    public synchronized long getMaxNanos() {
+        return maxMicros * 1000;
+    }
+
+    /**
+     * @return the mean latency, or 0 if none were recorded
+     */
+    @Contract(pure = true)
+    public synchronized long getMeanNanos() {
+        return count == 0 ? 0 : totalMicros * 1000 / count;
+    }
+
+    /**
+     * @param percentile between 0 and 100, e.g. 50 for the median or 99 for the 99th percentile
+     * @return a latency that at least <code>percentile</code>% of the recorded latencies are no
+     * longer than. This is the upper end of a bucket (but never more than the largest latency
+     * recorded), so it may be up to 12.5% too long. 0 if nothing was recorded.
+     */
+    @Contract(pure = true)
+    public synchronized long getPercentileNanos(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max((long) Math.ceil(percentile / 100 * count), 1);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                long end = i + 1 < counts.length ? bucketStart(i + 1) - 1 : maxMicros;
+                return Math.max(Math.min(end, maxMicros), minMicros) * 1000;
+            }
+        }
+        return maxMicros * 1000;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "LatencyHistogram(count=%d, mean=%.1fms, p50=%.1fms, " +
+                        "p90=%.1fms, p99=%.1fms, max=%.1fms)",
+                count, getMeanNanos() / 1e6, getPercentileNanos(50) / 1e6,
+                getPercentileNanos(90) / 1e6, getPercentileNanos(99) / 1e6,
+                getMaxNanos() / 1e6);
+    }
+}
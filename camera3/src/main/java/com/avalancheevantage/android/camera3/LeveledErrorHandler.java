@@ -0,0 +1,20 @@
+package com.avalancheevantage.android.camera3;
+
+/**
+ * An {@link ErrorHandler} that can tell Camera3 whether it wants info messages at all. Camera3
+ * calls {@link #info(String)} many times for every capture (and sometimes for every frame), so
+ * when info logging is turned off, Camera3 skips building those messages entirely.
+ * <p>
+ * Errors and warnings are always reported.
+ *
+ * @author Quinn Freedman
+ */
+public interface LeveledErrorHandler extends ErrorHandler {
+
+    /**
+     * Checked before every info message, so it should be fast. It can change at any time.
+     *
+     * @return <code>true</code> if {@link #info(String)} should be called
+     */
+    boolean isInfoEnabled();
+}
@@ -0,0 +1,33 @@
+package com.avalancheevantage.android.camera3;
+
+/**
+ * What a {@link StillCaptureHandler} does when images arrive faster than the app closes them.
+ * <p>
+ * The handler's ImageReader can only hand out as many images at a time as its depth. Once the
+ * app is holding that many (e.g. by returning
+ * {@link OnImageAvailableListener.ImageAction#KEEP_IMAGE_OPEN}), new images have to wait in the
+ * reader until one is closed. The policy decides what happens to them.
+ *
+ * @see StillCaptureHandler#StillCaptureHandler(int, android.util.Size, int, OverflowPolicy,
+ * OnImageAvailableListener)
+ * @author Quinn Freedman
+ */
+public enum OverflowPolicy {
+    /**
+     * Only the newest waiting image is delivered once there is room. Older waiting images are
+     * closed and counted as dropped. Good for viewfinder-style workloads where only the latest
+     * image matters
+     */
+    DROP_OLDEST,
+    /**
+     * Images that arrive while the app is holding the maximum number of images are closed and
+     * counted as dropped, so the images the app already has are never superseded
+     */
+    DROP_NEWEST,
+    /**
+     * Nothing is dropped. Waiting images are delivered in order once there is room, and no
+     * more captures for the handler are started until then. Other handlers' captures queued
+     * behind them wait too, since the capture queue is processed in order
+     */
+    BLOCK_QUEUE
+}
@@ -0,0 +1,89 @@
+package com.avalancheevantage.android.camera3;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Package-private class. Watches the sensor timestamps of preview frames to estimate how many
+ * frames each capture caused the preview to skip.
+ * <p>
+ * The normal frame interval is learned while no capture is in progress. While a capture is in
+ * progress, every interval between consecutive preview frames that is longer than normal
+ * counts as skipped frames for that capture. A capture's window closes on the first preview
+ * frame after it completes.
+ *
+ * @author Quinn Freedman
+ */
+final class PreviewGapTracker {
+    // weight of a new sample in the moving average of the frame interval is 1/2^INTERVAL_SHIFT
+    private static final int INTERVAL_SHIFT = 3;
+
+    private final List<CaptureReport> open = new ArrayList<>();
+    private long lastTimestamp = -1;
+    private long frameIntervalNanos = 0;
+
+    synchronized void begin(@NonNull CaptureReport report) {
+        open.add(report);
+    }
+
+    /**
+     * Called for every preview frame.
+     *
+     * @param timestampNanos the sensor timestamp of the frame
+     * @param closed         a list to add the reports whose window was closed by this frame to.
+     *                       It is not cleared first.
+     */
+    synchronized void onPreviewFrame(long timestampNanos, @NonNull List<CaptureReport> closed) {
+        long delta = lastTimestamp < 0 ? 0 : timestampNanos - lastTimestamp;
+        if (delta <= 0) {
+            // first frame or a duplicate/out of order result
+            lastTimestamp = Math.max(lastTimestamp, timestampNanos);
+            return;
+        }
+        lastTimestamp = timestampNanos;
+
+        if (open.isEmpty()) {
+            frameIntervalNanos = frameIntervalNanos == 0 ? delta :
+                    frameIntervalNanos + ((delta - frameIntervalNanos) >> INTERVAL_SHIFT);
+            return;
+        }
+
+        int skipped = 0;
+        if (frameIntervalNanos > 0) {
+            // round to the nearest number of frame intervals
+            long intervals = (delta + frameIntervalNanos / 2) / frameIntervalNanos;
+            skipped = (int) Math.max(0, intervals - 1);
+        }
+        Iterator<CaptureReport> iterator = open.iterator();
+        while (iterator.hasNext()) {
+            CaptureReport report = iterator.next();
+            report.addSkippedPreviewFrames(skipped);
+            if (report.isCaptureCompleted()) {
+                iterator.remove();
+                closed.add(report);
+            }
+        }
+    }
+
+    /**
+     * Marks a capture as completed, so that its window closes on the next preview frame
+     */
+    synchronized void complete(@NonNull CaptureReport report) {
+        report.setCaptureCompleted();
+    }
+
+    /**
+     * Forgets everything. Reports that are still open are returned so that they aren't lost.
+     */
+    @NonNull
+    synchronized List<CaptureReport> reset() {
+        List<CaptureReport> pending = new ArrayList<>(open);
+        open.clear();
+        lastTimestamp = -1;
+        frameIntervalNanos = 0;
+        return pending;
+    }
+}
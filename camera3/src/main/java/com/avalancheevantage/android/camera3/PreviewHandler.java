@@ -12,7 +12,10 @@ import android.view.TextureView;
 
 import org.jetbrains.annotations.Contract;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static com.avalancheevantage.android.camera3.PrivateUtils.checkNull;
 
@@ -30,7 +33,18 @@ final public class PreviewHandler {
     @Nullable
     private TextureView previewTextureView = null;
     @Nullable
-    private CaptureRequestConfiguration requestConfig;
+    private volatile CaptureRequestConfiguration requestConfig;
+    /**
+     * The config that the live preview builder was last brought up to date with. Only used from
+     * the camera background thread.
+     */
+    @Nullable
+    private CaptureRequestConfiguration appliedConfig;
+    /**
+     * The values that keys had in the preview builder before any {@link RequestSettings} changed
+     * them, so that they can be restored when a later config no longer sets them
+     */
+    private final Map<CaptureRequest.Key<?>, Object> defaultValues = new HashMap<>();
     @Nullable
     private final Camera3.PreviewSizeCallback previewSizeSelected;
     @Nullable
@@ -39,6 +53,9 @@ final public class PreviewHandler {
     private SurfaceTexture previewSurface = null;
     @Nullable
     private Surface targetSurface;
+    // the texture that targetSurface draws to
+    @Nullable
+    private SurfaceTexture targetTexture;
     @Nullable
     private ConfigUpdatedListener listener;
 
@@ -52,6 +69,16 @@ final public class PreviewHandler {
         return targetSurface;
     }
 
+    /**
+     * @return whether the target surface can still be drawn to. It can't if the texture was
+     * destroyed (and maybe recreated) since {@link #init(ErrorHandler)} was called
+     */
+    @Contract(pure = true)
+    /*package private*/ boolean isTargetValid() {
+        return targetSurface != null && targetSurface.isValid() &&
+                targetTexture == getSurfaceTexture();
+    }
+
     /*package private*/ void setListener(@Nullable ConfigUpdatedListener listener) {
         this.listener = listener;
     }
@@ -84,9 +111,20 @@ final public class PreviewHandler {
      * This fully replaces the old preview config, so it should include any
      * special configuration you want in your preview, not just the changes.
      *
+     * Updates are applied at most once per preview frame, so it is fine to call this very often
+     * (e.g. from a slider). Only the latest config is used. If the camera is busy capturing an
+     * image, the update is applied as soon as the preview resumes. When both the old and new
+     * configs are {@link RequestSettings}, only the values that changed are updated.
+     *
+     * If <code>newConfig</code> is a {@link RequestSettings} that is equal to the current
+     * config, nothing is updated.
+     *
      * @param newConfig the new preview configuration to use
      */
     public void updateRequestConfig(CaptureRequestConfiguration newConfig) {
+        if (newConfig instanceof RequestSettings && newConfig.equals(this.requestConfig)) {
+            return;
+        }
         this.requestConfig = newConfig;
         if (this.listener != null) {
             this.listener.onUpdated(this);
@@ -236,6 +274,7 @@ final public class PreviewHandler {
         texture.setDefaultBufferSize(previewSize.getWidth(), previewSize.getHeight());
 
         this.targetSurface = new Surface(texture);
+        this.targetTexture = texture;
 
     }
 
@@ -251,9 +290,15 @@ final public class PreviewHandler {
         builder.set(CaptureRequest.CONTROL_AF_MODE,
                 CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
 
-        if (this.requestConfig != null) {
-            this.requestConfig.configure(builder);
+        CaptureRequestConfiguration config = this.requestConfig;
+        defaultValues.clear();
+        if (config instanceof RequestSettings) {
+            rememberDefaults(builder, (RequestSettings) config);
         }
+        if (config != null) {
+            config.configure(builder);
+        }
+        appliedConfig = config;
         if (!targetSurface.isValid()) {
             errorHandler.warning("Internal Error: preview surface is not valid");
         }
@@ -262,6 +307,63 @@ final public class PreviewHandler {
     }
 
 
+    /**
+     * Brings the live preview builder up to date with the latest config.
+     *
+     * @return <code>builder</code> itself if it could be updated in place, or a new builder if
+     * the config had to be applied from scratch (which happens unless both the old and the new
+     * configs are {@link RequestSettings})
+     */
+    @NonNull
+    /*package private*/
+    CaptureRequest.Builder applyLatestConfig(@NonNull CaptureRequest.Builder builder,
+                                             @NonNull CameraDevice cameraDevice,
+                                             @NonNull ErrorHandler errorHandler)
+            throws CameraAccessException {
+        CaptureRequestConfiguration config = this.requestConfig;
+        CaptureRequestConfiguration applied = this.appliedConfig;
+        if (config == applied) {
+            return builder;
+        }
+        boolean canApplyDelta = (applied == null || applied instanceof RequestSettings) &&
+                (config == null || config instanceof RequestSettings);
+        if (!canApplyDelta) {
+            return configureCaptureRequest(cameraDevice, errorHandler);
+        }
+
+        Map<CaptureRequest.Key<?>, Object> oldValues = applied == null ?
+                Collections.<CaptureRequest.Key<?>, Object>emptyMap() :
+                ((RequestSettings) applied).getValues();
+        Map<CaptureRequest.Key<?>, Object> newValues = config == null ?
+                Collections.<CaptureRequest.Key<?>, Object>emptyMap() :
+                ((RequestSettings) config).getValues();
+        // restore the keys that the new config doesn't set any more
+        for (CaptureRequest.Key<?> key : oldValues.keySet()) {
+            if (!newValues.containsKey(key)) {
+                RequestSettings.setUnchecked(builder, key, defaultValues.get(key));
+            }
+        }
+        if (config != null) {
+            rememberDefaults(builder, (RequestSettings) config);
+        }
+        for (Map.Entry<CaptureRequest.Key<?>, Object> entry : newValues.entrySet()) {
+            if (!RequestSettings.valuesEqual(oldValues.get(entry.getKey()), entry.getValue())) {
+                RequestSettings.setUnchecked(builder, entry.getKey(), entry.getValue());
+            }
+        }
+        appliedConfig = config;
+        return builder;
+    }
+
+    private void rememberDefaults(@NonNull CaptureRequest.Builder builder,
+                                  @NonNull RequestSettings settings) {
+        for (CaptureRequest.Key<?> key : settings.getValues().keySet()) {
+            if (!defaultValues.containsKey(key)) {
+                defaultValues.put(key, builder.get(key));
+            }
+        }
+    }
+
     @Contract(pure = true)
     boolean usesCustomRequest() {
         return this.requestConfig != null;
@@ -9,6 +9,7 @@ import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.MediaRecorder;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Size;
@@ -18,7 +19,6 @@ import android.view.WindowManager;
 import org.jetbrains.annotations.Contract;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -91,6 +91,62 @@ class PrivateUtils {
         }
     }
 
+    /**
+     * Reads the parts of the characteristics that Camera3 uses into a {@link CameraCapabilities}
+     */
+    @NonNull
+    static CameraCapabilities toCapabilities(@NonNull CameraCharacteristics characteristics) {
+        CameraCapabilities.Builder builder = CameraCapabilities.builder();
+        Integer sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+        if (sensorOrientation != null) {
+            builder.setSensorOrientation(sensorOrientation);
+        }
+        Integer timestampSource =
+                characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+        builder.setTimestampRealtime(timestampSource != null && timestampSource ==
+                CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME);
+        Float minimumFocusDistance =
+                characteristics.get(CameraCharacteristics.LENS_INFO_MINIMUM_FOCUS_DISTANCE);
+        if (minimumFocusDistance != null) {
+            builder.setMinimumFocusDistance(minimumFocusDistance);
+        }
+        int[] capabilities =
+                characteristics.get(CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES);
+        if (capabilities != null) {
+            builder.setCapabilities(capabilities);
+        }
+        StreamConfigurationMap map = characteristics.get(
+                CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        if (map != null) {
+            for (int format : map.getOutputFormats()) {
+                try {
+                    addSizes(builder, format, map.getOutputSizes(format));
+                } catch (IllegalArgumentException e) {
+                    // a format that can only be used with a surface class
+                }
+            }
+            addSizes(builder, CameraCapabilities.OUTPUT_PREVIEW,
+                    map.getOutputSizes(SurfaceTexture.class));
+            addSizes(builder, CameraCapabilities.OUTPUT_VIDEO,
+                    map.getOutputSizes(MediaRecorder.class));
+        }
+        return builder.build();
+    }
+
+    private static void addSizes(@NonNull CameraCapabilities.Builder builder,
+                                 int output,
+                                 @Nullable Size[] sizes) {
+        if (sizes == null) {
+            return;
+        }
+        int[] table = new int[sizes.length * 2];
+        for (int i = 0; i < sizes.length; i++) {
+            table[2 * i] = sizes[i].getWidth();
+            table[2 * i + 1] = sizes[i].getHeight();
+        }
+        builder.addSizes(output, table);
+    }
+
     /**
      * Configures the necessary {@link android.graphics.Matrix} transformation for the
      * TextureView for a PreviewHandler
@@ -147,6 +203,7 @@ class PrivateUtils {
     static void setUpPreviewOutput(@NonNull String cameraId,
                                    @NonNull Size previewTextureSize,
                                    int sensorOrientation,
+                                   @NonNull List<Size> previewSizes,
                                    @NonNull PreviewHandler previewHandler,
                                    @NonNull Context context,
                                    @NonNull ErrorHandler errorHandler) {
@@ -204,25 +261,12 @@ class PrivateUtils {
             maxPreviewHeight = Camera3.MAX_PREVIEW_HEIGHT;
         }
 
-        CameraCharacteristics characteristics = getCameraCharacteristics(cameraId, context, errorHandler);
-        if (characteristics == null) {
-            errorHandler.error("Camera Characteristics were null", null);
-            return;
-        }
-        StreamConfigurationMap map = characteristics.get(
-                CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
-        if (map == null) {
-            //noinspection SpellCheckingInspection
-            errorHandler.error(
-                    "CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP was null " +
-                            "for the given cameraId",
-                    null);
+        if (previewSizes.isEmpty()) {
+            errorHandler.error("The camera has no preview sizes for the given cameraId", null);
             return;
         }
-        Size[] previewSizes =  map.getOutputSizes(SurfaceTexture.class);
-        Size largestPreviewSize = Collections.max(
-                Arrays.asList(previewSizes),
-                new CompareSizesByArea());
+        // the sizes are sorted largest first
+        Size largestPreviewSize = previewSizes.get(0);
 
         // Danger, W.R.! Attempting to use too large a preview size could  exceed the camera
         // bus' bandwidth limitation, resulting in gorgeous previews but the storage of
@@ -264,7 +308,7 @@ class PrivateUtils {
      * @return The optimal {@code Size}, or an arbitrary one if none were big enough
      */
     @NonNull
-    private static Size chooseOptimalSize(@NonNull Size[] choices,
+    private static Size chooseOptimalSize(@NonNull List<Size> choices,
                                           int textureViewWidth, int textureViewHeight,
                                           int maxWidth, int maxHeight,
                                           @NonNull Size aspectRatio,
@@ -296,7 +340,7 @@ class PrivateUtils {
             return Collections.max(notBigEnough, new CompareSizesByArea());
         } else {
             errorHandler.warning("Couldn't find any suitable preview size");
-            return choices[0];
+            return choices.get(0);
         }
     }
 
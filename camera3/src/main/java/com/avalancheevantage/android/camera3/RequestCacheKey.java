@@ -0,0 +1,54 @@
+package com.avalancheevantage.android.camera3;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Package-private class. Identifies a compiled {@link android.hardware.camera2.CaptureRequest}:
+ * the template it was created from, the surface it targets, the settings applied to it and the
+ * JPEG orientation.
+ *
+ * @author Quinn Freedman
+ */
+final class RequestCacheKey {
+    private final int template;
+    // compared by identity, like Surface itself
+    @NonNull
+    private final Object target;
+    @NonNull
+    private final RequestSettings settings;
+    private final int orientation;
+
+    RequestCacheKey(int template,
+                    @NonNull Object target,
+                    @NonNull RequestSettings settings,
+                    int orientation) {
+        this.template = template;
+        this.target = target;
+        this.settings = settings;
+        this.orientation = orientation;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof RequestCacheKey)) {
+            return false;
+        }
+        RequestCacheKey other = (RequestCacheKey) o;
+        return template == other.template &&
+                orientation == other.orientation &&
+                target == other.target &&
+                settings.equals(other.settings);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = template;
+        result = 31 * result + System.identityHashCode(target);
+        result = 31 * result + settings.hashCode();
+        result = 31 * result + orientation;
+        return result;
+    }
+}
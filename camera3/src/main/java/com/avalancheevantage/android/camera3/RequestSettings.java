@@ -0,0 +1,217 @@
+package com.avalancheevantage.android.camera3;
+
+import android.hardware.camera2.CaptureRequest;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.jetbrains.annotations.Contract;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An immutable set of {@link CaptureRequest} settings. It can be used anywhere a
+ * {@link CaptureRequestConfiguration} is expected.
+ * <p>
+ * Unlike an anonymous {@link CaptureRequestConfiguration}, two <code>RequestSettings</code> with
+ * the same values are equal (and have the same hash code). This lets Camera3 build the
+ * {@link CaptureRequest} for a still capture once and reuse it for every later capture with
+ * equal settings, instead of creating and configuring a new request each time. It also lets
+ * {@link PreviewHandler#updateRequestConfig(CaptureRequestConfiguration)} skip updates that
+ * don't change anything.
+ * <pre>{@code
+ * RequestSettings settings = RequestSettings.builder()
+ *         .set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH)
+ *         .set(CaptureRequest.JPEG_QUALITY, (byte) 90)
+ *         .build();
+ * camera3.captureImage(handler, Camera3.PRECAPTURE_CONFIG_NONE, settings);
+ * }</pre>
+ *
+ * @author Quinn Freedman
+ */
+public final class RequestSettings implements CaptureRequestConfiguration {
+    /**
+     * Settings that don't change anything
+     */
+    public static final RequestSettings EMPTY =
+            new RequestSettings(new LinkedHashMap<CaptureRequest.Key<?>, Object>());
+
+    @NonNull
+    private final Map<CaptureRequest.Key<?>, Object> values;
+    private final int hashCode;
+
+    private RequestSettings(@NonNull LinkedHashMap<CaptureRequest.Key<?>, Object> values) {
+        this.values = Collections.unmodifiableMap(values);
+        int hash = 0;
+        for (Map.Entry<CaptureRequest.Key<?>, Object> entry : values.entrySet()) {
+            // the sum doesn't depend on the order the values were set in
+            hash += entry.getKey().hashCode() ^ valueHashCode(entry.getValue());
+        }
+        this.hashCode = hash;
+    }
+
+    @Contract(pure = true)
+    @NonNull
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return a builder that starts with all of these settings
+     */
+    @Contract(pure = true)
+    @NonNull
+    public Builder toBuilder() {
+        Builder builder = new Builder();
+        builder.values.putAll(values);
+        return builder;
+    }
+
+    /**
+     * @return a copy of these settings with one value added or replaced
+     */
+    @Contract(pure = true)
+    @NonNull
+    public <T> RequestSettings with(@NonNull CaptureRequest.Key<T> key, @NonNull T value) {
+        return toBuilder().set(key, value).build();
+    }
+
+    /**
+     * @return the value for the given key, or {@code null} if it isn't set
+     */
+    @Contract(pure = true)
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public <T> T get(@NonNull CaptureRequest.Key<T> key) {
+        return (T) copyIfArray(values.get(key));
+    }
+
+    @Contract(pure = true)
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * @return the values without copying them. They must not be modified.
+     */
+    @Contract(pure = true)
+    @NonNull
+    Map<CaptureRequest.Key<?>, Object> getValues() {
+        return values;
+    }
+
+    /**
+     * Compares two setting values, including array values by content
+     */
+    @Contract(pure = true)
+    static boolean valuesEqual(@Nullable Object a, @Nullable Object b) {
+        return Arrays.deepEquals(new Object[]{a}, new Object[]{b});
+    }
+
+    @Override
+    public void configure(CaptureRequest.Builder request) {
+        for (Map.Entry<CaptureRequest.Key<?>, Object> entry : values.entrySet()) {
+            setUnchecked(request, entry.getKey(), entry.getValue());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> void setUnchecked(@NonNull CaptureRequest.Builder request,
+                                 @NonNull CaptureRequest.Key<T> key,
+                                 @Nullable Object value) {
+        request.set(key, (T) value);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof RequestSettings)) {
+            return false;
+        }
+        RequestSettings other = (RequestSettings) o;
+        if (hashCode != other.hashCode || values.size() != other.values.size()) {
+            return false;
+        }
+        for (Map.Entry<CaptureRequest.Key<?>, Object> entry : values.entrySet()) {
+            Object otherValue = other.values.get(entry.getKey());
+            if (otherValue == null || !valuesEqual(entry.getValue(), otherValue)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("RequestSettings{");
+        boolean first = true;
+        for (Map.Entry<CaptureRequest.Key<?>, Object> entry : values.entrySet()) {
+            if (!first) {
+                builder.append(", ");
+            }
+            first = false;
+            builder.append(entry.getKey().getName()).append('=')
+                    .append(Arrays.deepToString(new Object[]{entry.getValue()}));
+        }
+        return builder.append('}').toString();
+    }
+
+    private static int valueHashCode(@NonNull Object value) {
+        return Arrays.deepHashCode(new Object[]{value});
+    }
+
+    // arrays are copied on the way in and out so that nobody can change the settings
+    @Nullable
+    private static Object copyIfArray(@Nullable Object value) {
+        if (value == null || !value.getClass().isArray()) {
+            return value;
+        }
+        int length = Array.getLength(value);
+        Object copy = Array.newInstance(value.getClass().getComponentType(), length);
+        //noinspection SuspiciousSystemArraycopy
+        System.arraycopy(value, 0, copy, 0, length);
+        return copy;
+    }
+
+    /**
+     * Collects values for a new {@link RequestSettings}. Setting the same key twice replaces the
+     * first value.
+     */
+    public static final class Builder {
+        private final LinkedHashMap<CaptureRequest.Key<?>, Object> values = new LinkedHashMap<>();
+
+        private Builder() {
+        }
+
+        @NonNull
+        public <T> Builder set(@NonNull CaptureRequest.Key<T> key, @NonNull T value) {
+            //noinspection ConstantConditions
+            if (key == null || value == null) {
+                throw new IllegalArgumentException("key and value cannot be null");
+            }
+            values.put(key, copyIfArray(value));
+            return this;
+        }
+
+        @NonNull
+        public Builder remove(@NonNull CaptureRequest.Key<?> key) {
+            values.remove(key);
+            return this;
+        }
+
+        @NonNull
+        public RequestSettings build() {
+            return new RequestSettings(new LinkedHashMap<>(values));
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.avalancheevantage.android.camera3;
+
+/**
+ * The steps that Camera3 goes through between being asked to start a session and the first
+ * frame arriving. Phases are listed in the order they usually start in, but some of them can
+ * overlap (e.g. the camera is opened while the preview size is being chosen).
+ *
+ * @see StartupReport
+ * @see Camera3#setStartupReportListener(StartupReportListener)
+ * @author Quinn Freedman
+ */
+public enum StartupPhase {
+    /**
+     * The {@link Camera3} constructor. Only reported for the first session after Camera3 was
+     * created
+     */
+    CONSTRUCTOR,
+    /**
+     * Starting the camera background thread
+     */
+    BACKGROUND_THREAD_START,
+    /**
+     * Looking up the camera's characteristics. This is nearly free when they were already
+     * cached by an earlier session or launch
+     */
+    CHARACTERISTICS_LOOKUP,
+    /**
+     * Choosing the preview size and aspect ratio
+     */
+    PREVIEW_SIZE_SELECTION,
+    /**
+     * From asking the camera service to open the camera until the camera is open. If the
+     * camera was opened ahead of the session (see
+     * {@link Camera3#Camera3(android.content.Context, ErrorHandler, boolean)}), this covers that
+     * open, which may have started before the session
+     */
+    CAMERA_OPEN,
+    /**
+     * From creating the capture session until it is configured
+     */
+    SESSION_CONFIGURE,
+    /**
+     * From starting the repeating preview request until the first frame is completed
+     */
+    FIRST_FRAME
+}
@@ -0,0 +1,123 @@
+package com.avalancheevantage.android.camera3;
+
+import android.support.annotation.NonNull;
+
+import org.jetbrains.annotations.Contract;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long each phase of starting a camera session took. One report is produced for every
+ * call to <code>startCaptureSession</code> or {@link Camera3#resume()}, once the first frame
+ * arrives.
+ * <p>
+ * Timestamps are in nanoseconds on the {@link android.os.SystemClock#elapsedRealtimeNanos()}
+ * clock, so they can be compared across reports and with other monotonic timestamps. Phases
+ * that did not happen during this startup (e.g. the camera was still open after a quick
+ * resume) are reported as missing. If a phase ran more than once, the first run is reported.
+ *
+ * @see Camera3#setStartupReportListener(StartupReportListener)
+ * @author Quinn Freedman
+ */
+public final class StartupReport {
+    /**
+     * Returned for the timestamps and durations of phases that did not happen
+     */
+    public static final long MISSING = -1;
+
+    @NonNull
+    private final String cameraId;
+    private final long sessionStartNanos;
+    // indexed by StartupPhase.ordinal()
+    @NonNull
+    private final long[] phaseStartNanos;
+    @NonNull
+    private final long[] phaseEndNanos;
+
+    StartupReport(@NonNull String cameraId,
+                  long sessionStartNanos,
+                  @NonNull long[] phaseStartNanos,
+                  @NonNull long[] phaseEndNanos) {
+        this.cameraId = cameraId;
+        this.sessionStartNanos = sessionStartNanos;
+        this.phaseStartNanos = phaseStartNanos.clone();
+        this.phaseEndNanos = phaseEndNanos.clone();
+    }
+
+    @Contract(pure = true)
+    @NonNull
+    public String getCameraId() {
+        return cameraId;
+    }
+
+    /**
+     * @return when the session was asked to start
+     */
+    @Contract(pure = true)
+    public long getSessionStartNanos() {
+        return sessionStartNanos;
+    }
+
+    @Contract(pure = true)
+    public boolean hasPhase(@NonNull StartupPhase phase) {
+        return phaseEndNanos[phase.ordinal()] != MISSING;
+    }
+
+    /**
+     * @return when the phase started, or {@link #MISSING}
+     */
+    @Contract(pure = true)
+    public long getStartNanos(@NonNull StartupPhase phase) {
+        return hasPhase(phase) ? phaseStartNanos[phase.ordinal()] : MISSING;
+    }
+
+    /**
+     * @return when the phase ended, or {@link #MISSING}
+     */
+    @Contract(pure = true)
+    public long getEndNanos(@NonNull StartupPhase phase) {
+        return phaseEndNanos[phase.ordinal()];
+    }
+
+    /**
+     * @return how long the phase took, or {@link #MISSING}
+     */
+    @Contract(pure = true)
+    public long getDuration(@NonNull StartupPhase phase, @NonNull TimeUnit unit) {
+        if (!hasPhase(phase)) {
+            return MISSING;
+        }
+        return unit.convert(phaseEndNanos[phase.ordinal()] - phaseStartNanos[phase.ordinal()],
+                TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * The time from the session being asked to start until the last phase ended (normally the
+     * first frame). This does not include the constructor or anything that happened ahead of
+     * the session.
+     *
+     * @return the total time to start the session
+     */
+    @Contract(pure = true)
+    public long getTotalDuration(@NonNull TimeUnit unit) {
+        long end = sessionStartNanos;
+        for (long phaseEnd : phaseEndNanos) {
+            end = Math.max(end, phaseEnd);
+        }
+        return unit.convert(end - sessionStartNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("StartupReport(camera=").append(cameraId);
+        for (StartupPhase phase : StartupPhase.values()) {
+            if (hasPhase(phase)) {
+                builder.append(String.format(Locale.US, ", %s=%.1fms", phase.name(),
+                        getDuration(phase, TimeUnit.MICROSECONDS) / 1000f));
+            }
+        }
+        return builder.append(String.format(Locale.US, ", total=%.1fms)",
+                getTotalDuration(TimeUnit.MICROSECONDS) / 1000f)).toString();
+    }
+}
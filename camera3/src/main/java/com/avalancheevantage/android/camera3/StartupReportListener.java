@@ -0,0 +1,19 @@
+package com.avalancheevantage.android.camera3;
+
+import android.support.annotation.NonNull;
+
+/**
+ * A listener for session startup reports
+ *
+ * @see Camera3#setStartupReportListener(StartupReportListener)
+ * @author Quinn Freedman
+ */
+public interface StartupReportListener {
+    /**
+     * Called from the camera background thread once the first frame of a session has been
+     * completed (or, for a session without a preview, once it has been configured).
+     *
+     * @param report the timing of each phase of the startup
+     */
+    void onStartupReport(@NonNull StartupReport report);
+}
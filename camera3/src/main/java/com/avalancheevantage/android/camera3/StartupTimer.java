@@ -0,0 +1,84 @@
+package com.avalancheevantage.android.camera3;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.jetbrains.annotations.Contract;
+
+import java.util.Arrays;
+
+/**
+ * Package-private class. Records when each {@link StartupPhase} of one session startup begins
+ * and ends, and turns the result into a {@link StartupReport}.
+ * <p>
+ * Phases are recorded from both the main thread and the camera thread, so every method is
+ * synchronized. Only the first run of each phase is kept: beginning a phase that has already
+ * begun, or ending one that hasn't begun (or has already ended), does nothing. That way the
+ * call sites don't have to know whether they are on the first run.
+ *
+ * @author Quinn Freedman
+ */
+final class StartupTimer {
+    private final long[] starts = new long[StartupPhase.values().length];
+    private final long[] ends = new long[StartupPhase.values().length];
+    @Nullable
+    private String cameraId = null;
+    private long sessionStartNanos = StartupReport.MISSING;
+    private boolean finished = false;
+
+    StartupTimer() {
+        Arrays.fill(starts, StartupReport.MISSING);
+        Arrays.fill(ends, StartupReport.MISSING);
+    }
+
+    synchronized void begin(@NonNull StartupPhase phase, long nanos) {
+        if (starts[phase.ordinal()] == StartupReport.MISSING) {
+            starts[phase.ordinal()] = nanos;
+        }
+    }
+
+    synchronized void end(@NonNull StartupPhase phase, long nanos) {
+        int i = phase.ordinal();
+        if (starts[i] != StartupReport.MISSING && ends[i] == StartupReport.MISSING) {
+            ends[i] = nanos;
+        }
+    }
+
+    @Contract(pure = true)
+    synchronized boolean hasBegun(@NonNull StartupPhase phase) {
+        return starts[phase.ordinal()] != StartupReport.MISSING;
+    }
+
+    /**
+     * Marks the point where the session was asked to start. Phases recorded before this (the
+     * constructor or a camera opened ahead of the session) are still reported.
+     */
+    synchronized void startSession(@NonNull String cameraId, long nanos) {
+        this.cameraId = cameraId;
+        this.sessionStartNanos = nanos;
+    }
+
+    /**
+     * @return whether {@link #startSession(String, long)} was called. A timer is only used for
+     * one session.
+     */
+    @Contract(pure = true)
+    synchronized boolean isSessionStarted() {
+        return sessionStartNanos != StartupReport.MISSING;
+    }
+
+    /**
+     * Builds the report. Phases that began but never ended are left out.
+     *
+     * @return the report, or {@code null} if the session wasn't started or the report was
+     * already built
+     */
+    @Nullable
+    synchronized StartupReport finish() {
+        if (finished || cameraId == null) {
+            return null;
+        }
+        finished = true;
+        return new StartupReport(cameraId, sessionStartNanos, starts, ends);
+    }
+}
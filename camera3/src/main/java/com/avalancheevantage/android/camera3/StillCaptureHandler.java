@@ -1,15 +1,23 @@
 package com.avalancheevantage.android.camera3;
 
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
 import android.media.Image;
 import android.media.ImageReader;
+import android.media.ImageWriter;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Size;
 
 import org.jetbrains.annotations.Contract;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class represents the configuration for a still image capture session. It is responsible for
@@ -25,9 +33,22 @@ import java.util.List;
  */
 
 public final class StillCaptureHandler {
+    /**
+     * The number of images a handler's ImageReader can hand out at a time, unless another depth
+     * is given
+     */
+    public static final int DEFAULT_READER_DEPTH = 2;
+    // extra images for the ZSL reader, on top of the ring
     private static final int MAX_IMAGES = 2;
+    // How often to check whether the app has closed an image, while images are waiting. The
+    // wait doubles after each check that finds the reader still full, up to the maximum.
+    private static final long OVERFLOW_RETRY_MIN_MILLIS = 5;
+    private static final long OVERFLOW_RETRY_MAX_MILLIS = 160;
 
     private final int imageFormat;
+    private final int readerDepth;
+    @NonNull
+    private final OverflowPolicy overflowPolicy;
     @NonNull
     private final OnImageAvailableListener imageAvailableListener;
     @Nullable
@@ -36,6 +57,41 @@ public final class StillCaptureHandler {
     private ImageReader imageReader;
     @Nullable
     private Camera3 camera3;
+    @Nullable
+    private Handler backgroundHandler;
+
+    // Overflow state of the (non-ZSL) ImageReader. Only used on the background thread.
+    // Images that arrived in the reader and that were taken out of it (delivered or dropped)
+    private long imagesArrived = 0;
+    private long imagesTaken = 0;
+    // waiting images that DROP_NEWEST will close as soon as they can be taken out
+    private long imagesToDiscard = 0;
+    private boolean overflowRetryPosted = false;
+    private long overflowRetryMillis = OVERFLOW_RETRY_MIN_MILLIS;
+    // whether the app is holding as many images as the reader can hand out
+    private volatile boolean readerFull = false;
+    private final AtomicLong droppedImages = new AtomicLong(0);
+    private final AtomicLong delayedImages = new AtomicLong(0);
+
+    // Zero-shutter-lag state. zslRingSize is 0 for a normal handler.
+    private final int zslRingSize;
+    private final boolean zslReprocess;
+    @Nullable
+    private TimestampRingBuffer<Image> zslFrames;
+    @Nullable
+    private TimestampRingBuffer<TotalCaptureResult> zslResults;
+    @Nullable
+    private ImageReader reprocessReader;
+    @Nullable
+    private ImageWriter reprocessWriter;
+
+    // Async capture state. While any async captures are in flight, images are held in the
+    // matcher until the result with the same timestamp arrives. Guarded by asyncLock.
+    private final Object asyncLock = new Object();
+    private final Set<CaptureFuture> asyncCapturesInFlight = new HashSet<>();
+    private final TimestampMatcher<Image, TotalCaptureResult> asyncMatcher;
+
+    private final CaptureLatencyTracker latencyTracker = new CaptureLatencyTracker();
 
     @Contract(pure = true)
     public int getImageFormat() {
@@ -60,6 +116,45 @@ public final class StillCaptureHandler {
     public StillCaptureHandler(final int imageFormat,
                                @NonNull final Size imageSize,
                                @NonNull final OnImageAvailableListener onImageAvailableListener) {
+        this(imageFormat, imageSize, DEFAULT_READER_DEPTH, OverflowPolicy.BLOCK_QUEUE,
+                onImageAvailableListener);
+    }
+
+    /**
+     * Creates a handler that can hold more images at once, or that handles images arriving
+     * faster than they are closed differently. This matters when images are kept open (see
+     * {@link OnImageAvailableListener.ImageAction#KEEP_IMAGE_OPEN}), e.g. for bursts that are
+     * processed in the background.
+     *
+     * @param imageFormat              The format to capture in (from
+     *                                 {@link android.graphics.ImageFormat})
+     * @param imageSize                The size of the image to capture
+     * @param readerDepth              how many images the app can hold open at once. Each one
+     *                                 is a full size image buffer, so this should be small.
+     *                                 Must be at least 1
+     * @param overflowPolicy           what to do with images that arrive while the app is
+     *                                 holding <code>readerDepth</code> images
+     * @param onImageAvailableListener a callback to receive the images from this session once
+     *                                 they have been captured
+     * @see #getDroppedImageCount()
+     * @see #getDelayedImageCount()
+     */
+    public StillCaptureHandler(final int imageFormat,
+                               @NonNull final Size imageSize,
+                               final int readerDepth,
+                               @NonNull final OverflowPolicy overflowPolicy,
+                               @NonNull final OnImageAvailableListener onImageAvailableListener) {
+        this(imageFormat, imageSize, readerDepth, overflowPolicy, 0, false,
+                onImageAvailableListener);
+    }
+
+    private StillCaptureHandler(final int imageFormat,
+                                @NonNull final Size imageSize,
+                                final int readerDepth,
+                                @NonNull final OverflowPolicy overflowPolicy,
+                                final int zslRingSize,
+                                final boolean zslReprocess,
+                                @NonNull final OnImageAvailableListener onImageAvailableListener) {
         //noinspection ConstantConditions
         if (imageSize == null) {
             throw new IllegalArgumentException("imageSize cannot be null");
@@ -68,25 +163,415 @@ public final class StillCaptureHandler {
         if (onImageAvailableListener == null) {
             throw new IllegalArgumentException("onImageAvailableListener cannot be null");
         }
+        if (readerDepth < 1) {
+            throw new IllegalArgumentException("readerDepth must be at least 1");
+        }
+        //noinspection ConstantConditions
+        if (overflowPolicy == null) {
+            throw new IllegalArgumentException("overflowPolicy cannot be null");
+        }
 
         this.imageFormat = imageFormat;
+        this.readerDepth = readerDepth;
+        this.overflowPolicy = overflowPolicy;
+        // holds images of async captures until their results arrive
+        this.asyncMatcher = createAsyncMatcher(readerDepth);
         this.imageSize = imageSize;
         this.imageAvailableListener = onImageAvailableListener;
+        this.zslRingSize = zslRingSize;
+        this.zslReprocess = zslReprocess;
+    }
+
+    @NonNull
+    private TimestampMatcher<Image, TotalCaptureResult> createAsyncMatcher(int capacity) {
+        return new TimestampMatcher<>(capacity,
+                new TimestampMatcher.Listener<Image, TotalCaptureResult>() {
+                    @Override
+                    public void onMatched(long timestamp,
+                                          @NonNull Image image,
+                                          @NonNull TotalCaptureResult result) {
+                        CaptureFuture future = getFuture(result);
+                        asyncCapturesInFlight.remove(future);
+                        future.complete(new CaptureBundle(image, result));
+                    }
+
+                    @Override
+                    public void onImageDropped(@NonNull Image image) {
+                        // no async capture claimed it, so it came from a normal capture
+                        deliverImage(image);
+                    }
+
+                    @Override
+                    public void onResultDropped(@NonNull TotalCaptureResult result) {
+                        CaptureFuture future = getFuture(result);
+                        asyncCapturesInFlight.remove(future);
+                        future.fail("The image for this capture never arrived");
+                    }
+                });
+    }
+
+    /**
+     * Creates a zero-shutter-lag (ZSL) handler. Instead of running focus and exposure
+     * sequences when an image is requested, a ZSL handler keeps the most recent
+     * <code>ringSize</code> frames of a stream that runs alongside the preview. A call to
+     * {@link Camera3#captureImage(StillCaptureHandler, CaptureRequestConfiguration,
+     * CaptureRequestConfiguration)} immediately picks the buffered frame that is closest to the
+     * moment it was called. The precapture configuration is ignored for ZSL handlers.
+     * <p>
+     * If <code>reprocessToJpeg</code> is true and the camera supports reprocessing, the chosen
+     * frame is sent back through the camera to produce a full quality JPEG, and the capture
+     * configuration is applied to that reprocess request. Otherwise, the raw frame is given
+     * to <code>onImageAvailableListener</code>.
+     * <p>
+     * ZSL handlers need a preview, since the ZSL stream is attached to the repeating preview
+     * request. Only one reprocessing ZSL handler can be used per session.
+     *
+     * @param streamFormat             {@link ImageFormat#YUV_420_888}, or
+     *                                 {@link ImageFormat#PRIVATE} if the frames are reprocessed
+     * @param streamSize               the size of the buffered frames (and of the reprocessed
+     *                                 JPEG). Should come from
+     *                                 {@link Camera3#getAvailableImageSizes(String, int)}
+     * @param ringSize                 how many recent frames to keep. Each one holds an image
+     *                                 buffer open, so this should be small (e.g. 3-5)
+     * @param reprocessToJpeg          whether to reprocess the chosen frame into a JPEG when the
+     *                                 device supports it
+     * @param onImageAvailableListener a callback to receive the captured images
+     * @return a new zero-shutter-lag handler
+     */
+    @NonNull
+    public static StillCaptureHandler zeroShutterLag(
+            final int streamFormat,
+            @NonNull final Size streamSize,
+            final int ringSize,
+            final boolean reprocessToJpeg,
+            @NonNull final OnImageAvailableListener onImageAvailableListener) {
+        if (ringSize < 1) {
+            throw new IllegalArgumentException("ringSize must be at least 1");
+        }
+        if (streamFormat != ImageFormat.YUV_420_888 && streamFormat != ImageFormat.PRIVATE) {
+            throw new IllegalArgumentException(
+                    "zero-shutter-lag streams must be YUV_420_888 or PRIVATE");
+        }
+        if (streamFormat == ImageFormat.PRIVATE && !reprocessToJpeg) {
+            throw new IllegalArgumentException(
+                    "PRIVATE frames can't be read by the app, so they must be reprocessed");
+        }
+        return new StillCaptureHandler(streamFormat, streamSize, DEFAULT_READER_DEPTH,
+                OverflowPolicy.BLOCK_QUEUE, ringSize, reprocessToJpeg, onImageAvailableListener);
+    }
+
+    /**
+     * @return whether this handler was created with
+     * {@link StillCaptureHandler#zeroShutterLag(int, Size, int, boolean, OnImageAvailableListener)}
+     */
+    @Contract(pure = true)
+    public boolean isZeroShutterLag() {
+        return zslRingSize > 0;
     }
 
 
+    @Contract(pure = true)
+    public int getReaderDepth() {
+        return readerDepth;
+    }
+
+    @Contract(pure = true)
+    @NonNull
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * @return the number of images that were closed without being delivered because of the
+     * {@link OverflowPolicy}
+     */
+    @Contract(pure = true)
+    public long getDroppedImageCount() {
+        return droppedImages.get();
+    }
+
+    /**
+     * @return the number of images that were delivered late because the app was holding as
+     * many images as the reader could hand out when they arrived
+     */
+    @Contract(pure = true)
+    public long getDelayedImageCount() {
+        return delayedImages.get();
+    }
+
+    /**
+     * @return whether captures for this handler have to wait until the app closes an image
+     * @see OverflowPolicy#BLOCK_QUEUE
+     */
+    @Contract(pure = true)
+    boolean isBlockingCaptures() {
+        return readerFull && overflowPolicy == OverflowPolicy.BLOCK_QUEUE;
+    }
+
+    /**
+     * Returns how long the captures for this handler spent in one {@link CaptureStage}. Together,
+     * the stages show whether shutter lag is dominated by the capture queue, by focus and
+     * exposure, or by the camera itself.
+     * <p>
+     * Zero-shutter-lag captures skip focus and exposure. Frames that are delivered as they
+     * are only record {@link CaptureStage#QUEUE_WAIT} and {@link CaptureStage#TOTAL}.
+     *
+     * @param stage the stage to get latencies for
+     * @return a snapshot of the latencies recorded since the handler was created or
+     * {@link #resetLatencyStats()} was called
+     */
+    @NonNull
+    public LatencyHistogram getLatencyHistogram(@NonNull CaptureStage stage) {
+        return latencyTracker.snapshot(stage);
+    }
+
+    /**
+     * Forgets all the latencies recorded by this handler
+     *
+     * @see #getLatencyHistogram(CaptureStage)
+     */
+    public void resetLatencyStats() {
+        latencyTracker.reset();
+    }
+
+    @Contract(pure = true)
+    @NonNull
+    CaptureLatencyTracker getLatencyTracker() {
+        return latencyTracker;
+    }
+
     @Contract(pure = true)
     @Nullable
     ImageReader getImageReader() {
         return imageReader;
     }
 
+    @Contract(pure = true)
+    boolean wantsReprocessing() {
+        return zslReprocess;
+    }
+
+    @Contract(pure = true)
+    @Nullable
+    ImageReader getReprocessReader() {
+        return reprocessReader;
+    }
+
+    @Contract(pure = true)
+    @Nullable
+    ImageWriter getReprocessWriter() {
+        return reprocessWriter;
+    }
+
+    void setReprocessWriter(@Nullable ImageWriter writer) {
+        if (this.reprocessWriter != null && this.reprocessWriter != writer) {
+            this.reprocessWriter.close();
+        }
+        this.reprocessWriter = writer;
+    }
+
     void close() {
+        synchronized (asyncLock) {
+            failAsyncCaptures("The capture session was closed");
+            for (Image image : asyncMatcher.drainImages()) {
+                image.close();
+            }
+        }
+        if (this.zslFrames != null) {
+            for (Image image : this.zslFrames.clear()) {
+                image.close();
+            }
+            this.zslFrames = null;
+        }
+        this.zslResults = null;
+        imagesArrived = 0;
+        imagesTaken = 0;
+        imagesToDiscard = 0;
+        readerFull = false;
+        overflowRetryMillis = OVERFLOW_RETRY_MIN_MILLIS;
+        setReprocessWriter(null);
+        if (this.reprocessReader != null) {
+            this.reprocessReader.close();
+            this.reprocessReader = null;
+        }
         if (this.imageReader != null) {
             this.imageReader.close();
             this.imageReader = null;
         }
         this.camera3 = null;
+        this.backgroundHandler = null;
+    }
+
+    /**
+     * Stores the result for a frame of the ZSL stream so that the frame can be reprocessed later.
+     * Called from the camera background thread for every preview result.
+     */
+    void onZslResult(@NonNull TotalCaptureResult result) {
+        Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+        if (zslResults != null && timestamp != null) {
+            zslResults.put(timestamp, result);
+        }
+    }
+
+    /**
+     * Removes the buffered ZSL frame that is closest to the given sensor timestamp. The caller
+     * becomes responsible for closing it.
+     *
+     * @return the frame, or {@code null} if no frames have been buffered yet
+     */
+    @Nullable
+    Image takeZslFrame(long timestamp) {
+        return zslFrames == null ? null : zslFrames.removeClosest(timestamp);
+    }
+
+    /**
+     * @return the result that produced the ZSL frame with the given timestamp, if it is still
+     * buffered
+     */
+    @Nullable
+    TotalCaptureResult getZslResult(long timestamp) {
+        return zslResults == null ? null : zslResults.get(timestamp);
+    }
+
+    /**
+     * Must be called before an async capture request is sent to the camera, so that images are
+     * held until they can be matched with a result
+     */
+    void beginAsyncCapture(@NonNull CaptureFuture future) {
+        synchronized (asyncLock) {
+            asyncCapturesInFlight.add(future);
+        }
+    }
+
+    /**
+     * Called with the result of an async capture. The request's tag must be its
+     * {@link CaptureFuture}.
+     */
+    void onAsyncResult(@NonNull TotalCaptureResult result) {
+        Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+        CaptureFuture future = getFuture(result);
+        synchronized (asyncLock) {
+            if (!asyncCapturesInFlight.contains(future)) {
+                // the capture was abandoned
+                return;
+            }
+            if (timestamp == null) {
+                asyncCapturesInFlight.remove(future);
+                future.fail("Capture result had no sensor timestamp");
+            } else {
+                asyncMatcher.addResult(timestamp, result);
+            }
+            flushUnclaimedImages();
+        }
+    }
+
+    /**
+     * Called when an async capture request fails and no result will arrive
+     */
+    void onAsyncCaptureFailed(@NonNull CaptureFuture future, @NonNull String reason) {
+        synchronized (asyncLock) {
+            asyncCapturesInFlight.remove(future);
+            future.fail(reason);
+            flushUnclaimedImages();
+        }
+    }
+
+    /**
+     * Called when the image of an async capture is lost. The result may or may not have been
+     * passed to {@link #onAsyncResult(TotalCaptureResult)} yet; if it is passed in afterwards,
+     * it is ignored.
+     *
+     * @param resultTimestamp the sensor timestamp of the result, if it has already arrived
+     */
+    void onAsyncImageLost(@NonNull CaptureFuture future, @Nullable Long resultTimestamp) {
+        synchronized (asyncLock) {
+            if (resultTimestamp != null) {
+                asyncMatcher.removeResult(resultTimestamp);
+            }
+            asyncCapturesInFlight.remove(future);
+            future.fail("The image for this capture was lost");
+            flushUnclaimedImages();
+        }
+    }
+
+    /**
+     * Fails every async capture in flight, because the capture session they were sent to is
+     * going away. Images that were being held for them are delivered normally, and results
+     * that still arrive for them are ignored.
+     */
+    void abandonAsyncCaptures(@NonNull String reason) {
+        synchronized (asyncLock) {
+            failAsyncCaptures(reason);
+            for (Image image : asyncMatcher.drainImages()) {
+                deliverImage(image);
+            }
+        }
+    }
+
+    private void failAsyncCaptures(@NonNull String reason) {
+        for (CaptureFuture future : asyncCapturesInFlight) {
+            future.fail(reason);
+        }
+        asyncCapturesInFlight.clear();
+        asyncMatcher.drainResults();
+    }
+
+    /**
+     * Hands an image to the async matcher if any async captures are waiting for one
+     *
+     * @return <code>false</code> if the image should be delivered normally
+     */
+    private boolean offerAsyncImage(@NonNull Image image) {
+        synchronized (asyncLock) {
+            if (asyncCapturesInFlight.isEmpty()) {
+                return false;
+            }
+            asyncMatcher.addImage(image.getTimestamp(), image);
+            flushUnclaimedImages();
+            return true;
+        }
+    }
+
+    // once no async captures are left, any images still held belong to normal captures
+    private void flushUnclaimedImages() {
+        if (asyncCapturesInFlight.isEmpty() && asyncMatcher.pendingImages() > 0) {
+            for (Image image : asyncMatcher.drainImages()) {
+                deliverImage(image);
+            }
+        }
+    }
+
+    @NonNull
+    private static CaptureFuture getFuture(@NonNull TotalCaptureResult result) {
+        return (CaptureFuture) result.getRequest().getTag();
+    }
+
+    /**
+     * Gives an image to the user's listener on an image processing thread and closes it if they
+     * ask us to. The image keeps its slot in the ImageReader until then.
+     *
+     * @see Camera3#setImageProcessingThreads(int, int)
+     */
+    void deliverImage(@NonNull final Image image) {
+        Runnable delivery = new Runnable() {
+            @Override
+            public void run() {
+                OnImageAvailableListener.ImageAction whatToDo =
+                        imageAvailableListener.onImageAvailable(image);
+                if (whatToDo == OnImageAvailableListener.ImageAction.CLOSE_IMAGE) {
+                    image.close();
+                    if (readerFull) {
+                        // a slot just opened up for the images that are waiting
+                        drainReaderSoon();
+                    }
+                }
+            }
+        };
+        if (camera3 != null) {
+            camera3.runImageTask(delivery);
+        } else {
+            delivery.run();
+        }
     }
 
     void initialize(@NonNull final Handler backgroundHandler,
@@ -96,27 +581,167 @@ public final class StillCaptureHandler {
                     "This StillCaptureHandler is already in use by another Camera3 instance");
         }
         this.camera3 = camera3;
+        if (isZeroShutterLag()) {
+            initializeZeroShutterLag(backgroundHandler, camera3);
+            return;
+        }
+        this.backgroundHandler = backgroundHandler;
         this.imageReader = ImageReader.newInstance(imageSize.getWidth(), imageSize.getHeight(),
-                imageFormat, MAX_IMAGES);
+                imageFormat, readerDepth);
         this.imageReader.setOnImageAvailableListener(
                 new ImageReader.OnImageAvailableListener() {
                     @Override
                     public void onImageAvailable(ImageReader reader) {
+                        latencyTracker.onImageArrived(SystemClock.elapsedRealtimeNanos());
+                        imagesArrived++;
                         camera3.popRequestQueue();
-                        try {
-                            Image image = reader.acquireNextImage();
-                            OnImageAvailableListener.ImageAction whatToDo =
-                                    imageAvailableListener.onImageAvailable(image);
-                            if (whatToDo == OnImageAvailableListener.ImageAction.CLOSE_IMAGE) {
-                                image.close();
+                        drainReader(reader, backgroundHandler);
+                    }
+                }, backgroundHandler);
+    }
+
+    /**
+     * Takes the waiting images out of the reader and delivers (or drops) them according to the
+     * {@link OverflowPolicy}. If the app is holding every image the reader can hand out, the
+     * rest wait. This is tried again when one of our deliveries closes an image, and otherwise
+     * after a wait that grows the longer the reader stays full.
+     */
+    private void drainReader(@NonNull final ImageReader reader,
+                             @NonNull final Handler backgroundHandler) {
+        while (imagesArrived > imagesTaken) {
+            Image image;
+            try {
+                image = reader.acquireNextImage();
+            } catch (IllegalStateException e) {
+                readerFull = true;
+                if (overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+                    // everything waiting is newer than the images the app is holding
+                    imagesToDiscard = imagesArrived - imagesTaken;
+                }
+                if (!overflowRetryPosted) {
+                    overflowRetryPosted = true;
+                    backgroundHandler.postDelayed(new Runnable() {
+                        @Override
+                        public void run() {
+                            overflowRetryPosted = false;
+                            if (imageReader == reader) {
+                                drainReader(reader, backgroundHandler);
                             }
+                        }
+                    }, overflowRetryMillis);
+                    overflowRetryMillis =
+                            Math.min(overflowRetryMillis * 2, OVERFLOW_RETRY_MAX_MILLIS);
+                }
+                return;
+            }
+            if (image == null) {
+                // the counts are off, e.g. the listener was called for an image that was
+                // already taken
+                imagesTaken = imagesArrived;
+                break;
+            }
+            imagesTaken++;
+            if (imagesToDiscard > 0) {
+                imagesToDiscard--;
+                dropImage(image);
+            } else if (overflowPolicy == OverflowPolicy.DROP_OLDEST &&
+                    imagesArrived > imagesTaken) {
+                // a newer image is waiting
+                dropImage(image);
+            } else {
+                if (readerFull) {
+                    delayedImages.incrementAndGet();
+                }
+                if (!offerAsyncImage(image)) {
+                    deliverImage(image);
+                }
+            }
+        }
+        if (readerFull) {
+            readerFull = false;
+            overflowRetryMillis = OVERFLOW_RETRY_MIN_MILLIS;
+            Camera3 camera3 = this.camera3;
+            if (overflowPolicy == OverflowPolicy.BLOCK_QUEUE && camera3 != null) {
+                // captures were held back while the reader was full
+                camera3.popRequestQueue();
+            }
+        }
+    }
+
+    /**
+     * Drains the reader on the background thread as soon as possible. Can be called from any
+     * thread.
+     */
+    private void drainReaderSoon() {
+        final Handler handler = backgroundHandler;
+        final ImageReader reader = imageReader;
+        if (handler == null || reader == null) {
+            return;
+        }
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (imageReader == reader) {
+                    drainReader(reader, handler);
+                }
+            }
+        });
+    }
+
+    private void dropImage(@NonNull Image image) {
+        droppedImages.incrementAndGet();
+        image.close();
+    }
+
+    private void initializeZeroShutterLag(@NonNull final Handler backgroundHandler,
+                                          @NonNull final Camera3 camera3) {
+        final TimestampRingBuffer<Image> frames = new TimestampRingBuffer<>(zslRingSize);
+        this.zslFrames = frames;
+        this.zslResults = new TimestampRingBuffer<>(zslRingSize + MAX_IMAGES);
+        // the ring holds zslRingSize images open at all times, so leave some room to acquire
+        this.imageReader = ImageReader.newInstance(imageSize.getWidth(), imageSize.getHeight(),
+                imageFormat, zslRingSize + MAX_IMAGES);
+        this.imageReader.setOnImageAvailableListener(
+                new ImageReader.OnImageAvailableListener() {
+                    @Override
+                    public void onImageAvailable(ImageReader reader) {
+                        Image image;
+                        try {
+                            image = reader.acquireNextImage();
                         } catch (IllegalStateException e) {
                             camera3.getErrorHandler().error(
-                                    "The image queue for this capture session is full. " +
-                                            "More images must be processed before any new ones can " +
-                                            "be captured.", e);
+                                    "The zero-shutter-lag image queue is full. Images taken " +
+                                            "from a ZSL handler must be closed.", e);
+                            return;
+                        }
+                        if (image == null) {
+                            return;
+                        }
+                        Image evicted = frames.put(image.getTimestamp(), image);
+                        if (evicted != null) {
+                            evicted.close();
                         }
                     }
                 }, backgroundHandler);
+
+        if (zslReprocess) {
+            this.reprocessReader = ImageReader.newInstance(imageSize.getWidth(),
+                    imageSize.getHeight(), ImageFormat.JPEG, readerDepth);
+            this.reprocessReader.setOnImageAvailableListener(
+                    new ImageReader.OnImageAvailableListener() {
+                        @Override
+                        public void onImageAvailable(ImageReader reader) {
+                            latencyTracker.onImageArrived(SystemClock.elapsedRealtimeNanos());
+                            try {
+                                deliverImage(reader.acquireNextImage());
+                            } catch (IllegalStateException e) {
+                                camera3.getErrorHandler().error(
+                                        "The image queue for this capture session is full. " +
+                                                "More images must be processed before any new " +
+                                                "ones can be captured.", e);
+                            }
+                        }
+                    }, backgroundHandler);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,123 @@
+package com.avalancheevantage.android.camera3;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.jetbrains.annotations.Contract;
+
+import java.util.List;
+
+/**
+ * Package-private class. Pairs images with the capture results that produced them, using the
+ * sensor timestamp that both carry. Either half can arrive first. Only a fixed number of
+ * unmatched images and results are held; when more arrive, the oldest unmatched one is handed
+ * back to the {@link Listener} as dropped so that nothing is leaked.
+ * <p>
+ * This class is not thread safe.
+ *
+ * @param <I> the image type
+ * @param <R> the result type
+ * @author Quinn Freedman
+ */
+final class TimestampMatcher<I, R> {
+
+    interface Listener<I, R> {
+        /**
+         * Called when an image and a result with the same timestamp have both arrived
+         */
+        void onMatched(long timestamp, @NonNull I image, @NonNull R result);
+
+        /**
+         * Called when an image is pushed out without ever being matched
+         */
+        void onImageDropped(@NonNull I image);
+
+        /**
+         * Called when a result is pushed out without ever being matched
+         */
+        void onResultDropped(@NonNull R result);
+    }
+
+    @NonNull
+    private final TimestampRingBuffer<I> images;
+    @NonNull
+    private final TimestampRingBuffer<R> results;
+    @NonNull
+    private final Listener<I, R> listener;
+
+    /**
+     * @param capacity the number of unmatched images (and, separately, unmatched results)
+     *                 to hold at once
+     */
+    TimestampMatcher(int capacity, @NonNull Listener<I, R> listener) {
+        this.images = new TimestampRingBuffer<>(capacity);
+        this.results = new TimestampRingBuffer<>(capacity);
+        this.listener = listener;
+    }
+
+    void addImage(long timestamp, @NonNull I image) {
+        R result = results.remove(timestamp);
+        if (result != null) {
+            listener.onMatched(timestamp, image, result);
+            return;
+        }
+        I dropped = images.put(timestamp, image);
+        if (dropped != null) {
+            listener.onImageDropped(dropped);
+        }
+    }
+
+    void addResult(long timestamp, @NonNull R result) {
+        I image = images.remove(timestamp);
+        if (image != null) {
+            listener.onMatched(timestamp, image, result);
+            return;
+        }
+        R dropped = results.put(timestamp, result);
+        if (dropped != null) {
+            listener.onResultDropped(dropped);
+        }
+    }
+
+    /**
+     * Removes an unmatched result without calling the listener, e.g. because its image is
+     * known to be lost
+     *
+     * @return the result, or <code>null</code> if there is no unmatched result with this
+     * timestamp
+     */
+    @Nullable
+    R removeResult(long timestamp) {
+        return results.remove(timestamp);
+    }
+
+    @Contract(pure = true)
+    int pendingImages() {
+        return images.size();
+    }
+
+    @Contract(pure = true)
+    int pendingResults() {
+        return results.size();
+    }
+
+    /**
+     * Removes all the unmatched images without calling the listener
+     *
+     * @return the removed images, oldest first
+     */
+    @NonNull
+    List<I> drainImages() {
+        return images.clear();
+    }
+
+    /**
+     * Removes all the unmatched results without calling the listener
+     *
+     * @return the removed results, oldest first
+     */
+    @NonNull
+    List<R> drainResults() {
+        return results.clear();
+    }
+}
@@ -0,0 +1,188 @@
+package com.avalancheevantage.android.camera3;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.jetbrains.annotations.Contract;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Package-private class. A fixed-size ring of recent values (usually frames) indexed by their
+ * sensor timestamp. When the ring is full, adding a new value evicts the oldest one and hands it
+ * back to the caller so that it can be released.
+ * <p>
+ * This class is not thread safe. It is only meant to be used from the camera background thread.
+ *
+ * @author Quinn Freedman
+ */
+final class TimestampRingBuffer<T> {
+    private final long[] timestamps;
+    private final Object[] values;
+    // index of the oldest entry
+    private int head = 0;
+    private int size = 0;
+
+    TimestampRingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException(
+                    "capacity must be at least 1 (was " + capacity + ")");
+        }
+        this.timestamps = new long[capacity];
+        this.values = new Object[capacity];
+    }
+
+    @Contract(pure = true)
+    int capacity() {
+        return values.length;
+    }
+
+    @Contract(pure = true)
+    int size() {
+        return size;
+    }
+
+    @Contract(pure = true)
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Adds a value to the ring.
+     *
+     * @return the value that was pushed out to make room for the new one (either the oldest value
+     * or a value that had the same timestamp), or {@code null} if nothing was evicted
+     */
+    @Nullable
+    T put(long timestamp, @NonNull T value) {
+        int existing = indexOf(timestamp);
+        if (existing >= 0) {
+            T old = valueAt(existing);
+            values[physical(existing)] = value;
+            return old;
+        }
+        T evicted = null;
+        if (size == values.length) {
+            evicted = valueAt(0);
+            values[head] = null;
+            head = (head + 1) % values.length;
+            size--;
+        }
+        int slot = physical(size);
+        timestamps[slot] = timestamp;
+        values[slot] = value;
+        size++;
+        return evicted;
+    }
+
+    /**
+     * @return the value with exactly the given timestamp, or {@code null} if there is none
+     */
+    @Nullable
+    T get(long timestamp) {
+        int i = indexOf(timestamp);
+        return i < 0 ? null : valueAt(i);
+    }
+
+    /**
+     * Finds the timestamp in the ring that is closest to <code>target</code>. Ties go to the
+     * earlier frame.
+     *
+     * @return the closest timestamp, or <code>-1</code> if the ring is empty
+     */
+    long closestTimestamp(long target) {
+        int i = indexOfClosest(target);
+        return i < 0 ? -1 : timestamps[physical(i)];
+    }
+
+    /**
+     * Removes and returns the value whose timestamp is closest to <code>target</code>.
+     *
+     * @return the removed value, or {@code null} if the ring is empty
+     */
+    @Nullable
+    T removeClosest(long target) {
+        int i = indexOfClosest(target);
+        return i < 0 ? null : removeAt(i);
+    }
+
+    /**
+     * Removes and returns the value with exactly the given timestamp
+     *
+     * @return the removed value, or {@code null} if there is no such value
+     */
+    @Nullable
+    T remove(long timestamp) {
+        int i = indexOf(timestamp);
+        return i < 0 ? null : removeAt(i);
+    }
+
+    /**
+     * Empties the ring
+     *
+     * @return all the values that were in the ring, oldest first
+     */
+    @NonNull
+    List<T> clear() {
+        List<T> removed = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            removed.add(valueAt(i));
+            values[physical(i)] = null;
+        }
+        head = 0;
+        size = 0;
+        return removed;
+    }
+
+    private int indexOf(long timestamp) {
+        for (int i = 0; i < size; i++) {
+            if (timestamps[physical(i)] == timestamp) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int indexOfClosest(long target) {
+        int best = -1;
+        long bestDistance = Long.MAX_VALUE;
+        long bestTimestamp = Long.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            long timestamp = timestamps[physical(i)];
+            // the difference can overflow for timestamps at opposite ends of the range, which
+            // sensor timestamps never are
+            long distance = Math.abs(timestamp - target);
+            if (distance < bestDistance ||
+                    (distance == bestDistance && timestamp < bestTimestamp)) {
+                best = i;
+                bestDistance = distance;
+                bestTimestamp = timestamp;
+            }
+        }
+        return best;
+    }
+
+    private T removeAt(int index) {
+        T removed = valueAt(index);
+        // shift everything after the removed entry back by one to keep insertion order
+        for (int i = index; i < size - 1; i++) {
+            int to = physical(i);
+            int from = physical(i + 1);
+            timestamps[to] = timestamps[from];
+            values[to] = values[from];
+        }
+        values[physical(size - 1)] = null;
+        size--;
+        return removed;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T valueAt(int index) {
+        return (T) values[physical(index)];
+    }
+
+    private int physical(int index) {
+        return (head + index) % values.length;
+    }
+}
@@ -0,0 +1,67 @@
+package com.avalancheevantage.android.camera3;
+
+import android.support.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Package-private class. Remembers the last value seen in each of a fixed number of slots and
+ * reports which new values are different. Missing (<code>null</code>) values are ignored, since
+ * partial capture results usually only contain some of the keys.
+ * <p>
+ * This class is not thread safe.
+ *
+ * @author Quinn Freedman
+ */
+final class ValueChangeFilter {
+    private final Object[] lastValues;
+    private final boolean[] seen;
+
+    ValueChangeFilter(int size) {
+        this.lastValues = new Object[size];
+        this.seen = new boolean[size];
+    }
+
+    /**
+     * Records the value for a slot
+     *
+     * @return <code>true</code> if the value is not <code>null</code> and differs from the last
+     * non-null value recorded for the slot (or if it is the first one)
+     */
+    boolean offer(int slot, @Nullable Object value) {
+        if (value == null) {
+            return false;
+        }
+        if (seen[slot] && valuesEqual(lastValues[slot], value)) {
+            return false;
+        }
+        lastValues[slot] = value;
+        seen[slot] = true;
+        return true;
+    }
+
+    /**
+     * Forgets all values, so that the next value offered to each slot counts as a change
+     */
+    void reset() {
+        Arrays.fill(lastValues, null);
+        Arrays.fill(seen, false);
+    }
+
+    // some result values (like regions and color gains) are arrays
+    private static boolean valuesEqual(Object a, Object b) {
+        if (a instanceof Object[] && b instanceof Object[]) {
+            return Arrays.deepEquals((Object[]) a, (Object[]) b);
+        }
+        if (a instanceof int[] && b instanceof int[]) {
+            return Arrays.equals((int[]) a, (int[]) b);
+        }
+        if (a instanceof float[] && b instanceof float[]) {
+            return Arrays.equals((float[]) a, (float[]) b);
+        }
+        if (a instanceof long[] && b instanceof long[]) {
+            return Arrays.equals((long[]) a, (long[]) b);
+        }
+        return a.equals(b);
+    }
+}
@@ -1,12 +1,18 @@
 package com.avalancheevantage.android.camera3;
 
+import android.annotation.TargetApi;
+import android.media.MediaCodec;
 import android.media.MediaRecorder;
+import android.os.Build;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Size;
 import android.util.SparseIntArray;
 import android.view.Surface;
 
+import org.jetbrains.annotations.Contract;
+
+import java.io.File;
 import java.io.IOException;
 import java.util.Objects;
 
@@ -34,8 +40,10 @@ public class VideoCaptureHandler {
     }
 
     @NonNull private final Size videoSize;
+    private final boolean persistent;
 
     @Nullable private MediaRecorder mediaRecorder;
+    @Nullable private Surface persistentSurface;
     private ErrorHandler errorHandler;
     private boolean recording = false;
     @Nullable private String outputFile = null;
@@ -46,7 +54,43 @@ public class VideoCaptureHandler {
     }
 
     public VideoCaptureHandler(@NonNull Size videoSize) {
+        this(videoSize, false);
+    }
+
+    private VideoCaptureHandler(@NonNull Size videoSize, boolean persistent) {
         this.videoSize = videoSize;
+        this.persistent = persistent;
+    }
+
+    /**
+     * Creates a handler that records through a persistent input surface. The surface is part of
+     * the capture session from the moment the session starts, so
+     * {@link Camera3#startVideoCapture(VideoCaptureHandler, File, VideoCaptureStartedCallback)}
+     * and {@link Camera3#stopVideoCapture(VideoCaptureHandler)} only have to switch the targets
+     * of the repeating request instead of building a whole new capture session. This makes
+     * recording start much faster.
+     * <p>
+     * The extra stream does use some camera bandwidth while the preview is running, and the
+     * session must be able to hold it alongside the preview and any still capture streams (a
+     * preview, a recording-sized video stream and a JPEG stream is supported on all LIMITED and
+     * FULL devices). Persistent surfaces need API 23. On older devices, the handler behaves like
+     * one created with {@link VideoCaptureHandler#VideoCaptureHandler(Size)}.
+     *
+     * @param videoSize the size of the video to record
+     * @return a new video handler
+     */
+    @NonNull
+    public static VideoCaptureHandler withPersistentSurface(@NonNull Size videoSize) {
+        return new VideoCaptureHandler(videoSize, true);
+    }
+
+    /**
+     * @return whether this handler keeps its recording surface in the capture session
+     * @see VideoCaptureHandler#withPersistentSurface(Size)
+     */
+    @Contract(pure = true)
+    public boolean usesPersistentSurface() {
+        return persistent && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
     }
 
     void setErrorHandler(@NonNull ErrorHandler errorHandler) {
@@ -58,20 +102,88 @@ public class VideoCaptureHandler {
             this.mediaRecorder.release();
             this.mediaRecorder = null;
         }
+        recording = false;
+        if (this.persistentSurface != null) {
+            this.persistentSurface.release();
+            this.persistentSurface = null;
+        }
+    }
+
+    /**
+     * Gets the persistent surface, creating it the first time. It stays valid between
+     * recordings (and sessions) until the handler is closed.
+     *
+     * @return the surface, or {@code null} if this handler doesn't use a persistent surface or
+     * it could not be created
+     */
+    @Nullable
+    Surface getPersistentSurface() {
+        if (!usesPersistentSurface()) {
+            return null;
+        }
+        if (persistentSurface == null) {
+            persistentSurface = createPersistentSurface();
+        }
+        return persistentSurface;
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    @Nullable
+    private Surface createPersistentSurface() {
+        Surface surface = MediaCodec.createPersistentInputSurface();
+        // The camera has to know the size and format of the surface when the session is
+        // created, before there is a real recording. Preparing a throwaway recorder with the
+        // surface sets those up.
+        MediaRecorder primer = new MediaRecorder();
+        File scratch = null;
+        try {
+            scratch = File.createTempFile("vid", ".mp4");
+            configureRecorder(primer, scratch.getPath(), false);
+            primer.setInputSurface(surface);
+            primer.prepare();
+        } catch (IOException | RuntimeException e) {
+            errorHandler.error("Unable to prepare the persistent video surface", e);
+            surface.release();
+            return null;
+        } finally {
+            primer.release();
+            if (scratch != null) {
+                //noinspection ResultOfMethodCallIgnored
+                scratch.delete();
+            }
+        }
+        return surface;
+    }
+
+    private void configureRecorder(@NonNull MediaRecorder recorder,
+                                   @NonNull String videoFilePath,
+                                   boolean withAudio) {
+        if (withAudio) {
+            recorder.setAudioSource(MediaRecorder.AudioSource.CAMCORDER);
+        }
+        recorder.setVideoSource(MediaRecorder.VideoSource.SURFACE);
+        recorder.setOutputFormat(MediaRecorder.OutputFormat.MPEG_4);
+        recorder.setOutputFile(videoFilePath);
+        recorder.setVideoEncodingBitRate(10000000);
+        recorder.setVideoFrameRate(30);
+        recorder.setVideoSize(videoSize.getWidth(), videoSize.getHeight());
+        recorder.setVideoEncoder(MediaRecorder.VideoEncoder.H264);
+        if (withAudio) {
+            recorder.setAudioEncoder(MediaRecorder.AudioEncoder.AAC);
+        }
     }
 
     void setUpMediaRecorder(String videoFilePath, int sensorOrientation, int rotation) {
         this.outputFile = videoFilePath;
-        mediaRecorder = new MediaRecorder();
-        mediaRecorder.setAudioSource(MediaRecorder.AudioSource.CAMCORDER);
-        mediaRecorder.setVideoSource(MediaRecorder.VideoSource.SURFACE);
-        mediaRecorder.setOutputFormat(MediaRecorder.OutputFormat.MPEG_4);
-        mediaRecorder.setOutputFile(videoFilePath);
-        mediaRecorder.setVideoEncodingBitRate(10000000);
-        mediaRecorder.setVideoFrameRate(30);
-        mediaRecorder.setVideoSize(videoSize.getWidth(), videoSize.getHeight());
-        mediaRecorder.setVideoEncoder(MediaRecorder.VideoEncoder.H264);
-        mediaRecorder.setAudioEncoder(MediaRecorder.AudioEncoder.AAC);
+        // a recorder that was reset after the last recording can be configured again
+        if (mediaRecorder == null) {
+            mediaRecorder = new MediaRecorder();
+        }
+        configureRecorder(mediaRecorder, videoFilePath, true);
+        Surface surface = getPersistentSurface();
+        if (surface != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            mediaRecorder.setInputSurface(surface);
+        }
         switch (sensorOrientation) {
             case SENSOR_ORIENTATION_DEFAULT_DEGREES:
                 mediaRecorder.setOrientationHint(DEFAULT_ORIENTATIONS.get(rotation));
@@ -89,6 +201,9 @@ public class VideoCaptureHandler {
     }
 
     Surface getRecorderSurface() {
+        if (persistentSurface != null) {
+            return persistentSurface;
+        }
         Objects.requireNonNull(mediaRecorder, "MediaRecorder is null");
 
         return mediaRecorder.getSurface();
@@ -0,0 +1,322 @@
+package com.avalancheevantage.android.camera3;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+import android.media.Image;
+import android.support.annotation.NonNull;
+
+import org.jetbrains.annotations.Contract;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Repacks {@link ImageFormat#YUV_420_888} images into a single array in a standard layout, e.g.
+ * to save them or hand them to a computer vision library, and compresses them to JPEG.
+ * <p>
+ * A YUV_420_888 image has three planes, and each one can have padding at the end of its rows
+ * (its row stride) and between its samples (its pixel stride). The strides depend on the device,
+ * so none of the planes can be written out as-is, and writing out just the first one only saves
+ * the luma. This class handles any strides.
+ * <p>
+ * The output array is reused from one image to the next as long as the size doesn't change, so
+ * converting a stream of images doesn't make garbage. Rows can be copied on several threads at
+ * once. A converter is not thread safe; use one per thread.
+ *
+ * @author Quinn Freedman
+ */
+public final class YuvConverter {
+    /**
+     * The layouts images can be repacked into
+     */
+    public enum Layout {
+        /**
+         * The full Y plane, followed by the V and U samples interleaved (VUVU...). This is
+         * {@link ImageFormat#NV21}, the format {@link YuvImage} compresses.
+         */
+        NV21,
+        /**
+         * The full Y plane, followed by the full U plane and then the full V plane. Also known
+         * as YUV420p or YU12.
+         */
+        I420
+    }
+
+    /**
+     * The quality that images are compressed with when they are saved
+     */
+    public static final int DEFAULT_JPEG_QUALITY = 95;
+    static final long KEEP_ALIVE_SECONDS = 10;
+    // for saving YUV images without allocating a new output array each time
+    private static final ThreadLocal<YuvConverter> THREAD_CONVERTERS =
+            new ThreadLocal<YuvConverter>() {
+                @Override
+                protected YuvConverter initialValue() {
+                    return new YuvConverter();
+                }
+            };
+
+    private final int threads;
+    private final ThreadPoolExecutor executor;
+    @NonNull
+    private byte[] output = new byte[0];
+    // a row of each plane, for every thread
+    @NonNull
+    private final byte[][] scratch;
+
+    /**
+     * Creates a converter that copies rows on the calling thread only
+     */
+    public YuvConverter() {
+        this(1);
+    }
+
+    /**
+     * @param threads how many threads to copy rows on, including the calling thread. Must be
+     *                at least 1
+     */
+    public YuvConverter(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        this.threads = threads;
+        this.scratch = new byte[threads * 3][];
+        if (threads == 1) {
+            this.executor = null;
+            return;
+        }
+        this.executor = new ThreadPoolExecutor(threads - 1, threads - 1,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger(0);
+
+                    @Override
+                    public Thread newThread(@NonNull Runnable runnable) {
+                        Thread thread = new Thread(runnable,
+                                "YuvConverter-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        // idle threads stop, so a converter doesn't have to be closed
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return a single-threaded converter for the calling thread to reuse
+     */
+    @NonNull
+    static YuvConverter forCurrentThread() {
+        return THREAD_CONVERTERS.get();
+    }
+
+    /**
+     * @return the number of bytes an image of this size takes up in either layout
+     */
+    @Contract(pure = true)
+    public static int getOutputSize(int width, int height) {
+        int chromaWidth = (width + 1) / 2;
+        int chromaHeight = (height + 1) / 2;
+        return width * height + 2 * chromaWidth * chromaHeight;
+    }
+
+    /**
+     * Repacks a YUV image. The image is not closed.
+     *
+     * @param image  a {@link ImageFormat#YUV_420_888} image
+     * @param layout the layout to repack into
+     * @return the repacked image. The array is reused by the next call to this converter, so
+     * it must be copied if it is needed for longer.
+     */
+    @NonNull
+    public byte[] convert(@NonNull Image image, @NonNull Layout layout) {
+        if (image.getFormat() != ImageFormat.YUV_420_888) {
+            throw new IllegalArgumentException("Only YUV_420_888 images can be converted");
+        }
+        Image.Plane[] planes = image.getPlanes();
+        return convert(image.getWidth(), image.getHeight(),
+                new Plane(planes[0].getBuffer(), planes[0].getRowStride(),
+                        planes[0].getPixelStride()),
+                new Plane(planes[1].getBuffer(), planes[1].getRowStride(),
+                        planes[1].getPixelStride()),
+                new Plane(planes[2].getBuffer(), planes[2].getRowStride(),
+                        planes[2].getPixelStride()),
+                layout);
+    }
+
+    /**
+     * Compresses a YUV image to JPEG. The image is not closed. This is slow for large images,
+     * so it should not be done on the camera thread.
+     *
+     * @param image   a {@link ImageFormat#YUV_420_888} image
+     * @param quality the JPEG quality, from 0 to 100
+     * @param output  where to write the JPEG
+     * @throws IOException if the image couldn't be compressed or written
+     */
+    public void compressToJpeg(@NonNull Image image,
+                               int quality,
+                               @NonNull OutputStream output) throws IOException {
+        byte[] nv21 = convert(image, Layout.NV21);
+        int width = image.getWidth();
+        int height = image.getHeight();
+        YuvImage yuvImage = new YuvImage(nv21, ImageFormat.NV21, width, height, null);
+        if (!yuvImage.compressToJpeg(new Rect(0, 0, width, height), quality, output)) {
+            throw new IOException("Unable to compress the YUV image to JPEG");
+        }
+    }
+
+    @NonNull
+    byte[] convert(final int width,
+                   final int height,
+                   @NonNull final Plane y,
+                   @NonNull final Plane u,
+                   @NonNull final Plane v,
+                   @NonNull final Layout layout) {
+        int size = getOutputSize(width, height);
+        if (output.length != size) {
+            output = new byte[size];
+        }
+        final int chromaHeight = (height + 1) / 2;
+        int stripes = Math.min(threads, chromaHeight);
+        if (stripes <= 1) {
+            copyStripe(0, width, height, y, u, v, layout, 0, chromaHeight);
+            return output;
+        }
+
+        final CountDownLatch done = new CountDownLatch(stripes - 1);
+        final RuntimeException[] failure = new RuntimeException[1];
+        for (int i = 1; i < stripes; i++) {
+            final int stripe = i;
+            final int from = chromaHeight * i / stripes;
+            final int to = chromaHeight * (i + 1) / stripes;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        copyStripe(stripe, width, height, y, u, v, layout, from, to);
+                    } catch (RuntimeException e) {
+                        synchronized (failure) {
+                            failure[0] = e;
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        copyStripe(0, width, height, y, u, v, layout, 0, chromaHeight / stripes);
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while converting a YUV image", e);
+        }
+        synchronized (failure) {
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Copies chroma rows <code>[from, to)</code> and the luma rows that go with them
+     */
+    private void copyStripe(int stripe,
+                            int width,
+                            int height,
+                            @NonNull Plane y,
+                            @NonNull Plane u,
+                            @NonNull Plane v,
+                            @NonNull Layout layout,
+                            int from,
+                            int to) {
+        byte[] out = output;
+        int yScratch = stripe * 3;
+        // one view of each plane per stripe, since stripes read the same buffers at once
+        ByteBuffer yBuffer = y.buffer.duplicate();
+        ByteBuffer uBuffer = u.buffer.duplicate();
+        ByteBuffer vBuffer = v.buffer.duplicate();
+        int lumaEnd = Math.min(height, to * 2);
+        for (int row = from * 2; row < lumaEnd; row++) {
+            copyRow(y, yBuffer, row, width, out, row * width, 1, yScratch);
+        }
+
+        int chromaWidth = (width + 1) / 2;
+        int chromaStart = width * height;
+        int planeSize = chromaWidth * ((height + 1) / 2);
+        for (int row = from; row < to; row++) {
+            int offset = row * chromaWidth;
+            if (layout == Layout.NV21) {
+                copyRow(v, vBuffer, row, chromaWidth, out, chromaStart + 2 * offset, 2,
+                        yScratch + 1);
+                copyRow(u, uBuffer, row, chromaWidth, out, chromaStart + 2 * offset + 1, 2,
+                        yScratch + 2);
+            } else {
+                copyRow(u, uBuffer, row, chromaWidth, out, chromaStart + offset, 1,
+                        yScratch + 1);
+                copyRow(v, vBuffer, row, chromaWidth, out, chromaStart + planeSize + offset, 1,
+                        yScratch + 2);
+            }
+        }
+    }
+
+    /**
+     * Copies <code>samples</code> samples of one row of a plane to <code>out</code>, spaced
+     * <code>outStride</code> apart
+     *
+     * @param source a duplicate of the plane's buffer that this method can move around in
+     */
+    private void copyRow(@NonNull Plane plane,
+                         @NonNull ByteBuffer source,
+                         int row,
+                         int samples,
+                         @NonNull byte[] out,
+                         int outOffset,
+                         int outStride,
+                         int scratchIndex) {
+        source.position(plane.buffer.position() + row * plane.rowStride);
+        if (plane.pixelStride == 1 && outStride == 1) {
+            source.get(out, outOffset, samples);
+            return;
+        }
+        // the last row of a plane can end right after its last sample, without padding
+        int length = (samples - 1) * plane.pixelStride + 1;
+        byte[] rowBytes = scratch[scratchIndex];
+        if (rowBytes == null || rowBytes.length < length) {
+            rowBytes = new byte[Math.max(length, plane.rowStride)];
+            scratch[scratchIndex] = rowBytes;
+        }
+        source.get(rowBytes, 0, length);
+        int pixelStride = plane.pixelStride;
+        for (int i = 0, in = 0, o = outOffset; i < samples;
+             i++, in += pixelStride, o += outStride) {
+            out[o] = rowBytes[in];
+        }
+    }
+
+    /**
+     * Package-private class. One plane of a YUV image.
+     */
+    static final class Plane {
+        @NonNull
+        final ByteBuffer buffer;
+        final int rowStride;
+        final int pixelStride;
+
+        Plane(@NonNull ByteBuffer buffer, int rowStride, int pixelStride) {
+            this.buffer = buffer;
+            this.rowStride = rowStride;
+            this.pixelStride = pixelStride;
+        }
+    }
+}
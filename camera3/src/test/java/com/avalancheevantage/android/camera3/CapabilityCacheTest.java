@@ -0,0 +1,209 @@
+package com.avalancheevantage.android.camera3;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JVM tests for the camera capability cache and its snapshot format, including how many
+ * queries a fake camera manager gets over a series of session startups.
+ */
+public class CapabilityCacheTest {
+    private static final int JPEG = 0x100;
+    private static final int YUV_420_888 = 0x23;
+    private static final String FINGERPRINT = "brand/product/device:8.1.0/OPM1/1:user/release-keys";
+    // setSensorOrientation, setUpPreviewOutput, getLargestAvailableImageSize,
+    // getAvailableImageSizes and getAvailableVideoSizes
+    private static final int LOOKUPS_PER_STARTUP = 5;
+    private static final int STARTUPS = 20;
+
+    /**
+     * Stands in for CameraManager and counts how many times it is asked for a camera
+     */
+    private static class FakeCameraManager implements CapabilityCache.Source {
+        int loads = 0;
+
+        @Override
+        public CameraCapabilities load(String cameraId) {
+            loads++;
+            if (!cameraId.equals("0") && !cameraId.equals("1")) {
+                return null;
+            }
+            return CameraCapabilities.builder()
+                    .setSensorOrientation(cameraId.equals("0") ? 90 : 270)
+                    .setTimestampRealtime(true)
+                    .setMinimumFocusDistance(cameraId.equals("0") ? 10f : 0f)
+                    .setCapabilities(new int[]{4, 0, 7})
+                    .addSizes(JPEG, sizes(40))
+                    .addSizes(YUV_420_888, sizes(40))
+                    .addSizes(CameraCapabilities.OUTPUT_PREVIEW, sizes(30))
+                    .addSizes(CameraCapabilities.OUTPUT_VIDEO, sizes(20))
+                    .build();
+        }
+    }
+
+    // smallest first, the opposite of how the cache stores them
+    private static int[] sizes(int count) {
+        int[] table = new int[count * 2];
+        for (int i = 0; i < count; i++) {
+            table[2 * i] = 160 * (i + 1);
+            table[2 * i + 1] = 120 * (i + 1);
+        }
+        return table;
+    }
+
+    @Test
+    public void sortsSizesLargestFirstAndKeepsTies() {
+        int[] sorted = CameraCapabilities.sortByArea(new int[]{
+                640, 480,
+                1920, 1080,
+                1080, 1920,
+                320, 240,
+                4000, 3000});
+        assertArrayEquals(new int[]{
+                4000, 3000,
+                1920, 1080,
+                1080, 1920,
+                640, 480,
+                320, 240}, sorted);
+    }
+
+    @Test
+    public void loadsEachCameraOnce() {
+        FakeCameraManager manager = new FakeCameraManager();
+        CapabilityCache cache = new CapabilityCache();
+        CameraCapabilities first = cache.get("0", manager);
+        assertSame(first, cache.get("0", manager));
+        assertEquals(1, manager.loads);
+        assertEquals(90, first.getSensorOrientation());
+        assertTrue(first.hasCapability(7));
+        assertFalse(first.hasCapability(3));
+        assertEquals(160 * 40, first.getSizeTable(JPEG)[0]);
+        assertEquals(0, first.getSizeTable(0x20).length);
+        assertTrue(cache.hasUnsavedChanges());
+    }
+
+    @Test
+    public void failedLoadsAreNotCached() {
+        FakeCameraManager manager = new FakeCameraManager();
+        CapabilityCache cache = new CapabilityCache();
+        assertNull(cache.get("7", manager));
+        assertNull(cache.get("7", manager));
+        assertEquals(2, manager.loads);
+        assertEquals(0, cache.size());
+        assertFalse(cache.hasUnsavedChanges());
+    }
+
+    @Test
+    public void snapshotRoundTrip() throws IOException {
+        FakeCameraManager manager = new FakeCameraManager();
+        CapabilityCache cache = new CapabilityCache();
+        CameraCapabilities back = cache.get("0", manager);
+        CameraCapabilities front = cache.get("1", manager);
+        byte[] snapshot = write(cache);
+        assertFalse(cache.hasUnsavedChanges());
+
+        CapabilityCache restored = new CapabilityCache();
+        assertEquals(2, restored.readSnapshot(input(snapshot), FINGERPRINT));
+        FakeCameraManager unused = new FakeCameraManager();
+        assertEquals(back, restored.get("0", unused));
+        assertEquals(front, restored.get("1", unused));
+        assertEquals(0f, restored.get("1", unused).getMinimumFocusDistance(), 0f);
+        assertEquals(0, unused.loads);
+        // nothing new to write
+        assertFalse(restored.hasUnsavedChanges());
+    }
+
+    @Test
+    public void snapshotFromAnotherBuildIsIgnored() throws IOException {
+        CapabilityCache cache = new CapabilityCache();
+        cache.get("0", new FakeCameraManager());
+        byte[] snapshot = write(cache);
+
+        CapabilityCache restored = new CapabilityCache();
+        assertEquals(-1, restored.readSnapshot(input(snapshot), FINGERPRINT + ".2"));
+        assertEquals(0, restored.size());
+    }
+
+    @Test
+    public void truncatedSnapshotAddsNothing() throws IOException {
+        CapabilityCache cache = new CapabilityCache();
+        cache.get("0", new FakeCameraManager());
+        cache.get("1", new FakeCameraManager());
+        byte[] snapshot = write(cache);
+
+        CapabilityCache restored = new CapabilityCache();
+        try {
+            restored.readSnapshot(input(Arrays.copyOf(snapshot, snapshot.length - 10)),
+                    FINGERPRINT);
+            throw new AssertionError("expected the truncated snapshot to be rejected");
+        } catch (EOFException e) {
+            // expected
+        }
+        assertEquals(0, restored.size());
+    }
+
+    @Test
+    public void startupQueryCounts() throws IOException {
+        // snapshot written by the previous launch
+        CapabilityCache previousLaunch = new CapabilityCache();
+        previousLaunch.get("0", new FakeCameraManager());
+        byte[] snapshot = write(previousLaunch);
+
+        FakeCameraManager cachedManager = new FakeCameraManager();
+        runCached(cachedManager, STARTUPS);
+        FakeCameraManager snapshotManager = new FakeCameraManager();
+        runFromSnapshot(snapshotManager, snapshot, STARTUPS);
+
+        assertEquals(STARTUPS, cachedManager.loads);
+        assertEquals(0, snapshotManager.loads);
+    }
+
+    // a new process with an empty cache and no snapshot
+    private static void runCached(FakeCameraManager manager, int startups) {
+        for (int i = 0; i < startups; i++) {
+            CapabilityCache cache = new CapabilityCache();
+            for (int j = 0; j < LOOKUPS_PER_STARTUP; j++) {
+                cache.get("0", manager);
+            }
+        }
+    }
+
+    // a new process that reads the snapshot first
+    private static void runFromSnapshot(FakeCameraManager manager,
+                                        byte[] snapshot,
+                                        int startups) throws IOException {
+        for (int i = 0; i < startups; i++) {
+            CapabilityCache cache = new CapabilityCache();
+            cache.readSnapshot(input(snapshot), FINGERPRINT);
+            for (int j = 0; j < LOOKUPS_PER_STARTUP; j++) {
+                cache.get("0", manager);
+            }
+        }
+    }
+
+    private static byte[] write(CapabilityCache cache) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        cache.writeSnapshot(out, FINGERPRINT);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static DataInputStream input(byte[] bytes) {
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+}
@@ -0,0 +1,67 @@
+package com.avalancheevantage.android.camera3;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * JVM tests for matching arriving images with the captures that were submitted for them.
+ */
+public class CaptureLatencyTrackerTest {
+    private static final long MS = 1_000_000L;
+
+    @Test
+    public void matchesImagesWithTheOldestCapture() {
+        CaptureLatencyTracker tracker = new CaptureLatencyTracker();
+        tracker.onSubmitted(0, 100 * MS);
+        tracker.onSubmitted(50 * MS, 200 * MS);
+        tracker.onImageArrived(300 * MS);
+        tracker.onImageArrived(400 * MS);
+
+        LatencyHistogram total = tracker.snapshot(CaptureStage.TOTAL);
+        assertEquals(2, total.getCount());
+        assertEquals(300 * MS, total.getMinNanos());
+        assertEquals(350 * MS, total.getMaxNanos());
+        LatencyHistogram delivery = tracker.snapshot(CaptureStage.IMAGE_DELIVERY);
+        assertEquals(200 * MS, delivery.getMinNanos());
+        assertEquals(200 * MS, delivery.getMaxNanos());
+    }
+
+    @Test
+    public void failedCapturesAreSkipped() {
+        CaptureLatencyTracker tracker = new CaptureLatencyTracker();
+        tracker.onSubmitted(0, 10 * MS);
+        tracker.onSubmitted(20 * MS, 30 * MS);
+        tracker.onFailed();
+        tracker.onImageArrived(50 * MS);
+        assertEquals(30 * MS, tracker.snapshot(CaptureStage.TOTAL).getMaxNanos());
+    }
+
+    @Test
+    public void imagesWithoutACaptureAreIgnored() {
+        CaptureLatencyTracker tracker = new CaptureLatencyTracker();
+        tracker.onImageArrived(50 * MS);
+        assertEquals(0, tracker.snapshot(CaptureStage.TOTAL).getCount());
+    }
+
+    @Test
+    public void forgetsTheOldestWhenFull() {
+        CaptureLatencyTracker tracker = new CaptureLatencyTracker();
+        for (int i = 0; i <= CaptureLatencyTracker.MAX_PENDING; i++) {
+            tracker.onSubmitted(i * MS, i * MS);
+        }
+        tracker.onImageArrived(100 * MS);
+        // the capture requested at 0 was forgotten
+        assertEquals(99 * MS, tracker.snapshot(CaptureStage.TOTAL).getMaxNanos());
+    }
+
+    @Test
+    public void recordsStages() {
+        CaptureLatencyTracker tracker = new CaptureLatencyTracker();
+        tracker.record(CaptureStage.FOCUS_LOCK, 120 * MS);
+        tracker.record(CaptureStage.FOCUS_LOCK, 80 * MS);
+        assertEquals(100 * MS, tracker.snapshot(CaptureStage.FOCUS_LOCK).getMeanNanos());
+        tracker.reset();
+        assertEquals(0, tracker.snapshot(CaptureStage.FOCUS_LOCK).getCount());
+    }
+}
@@ -0,0 +1,54 @@
+package com.avalancheevantage.android.camera3;
+
+import android.hardware.camera2.CaptureResult;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * JVM tests for choosing which 3A steps a still capture needs.
+ */
+public class CapturePlannerTest {
+    private static final Integer CONTINUOUS = CaptureResult.CONTROL_AF_MODE_CONTINUOUS_PICTURE;
+
+    @Test
+    public void fixedFocusSkipsFocusLock() {
+        assertEquals(CapturePath.DIRECT, CapturePlanner.plan(true, null, null,
+                CaptureResult.CONTROL_AE_STATE_CONVERGED, true));
+        assertEquals(CapturePath.PRECAPTURE_ONLY, CapturePlanner.plan(true, null, null,
+                CaptureResult.CONTROL_AE_STATE_SEARCHING, true));
+    }
+
+    @Test
+    public void passiveFocusSkipsFocusLock() {
+        assertEquals(CapturePath.DIRECT, CapturePlanner.plan(false, CONTINUOUS,
+                CaptureResult.CONTROL_AF_STATE_PASSIVE_FOCUSED,
+                CaptureResult.CONTROL_AE_STATE_CONVERGED, true));
+    }
+
+    @Test
+    public void scanningFocusIsLocked() {
+        assertEquals(CapturePath.FOCUS_ONLY, CapturePlanner.plan(false, CONTINUOUS,
+                CaptureResult.CONTROL_AF_STATE_PASSIVE_SCAN,
+                CaptureResult.CONTROL_AE_STATE_CONVERGED, true));
+        assertEquals(CapturePath.FOCUS_AND_PRECAPTURE, CapturePlanner.plan(false, CONTINUOUS,
+                CaptureResult.CONTROL_AF_STATE_PASSIVE_UNFOCUSED,
+                CaptureResult.CONTROL_AE_STATE_FLASH_REQUIRED, true));
+    }
+
+    @Test
+    public void inactiveContinuousFocusIsStillTriggered() {
+        assertEquals(CapturePath.FOCUS_ONLY, CapturePlanner.plan(false, CONTINUOUS,
+                CaptureResult.CONTROL_AF_STATE_INACTIVE, null, true));
+        assertEquals(CapturePath.DIRECT, CapturePlanner.plan(false,
+                CaptureResult.CONTROL_AF_MODE_OFF,
+                CaptureResult.CONTROL_AF_STATE_INACTIVE, null, true));
+    }
+
+    @Test
+    public void precaptureOnlyWhenRequested() {
+        assertEquals(CapturePath.DIRECT, CapturePlanner.plan(false, null, null,
+                CaptureResult.CONTROL_AE_STATE_SEARCHING, false));
+    }
+}
@@ -0,0 +1,77 @@
+package com.avalancheevantage.android.camera3;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JVM tests for choosing which frames are analyzed, using synthetic 30fps sensor timestamps.
+ */
+public class FrameDecimatorTest {
+    private static final long FRAME = 33_333_333L;
+
+    private FrameDecimator decimator;
+
+    @Before
+    public void setUp() {
+        decimator = new FrameDecimator();
+    }
+
+    /**
+     * @return how many of <code>frames</code> 30fps frames are accepted
+     */
+    private int acceptedOf(int frames, long jitter) {
+        int accepted = 0;
+        for (int i = 0; i < frames; i++) {
+            // alternate early and late frames
+            long timestamp = i * FRAME + (i % 2 == 0 ? -jitter : jitter);
+            if (decimator.accept(timestamp)) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    @Test
+    public void acceptsEveryFrameByDefault() {
+        assertEquals(30, acceptedOf(30, 0));
+    }
+
+    @Test
+    public void acceptsEveryNthFrame() {
+        decimator.setFrameInterval(3);
+        // frames 0, 3, 6, ... 27
+        assertEquals(10, acceptedOf(30, 0));
+    }
+
+    @Test
+    public void limitsTheFrameRateDespiteJitter() {
+        decimator.setMaxFrameRate(15);
+        assertEquals(15, acceptedOf(30, 1_000_000L));
+    }
+
+    @Test
+    public void neverAcceptsMoreThanTheMaximumRate() {
+        decimator.setMaxFrameRate(20);
+        int accepted = acceptedOf(60, 0);
+        assertTrue("accepted " + accepted, accepted <= 40);
+        assertTrue("accepted " + accepted, accepted >= 30);
+    }
+
+    @Test
+    public void resetAcceptsTheNextFrame() {
+        decimator.setFrameInterval(4);
+        assertTrue(decimator.accept(0));
+        assertFalse(decimator.accept(FRAME));
+        decimator.reset();
+        assertTrue(decimator.accept(2 * FRAME));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnIntervalBelowOne() {
+        decimator.setFrameInterval(0);
+    }
+}
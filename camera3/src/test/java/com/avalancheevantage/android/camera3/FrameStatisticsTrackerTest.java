@@ -0,0 +1,121 @@
+package com.avalancheevantage.android.camera3;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * JVM tests for the frame rate, jitter and drop statistics, using synthetic sensor timestamps.
+ */
+public class FrameStatisticsTrackerTest {
+    private static final long FRAME_30FPS = 33_333_333L;
+    private static final long FRAME_15FPS = 66_666_666L;
+
+    private FrameStatisticsTracker tracker;
+    private long now;
+    private long frameNumber;
+
+    @Before
+    public void setUp() {
+        tracker = new FrameStatisticsTracker();
+        now = 0;
+        frameNumber = 0;
+    }
+
+    private void frames(int count, long interval) {
+        for (int i = 0; i < count; i++) {
+            now += interval;
+            tracker.onFrame(frameNumber++, now);
+        }
+    }
+
+    @Test
+    public void measuresFrameRate() {
+        frames(100, FRAME_30FPS);
+        FrameStatistics stats = tracker.snapshot();
+        assertEquals(100, stats.getFrameCount());
+        assertEquals(30.0, stats.getFramesPerSecond(), 0.01);
+        assertEquals(FRAME_30FPS, stats.getMeanIntervalNanos(), 1);
+        assertEquals(0, stats.getJitterNanos());
+        assertEquals(0, stats.getDroppedFrames());
+        assertEquals(99, stats.getIntervalHistogram()[33]);
+    }
+
+    @Test
+    public void frameRateFollowsTheLatestFrames() {
+        frames(300, FRAME_30FPS);
+        // the device falls to 15fps in low light
+        frames(FrameStatistics.WINDOW_FRAMES, FRAME_15FPS);
+        FrameStatistics stats = tracker.snapshot();
+        assertEquals(15.0, stats.getFramesPerSecond(), 0.01);
+        int[] histogram = stats.getIntervalHistogram();
+        assertEquals(299, histogram[33]);
+        assertEquals(FrameStatistics.WINDOW_FRAMES, histogram[66]);
+    }
+
+    @Test
+    public void measuresJitter() {
+        // alternating 23ms and 43ms: the mean is 33ms, and each interval is 10ms from it
+        for (int i = 0; i < 40; i++) {
+            now += i % 2 == 0 ? 23_000_000L : 43_000_000L;
+            tracker.onFrame(frameNumber++, now);
+        }
+        FrameStatistics stats = tracker.snapshot();
+        assertEquals(33_000_000L, stats.getMeanIntervalNanos(), 600_000L);
+        assertEquals(10_000_000L, stats.getJitterNanos(), 100_000L);
+    }
+
+    @Test
+    public void countsSkippedFrameNumbersAsDropped() {
+        frames(10, FRAME_30FPS);
+        frameNumber += 3;
+        frames(10, FRAME_30FPS);
+        assertEquals(3, tracker.snapshot().getDroppedFrames());
+    }
+
+    @Test
+    public void otherRequestsAndFailuresAreNotDrops() {
+        frames(10, FRAME_30FPS);
+        // a still capture
+        tracker.onOtherFrame(frameNumber++);
+        tracker.onFailure(frameNumber++);
+        frames(10, FRAME_30FPS);
+        FrameStatistics stats = tracker.snapshot();
+        assertEquals(0, stats.getDroppedFrames());
+        assertEquals(1, stats.getFailedCaptures());
+    }
+
+    @Test
+    public void lateResultsAreNotDrops() {
+        frames(10, FRAME_30FPS);
+        long late = frameNumber++;
+        frames(1, FRAME_30FPS);
+        assertEquals(1, tracker.snapshot().getDroppedFrames());
+        // the failure for the skipped frame arrives after the next frame
+        tracker.onFailure(late);
+        assertEquals(0, tracker.snapshot().getDroppedFrames());
+    }
+
+    @Test
+    public void longIntervalsGoInTheLastBucket() {
+        frames(1, FRAME_30FPS);
+        frames(1, 2_000_000_000L);
+        int[] histogram = tracker.snapshot().getIntervalHistogram();
+        assertEquals(1, histogram[FrameStatistics.HISTOGRAM_BUCKETS - 1]);
+    }
+
+    @Test
+    public void resetForgetsEverything() {
+        frames(10, FRAME_30FPS);
+        tracker.onBufferLost();
+        tracker.reset();
+        FrameStatistics stats = tracker.snapshot();
+        assertEquals(0, stats.getFrameCount());
+        assertEquals(0, stats.getFramesPerSecond(), 0);
+        assertEquals(0, stats.getLostBuffers());
+        // frame numbers start over in a new session
+        tracker.onFrame(0, 1);
+        assertEquals(0, tracker.snapshot().getDroppedFrames());
+    }
+}
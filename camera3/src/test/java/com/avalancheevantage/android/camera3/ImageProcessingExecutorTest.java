@@ -0,0 +1,124 @@
+package com.avalancheevantage.android.camera3;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JVM tests for the bounded image processing executor, using a task that blocks the only
+ * thread to fill the queue.
+ */
+public class ImageProcessingExecutorTest {
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private ImageProcessingExecutor executor;
+    private CountDownLatch release;
+    private CountDownLatch started;
+
+    @Before
+    public void setUp() {
+        executor = new ImageProcessingExecutor(1, 2);
+        release = new CountDownLatch(1);
+        started = new CountDownLatch(1);
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        executor.shutdown();
+    }
+
+    private void blockThread() throws InterruptedException {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    private Runnable recordThread(final AtomicReference<Thread> ranOn,
+                                  final CountDownLatch done) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                ranOn.set(Thread.currentThread());
+                done.countDown();
+            }
+        };
+    }
+
+    @Test
+    public void runsTasksOffTheCallingThread() throws InterruptedException {
+        AtomicReference<Thread> ranOn = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        executor.execute(recordThread(ranOn, done));
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertNotSame(Thread.currentThread(), ranOn.get());
+    }
+
+    @Test
+    public void measuresQueueDepthAndWaitTime() throws InterruptedException {
+        blockThread();
+        CountDownLatch done = new CountDownLatch(2);
+        executor.execute(recordThread(new AtomicReference<Thread>(), done));
+        executor.execute(recordThread(new AtomicReference<Thread>(), done));
+        assertEquals(2, executor.snapshot().getQueueDepth());
+
+        Thread.sleep(20);
+        release.countDown();
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        ImageProcessingStats stats = executor.snapshot();
+        assertEquals(2, stats.getMaxQueueDepth());
+        assertEquals(0, stats.getOverflowTaskCount());
+        assertEquals(3, stats.getWaitTimeHistogram().getCount());
+        // the queued tasks waited for the blocking one
+        assertTrue(stats.getWaitTimeHistogram().getMaxNanos() >=
+                TimeUnit.MILLISECONDS.toNanos(20));
+    }
+
+    @Test
+    public void overflowsWhenTheQueueIsFull() throws InterruptedException {
+        blockThread();
+        executor.execute(recordThread(new AtomicReference<Thread>(), new CountDownLatch(1)));
+        executor.execute(recordThread(new AtomicReference<Thread>(), new CountDownLatch(1)));
+
+        AtomicReference<Thread> ranOn = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        executor.execute(recordThread(ranOn, done));
+        // runs even though the pool thread is still blocked
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertNotSame(Thread.currentThread(), ranOn.get());
+        assertEquals(1, executor.snapshot().getOverflowTaskCount());
+    }
+
+    @Test
+    public void overflowsAfterShutdown() throws InterruptedException {
+        executor.shutdown();
+        AtomicReference<Thread> ranOn = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        executor.execute(recordThread(ranOn, done));
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertNotSame(Thread.currentThread(), ranOn.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnEmptyPool() {
+        new ImageProcessingExecutor(0, 1);
+    }
+}
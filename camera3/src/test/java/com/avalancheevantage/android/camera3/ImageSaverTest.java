@@ -0,0 +1,126 @@
+package com.avalancheevantage.android.camera3;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JVM tests for writing image buffers to files, with synthetic direct buffers standing in for
+ * JPEG planes. Also includes a micro-benchmark that compares how much the channel write and
+ * the old copy-to-heap path allocate.
+ */
+public class ImageSaverTest {
+    // about the size of a 12MP JPEG
+    private static final int JPEG_BYTES = 4 * 1024 * 1024;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("ImageSaverTest", ".jpg");
+    }
+
+    @After
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    private static ByteBuffer jpegPlane(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        buffer.put(bytes);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static long writeWithChannel(ByteBuffer buffer, File file) throws IOException {
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            return ImageSaver.write(buffer, output.getChannel());
+        }
+    }
+
+    /**
+     * How {@link ImageSaver} used to write: copy the whole plane to a heap array first
+     */
+    private static long writeWithCopy(ByteBuffer buffer, File file) throws IOException {
+        ByteBuffer source = buffer.duplicate();
+        byte[] bytes = new byte[source.remaining()];
+        source.get(bytes);
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write(bytes);
+        }
+        return bytes.length;
+    }
+
+    @Test
+    public void writesTheRemainingBytes() throws IOException {
+        ByteBuffer buffer = jpegPlane(1000);
+        buffer.position(10);
+        assertEquals(990, writeWithChannel(buffer, file));
+
+        byte[] expected = new byte[990];
+        buffer.duplicate().get(expected);
+        assertArrayEquals(expected, Files.readAllBytes(file.toPath()));
+        // the caller's view of the buffer is untouched
+        assertEquals(10, buffer.position());
+    }
+
+    @Test
+    public void writesAnEmptyBuffer() throws IOException {
+        assertEquals(0, writeWithChannel(ByteBuffer.allocateDirect(0), file));
+        assertEquals(0, file.length());
+    }
+
+    @Test
+    public void channelWriteDoesNotCopyThePlaneToTheHeap() throws IOException {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+        ByteBuffer plane = jpegPlane(JPEG_BYTES);
+
+        // warm up so the measured writes run compiled code
+        for (int i = 0; i < 3; i++) {
+            writeWithCopy(plane, file);
+            writeWithChannel(plane, file);
+        }
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        writeWithCopy(plane, file);
+        long copy = threads.getThreadAllocatedBytes(threadId) - before;
+
+        before = threads.getThreadAllocatedBytes(threadId);
+        writeWithChannel(plane, file);
+        long channel = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals(JPEG_BYTES, file.length());
+        assertTrue("copy path allocated " + copy + " bytes", copy >= JPEG_BYTES);
+        // opening and closing the file allocates a little
+        assertTrue("channel path allocated " + channel + " bytes", channel < JPEG_BYTES / 64);
+    }
+
+    @Test
+    public void writesAWholeJpegSizedPlane() throws IOException {
+        ByteBuffer plane = jpegPlane(JPEG_BYTES);
+        assertEquals(JPEG_BYTES, writeWithChannel(plane, file));
+        assertEquals(JPEG_BYTES, file.length());
+    }
+}
@@ -0,0 +1,252 @@
+package com.avalancheevantage.android.camera3;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JVM tests for the image write pipeline, writing synthetic direct buffers to a temporary
+ * directory.
+ */
+public class ImageWritePipelineTest {
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private File directory;
+    private ImageWritePipeline pipeline;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("ImageWritePipelineTest").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        if (pipeline != null) {
+            pipeline.shutdown();
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        directory.delete();
+    }
+
+    private static ByteBuffer buffer(int size) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        for (int i = 0; i < size; i++) {
+            buffer.put((byte) i);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static class Listener implements ImageWriteListener {
+        final Set<File> written = Collections.synchronizedSet(new HashSet<File>());
+        final Set<File> failed = Collections.synchronizedSet(new HashSet<File>());
+        final CountDownLatch done;
+
+        Listener(int files) {
+            done = new CountDownLatch(files);
+        }
+
+        @Override
+        public void onImageWritten(File file, long bytes) {
+            written.add(file);
+            done.countDown();
+        }
+
+        @Override
+        public void onImageWriteFailed(File file, IOException error) {
+            failed.add(file);
+            done.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+    }
+
+    private void assertNoTemporaryFiles() {
+        File[] files = directory.listFiles();
+        assertNotNull(files);
+        for (File file : files) {
+            assertFalse(file.getName(), file.getName().endsWith(ImageWritePipeline.TEMP_SUFFIX));
+        }
+    }
+
+    private static class Release implements Runnable {
+        final AtomicInteger count = new AtomicInteger(0);
+
+        @Override
+        public void run() {
+            count.incrementAndGet();
+        }
+    }
+
+    @Test
+    public void writesTheFileAndRemovesTheTemporaryFile() throws Exception {
+        pipeline = new ImageWritePipeline(1, 4, ImageWritePipeline.Durability.EACH_FILE);
+        File file = new File(directory, "a.jpg");
+        Listener listener = new Listener(1);
+        Release release = new Release();
+
+        assertTrue(pipeline.write(buffer(1000), release, file, listener));
+        listener.await();
+
+        assertTrue(listener.written.contains(file));
+        assertEquals(1, release.count.get());
+        byte[] expected = new byte[1000];
+        buffer(1000).get(expected);
+        assertArrayEquals(expected, Files.readAllBytes(file.toPath()));
+        assertNoTemporaryFiles();
+        assertEquals(1, pipeline.getFilesWritten());
+        assertEquals(1000, pipeline.getBytesWritten());
+        assertTrue(pipeline.getBytesPerSecond() > 0);
+    }
+
+    @Test
+    public void reportsFailuresWithoutLeavingFiles() throws Exception {
+        pipeline = new ImageWritePipeline(1, 4, ImageWritePipeline.Durability.NONE);
+        File file = new File(new File(directory, "missing"), "a.jpg");
+        Listener listener = new Listener(1);
+        Release release = new Release();
+
+        assertTrue(pipeline.write(buffer(10), release, file, listener));
+        listener.await();
+
+        assertTrue(listener.failed.contains(file));
+        // the buffer is given back even though nothing was written
+        assertEquals(1, release.count.get());
+        assertFalse(file.exists());
+        assertEquals(1, pipeline.getFilesFailed());
+    }
+
+    @Test
+    public void refusesWritesWhenTheQueueIsFull() throws Exception {
+        pipeline = new ImageWritePipeline(1, 1, ImageWritePipeline.Durability.NONE);
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch unblock = new CountDownLatch(1);
+        Listener listener = new Listener(2);
+        // the release of the first write holds up the only writer
+        pipeline.write(buffer(10), new Runnable() {
+            @Override
+            public void run() {
+                writing.countDown();
+                try {
+                    unblock.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, new File(directory, "0.jpg"), listener);
+        assertTrue(writing.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(pipeline.write(buffer(10), new Release(), new File(directory, "1.jpg"),
+                listener));
+        assertEquals(1, pipeline.getQueueDepth());
+
+        Release refused = new Release();
+        assertFalse(pipeline.write(buffer(10), refused, new File(directory, "2.jpg"),
+                listener));
+        assertEquals(1, refused.count.get());
+        assertEquals(1, pipeline.getFilesRefused());
+
+        unblock.countDown();
+        listener.await();
+        assertEquals(2, listener.written.size());
+        assertEquals(1, pipeline.getMaxQueueDepth());
+    }
+
+    @Test
+    public void commitsGroupedFilesOnceTheQueueRunsDry() throws Exception {
+        pipeline = new ImageWritePipeline(2, 16, ImageWritePipeline.Durability.GROUPED, 3);
+        int files = 10;
+        Listener listener = new Listener(files);
+        for (int i = 0; i < files; i++) {
+            assertTrue(pipeline.write(buffer(100), new Release(),
+                    new File(directory, i + ".jpg"), listener));
+        }
+        listener.await();
+
+        assertEquals(files, listener.written.size());
+        for (File file : listener.written) {
+            assertEquals(100, file.length());
+        }
+        assertNoTemporaryFiles();
+    }
+
+    @Test
+    public void commitsTheGroupWhenTheLastWriteFails() throws Exception {
+        pipeline = new ImageWritePipeline(1, 16, ImageWritePipeline.Durability.GROUPED);
+        Listener listener = new Listener(3);
+        final CountDownLatch unblock = new CountDownLatch(1);
+        // holds the writer until the other writes are queued, so the group isn't synced early
+        Runnable blockingRelease = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    unblock.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        File first = new File(directory, "a.jpg");
+        File second = new File(directory, "b.jpg");
+        File failing = new File(new File(directory, "missing"), "c.jpg");
+        assertTrue(pipeline.write(buffer(10), blockingRelease, first, listener));
+        assertTrue(pipeline.write(buffer(10), new Release(), second, listener));
+        assertTrue(pipeline.write(buffer(10), new Release(), failing, listener));
+        unblock.countDown();
+        listener.await();
+
+        assertTrue(listener.written.contains(first));
+        assertTrue(listener.written.contains(second));
+        assertTrue(listener.failed.contains(failing));
+        assertNoTemporaryFiles();
+    }
+
+    @Test
+    public void temporaryFilesAreUnique() throws IOException {
+        File file = new File(directory, "a.jpg");
+        File first = ImageWritePipeline.tempFileFor(file);
+        File second = ImageWritePipeline.tempFileFor(file);
+        assertNotEquals(first, second);
+        assertEquals(directory.getAbsoluteFile(), first.getParentFile());
+        assertTrue(first.getName().startsWith("a.jpg"));
+        assertTrue(first.getName().endsWith(ImageWritePipeline.TEMP_SUFFIX));
+    }
+
+    @Test
+    public void deletesIncompleteFiles() throws IOException {
+        File complete = new File(directory, "a.jpg");
+        File incomplete = ImageWritePipeline.tempFileFor(new File(directory, "b.jpg"));
+        assertTrue(complete.createNewFile());
+        assertTrue(incomplete.exists());
+
+        assertEquals(1, ImageWritePipeline.deleteIncompleteFiles(directory));
+        assertTrue(complete.exists());
+        assertFalse(incomplete.exists());
+    }
+}
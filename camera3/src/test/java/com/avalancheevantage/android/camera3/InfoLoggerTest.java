@@ -0,0 +1,124 @@
+package com.avalancheevantage.android.camera3;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JVM tests for level-gated info logging, including a check that the per-frame logging path
+ * allocates nothing when info logging is turned off.
+ */
+public class InfoLoggerTest {
+    private static final int ITERATIONS = 1_000_000;
+
+    private static class RecordingHandler implements LeveledErrorHandler {
+        final List<String> messages = new ArrayList<>();
+        boolean infoEnabled;
+
+        RecordingHandler(boolean infoEnabled) {
+            this.infoEnabled = infoEnabled;
+        }
+
+        @Override
+        public boolean isInfoEnabled() {
+            return infoEnabled;
+        }
+
+        @Override
+        public void error(String message, Exception e) {
+        }
+
+        @Override
+        public void warning(String message) {
+        }
+
+        @Override
+        public void info(String message) {
+            messages.add(message);
+        }
+    }
+
+    @Test
+    public void fillsPlaceholdersInOrder() {
+        assertEquals("a 1 b 2 c", InfoLogger.format("a {} b {} c", "1", "2"));
+        assertEquals("only 1, {}", InfoLogger.format("only {}, {}", "1", null));
+        assertEquals("no placeholders", InfoLogger.format("no placeholders", "1", "2"));
+        assertEquals("x x", InfoLogger.format("{} {}", "x", "x"));
+    }
+
+    @Test
+    public void skipsMessagesWhenDisabled() {
+        RecordingHandler handler = new RecordingHandler(false);
+        InfoLogger log = new InfoLogger(handler);
+        log.info("Processing capture result. (State: {})", TimeUnit.SECONDS);
+        assertTrue(handler.messages.isEmpty());
+
+        handler.infoEnabled = true;
+        log.info("Processing capture result. (State: {})", TimeUnit.SECONDS);
+        log.info("About {} requests left in queue.", 3);
+        assertEquals("Processing capture result. (State: SECONDS)", handler.messages.get(0));
+        assertEquals("About 3 requests left in queue.", handler.messages.get(1));
+    }
+
+    @Test
+    public void plainErrorHandlerAlwaysGetsInfo() {
+        final List<String> messages = new ArrayList<>();
+        InfoLogger log = new InfoLogger(new ErrorHandler() {
+            @Override
+            public void error(String message, Exception e) {
+            }
+
+            @Override
+            public void warning(String message) {
+            }
+
+            @Override
+            public void info(String message) {
+                messages.add(message);
+            }
+        });
+        assertTrue(log.isEnabled());
+        log.info("frame {}", 7L);
+        assertEquals("frame 7", messages.get(0));
+    }
+
+    @Test
+    public void disabledLoggingAllocatesNothing() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        RecordingHandler handler = new RecordingHandler(false);
+        InfoLogger log = new InfoLogger(handler);
+        Object state = TimeUnit.MILLISECONDS;
+        long threadId = Thread.currentThread().getId();
+
+        // warm up so the measured loop runs compiled code
+        runGated(log, state, ITERATIONS);
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        runGated(log, state, ITERATIONS);
+        long gated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        // allow a little slack for the measurement itself
+        assertTrue("gated logging allocated " + gated + " bytes", gated < 1024);
+        assertTrue(handler.messages.isEmpty());
+    }
+
+    private static void runGated(InfoLogger log, Object state, int iterations) {
+        for (int i = 0; i < iterations; i++) {
+            log.info("Processing capture result. (State: {})", state);
+            log.info("About {} requests left in queue.", i);
+        }
+    }
+}
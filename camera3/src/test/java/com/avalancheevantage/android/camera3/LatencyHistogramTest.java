@@ -0,0 +1,74 @@
+package com.avalancheevantage.android.camera3;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JVM tests for the logarithmic latency histogram.
+ */
+public class LatencyHistogramTest {
+    private static final long MS = 1_000_000L;
+
+    @Test
+    public void bucketsAreContiguous() {
+        int last = -1;
+        for (long micros = 0; micros < 1 << 20; micros++) {
+            int bucket = LatencyHistogram.bucketOf(micros);
+            assertTrue(bucket == last || bucket == last + 1);
+            assertTrue(LatencyHistogram.bucketStart(bucket) <= micros);
+            last = bucket;
+        }
+    }
+
+    @Test
+    public void bucketsAreWithinAnEighth() {
+        for (int bucket = 8; bucket < 150; bucket++) {
+            long start = LatencyHistogram.bucketStart(bucket);
+            long width = LatencyHistogram.bucketStart(bucket + 1) - start;
+            assertTrue(width * 8 <= start);
+            assertEquals(bucket, LatencyHistogram.bucketOf(start));
+        }
+    }
+
+    @Test
+    public void reportsPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * MS);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(MS, histogram.getMinNanos());
+        assertEquals(100 * MS, histogram.getMaxNanos());
+        assertEquals(50_500_000L, histogram.getMeanNanos());
+        assertWithinAnEighth(50 * MS, histogram.getPercentileNanos(50));
+        assertWithinAnEighth(90 * MS, histogram.getPercentileNanos(90));
+        assertEquals(100 * MS, histogram.getPercentileNanos(100));
+        assertWithinAnEighth(MS, histogram.getPercentileNanos(0));
+    }
+
+    @Test
+    public void hugeLatenciesGoInTheLastBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(3_600_000 * MS);
+        assertEquals(3_600_000 * MS, histogram.getPercentileNanos(50));
+    }
+
+    @Test
+    public void copiesAreIndependent() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(5 * MS);
+        LatencyHistogram copy = histogram.copy();
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileNanos(50));
+        assertEquals(1, copy.getCount());
+        assertEquals(5 * MS, copy.getMaxNanos());
+    }
+
+    private static void assertWithinAnEighth(long expected, long actual) {
+        assertTrue("expected about " + expected + " but was " + actual,
+                actual >= expected && actual <= expected + expected / 8);
+    }
+}
@@ -0,0 +1,88 @@
+package com.avalancheevantage.android.camera3;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JVM tests for counting the preview frames skipped by a capture, using synthetic 30fps
+ * sensor timestamps.
+ */
+public class PreviewGapTrackerTest {
+    private static final long FRAME = 33_333_333L;
+
+    private PreviewGapTracker tracker;
+    private List<CaptureReport> closed;
+    private long now;
+
+    @Before
+    public void setUp() {
+        tracker = new PreviewGapTracker();
+        closed = new ArrayList<>();
+        now = 0;
+        // learn the normal frame interval
+        for (int i = 0; i < 10; i++) {
+            frame(FRAME);
+        }
+    }
+
+    private void frame(long delta) {
+        now += delta;
+        tracker.onPreviewFrame(now, closed);
+    }
+
+    @Test
+    public void countsFramesMissingWhilePreviewWasStopped() {
+        CaptureReport report = new CaptureReport(null);
+        tracker.begin(report);
+        frame(FRAME);
+        tracker.complete(report);
+        // preview was stopped for the capture and comes back 5 frames later
+        frame(5 * FRAME);
+        assertEquals(1, closed.size());
+        assertEquals(4, report.getSkippedPreviewFrames());
+    }
+
+    @Test
+    public void uninterruptedPreviewSkipsNothing() {
+        CaptureReport report = new CaptureReport(null);
+        tracker.begin(report);
+        frame(FRAME);
+        frame(FRAME + 2_000_000L);
+        tracker.complete(report);
+        assertTrue(closed.isEmpty());
+        frame(FRAME - 2_000_000L);
+        assertEquals(1, closed.size());
+        assertEquals(0, report.getSkippedPreviewFrames());
+    }
+
+    @Test
+    public void overlappingCapturesAreCountedSeparately() {
+        CaptureReport first = new CaptureReport(null);
+        CaptureReport second = new CaptureReport(null);
+        tracker.begin(first);
+        frame(3 * FRAME);
+        tracker.begin(second);
+        tracker.complete(first);
+        frame(2 * FRAME);
+        tracker.complete(second);
+        frame(FRAME);
+        assertEquals(2, closed.size());
+        assertEquals(3, first.getSkippedPreviewFrames());
+        assertEquals(1, second.getSkippedPreviewFrames());
+    }
+
+    @Test
+    public void resetReturnsOpenReports() {
+        CaptureReport report = new CaptureReport(null);
+        tracker.begin(report);
+        assertEquals(1, tracker.reset().size());
+        frame(FRAME);
+        assertTrue(closed.isEmpty());
+    }
+}
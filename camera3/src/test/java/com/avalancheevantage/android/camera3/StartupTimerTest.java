@@ -0,0 +1,85 @@
+package com.avalancheevantage.android.camera3;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JVM tests for timing the phases of a session startup, using made-up timestamps.
+ */
+public class StartupTimerTest {
+    private static final long MS = 1_000_000L;
+
+    @Test
+    public void reportsEachPhase() {
+        StartupTimer timer = new StartupTimer();
+        timer.begin(StartupPhase.CONSTRUCTOR, 0);
+        timer.end(StartupPhase.CONSTRUCTOR, 2 * MS);
+        timer.startSession("0", 10 * MS);
+        timer.begin(StartupPhase.CAMERA_OPEN, 11 * MS);
+        timer.begin(StartupPhase.PREVIEW_SIZE_SELECTION, 12 * MS);
+        timer.end(StartupPhase.PREVIEW_SIZE_SELECTION, 13 * MS);
+        timer.end(StartupPhase.CAMERA_OPEN, 60 * MS);
+        timer.begin(StartupPhase.SESSION_CONFIGURE, 61 * MS);
+        timer.end(StartupPhase.SESSION_CONFIGURE, 150 * MS);
+        timer.begin(StartupPhase.FIRST_FRAME, 151 * MS);
+        timer.end(StartupPhase.FIRST_FRAME, 200 * MS);
+
+        StartupReport report = timer.finish();
+        assertEquals("0", report.getCameraId());
+        assertEquals(2, report.getDuration(StartupPhase.CONSTRUCTOR, TimeUnit.MILLISECONDS));
+        assertEquals(49, report.getDuration(StartupPhase.CAMERA_OPEN, TimeUnit.MILLISECONDS));
+        assertEquals(61 * MS, report.getStartNanos(StartupPhase.SESSION_CONFIGURE));
+        assertEquals(200 * MS, report.getEndNanos(StartupPhase.FIRST_FRAME));
+        // measured from the session start, not the constructor
+        assertEquals(190, report.getTotalDuration(TimeUnit.MILLISECONDS));
+        assertFalse(report.hasPhase(StartupPhase.BACKGROUND_THREAD_START));
+        assertEquals(StartupReport.MISSING,
+                report.getDuration(StartupPhase.BACKGROUND_THREAD_START, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void keepsTheFirstRunOfAPhase() {
+        StartupTimer timer = new StartupTimer();
+        timer.startSession("1", 0);
+        timer.begin(StartupPhase.CAMERA_OPEN, MS);
+        timer.end(StartupPhase.CAMERA_OPEN, 5 * MS);
+        // the camera was reopened
+        timer.begin(StartupPhase.CAMERA_OPEN, 6 * MS);
+        timer.end(StartupPhase.CAMERA_OPEN, 30 * MS);
+        // ending a phase that never began does nothing
+        timer.end(StartupPhase.SESSION_CONFIGURE, 31 * MS);
+
+        StartupReport report = timer.finish();
+        assertEquals(4, report.getDuration(StartupPhase.CAMERA_OPEN, TimeUnit.MILLISECONDS));
+        assertFalse(report.hasPhase(StartupPhase.SESSION_CONFIGURE));
+    }
+
+    @Test
+    public void leavesOutUnfinishedPhases() {
+        StartupTimer timer = new StartupTimer();
+        timer.startSession("0", 0);
+        timer.begin(StartupPhase.FIRST_FRAME, MS);
+        assertTrue(timer.hasBegun(StartupPhase.FIRST_FRAME));
+        StartupReport report = timer.finish();
+        assertFalse(report.hasPhase(StartupPhase.FIRST_FRAME));
+        assertEquals(StartupReport.MISSING, report.getStartNanos(StartupPhase.FIRST_FRAME));
+        assertEquals(0, report.getTotalDuration(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void reportsOnlyOnce() {
+        StartupTimer timer = new StartupTimer();
+        // no session yet
+        assertNull(timer.finish());
+        timer.startSession("0", 0);
+        assertTrue(timer.isSessionStarted());
+        timer.finish();
+        assertNull(timer.finish());
+    }
+}
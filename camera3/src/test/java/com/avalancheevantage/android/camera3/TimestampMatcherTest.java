@@ -0,0 +1,114 @@
+package com.avalancheevantage.android.camera3;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JVM tests for pairing images with capture results by sensor timestamp. Strings stand in for
+ * both halves.
+ */
+public class TimestampMatcherTest {
+    private static final long FRAME = 33_333_333L;
+
+    private final List<String> matched = new ArrayList<>();
+    private final List<String> droppedImages = new ArrayList<>();
+    private final List<String> droppedResults = new ArrayList<>();
+    private TimestampMatcher<String, String> matcher;
+
+    @Before
+    public void setUp() {
+        matcher = new TimestampMatcher<>(2, new TimestampMatcher.Listener<String, String>() {
+            @Override
+            public void onMatched(long timestamp, @NonNull String image, @NonNull String result) {
+                matched.add(image + "+" + result);
+            }
+
+            @Override
+            public void onImageDropped(@NonNull String image) {
+                droppedImages.add(image);
+            }
+
+            @Override
+            public void onResultDropped(@NonNull String result) {
+                droppedResults.add(result);
+            }
+        });
+    }
+
+    @Test
+    public void matchesImageFirst() {
+        matcher.addImage(FRAME, "image1");
+        assertTrue(matched.isEmpty());
+        matcher.addResult(FRAME, "result1");
+        assertEquals(Collections.singletonList("image1+result1"), matched);
+        assertEquals(0, matcher.pendingImages());
+        assertEquals(0, matcher.pendingResults());
+    }
+
+    @Test
+    public void matchesResultFirst() {
+        matcher.addResult(FRAME, "result1");
+        matcher.addImage(FRAME, "image1");
+        assertEquals(Collections.singletonList("image1+result1"), matched);
+    }
+
+    @Test
+    public void matchesOutOfOrder() {
+        matcher.addImage(FRAME, "image1");
+        matcher.addImage(2 * FRAME, "image2");
+        matcher.addResult(2 * FRAME, "result2");
+        matcher.addResult(FRAME, "result1");
+        assertEquals(Arrays.asList("image2+result2", "image1+result1"), matched);
+        assertTrue(droppedImages.isEmpty());
+    }
+
+    @Test
+    public void dropsImageWhoseResultNeverArrives() {
+        matcher.addImage(FRAME, "image1");
+        matcher.addImage(2 * FRAME, "image2");
+        // result 1 was lost, so image 1 is pushed out once the matcher is full
+        matcher.addImage(3 * FRAME, "image3");
+        assertEquals(Collections.singletonList("image1"), droppedImages);
+        matcher.addResult(3 * FRAME, "result3");
+        assertEquals(Collections.singletonList("image3+result3"), matched);
+        assertEquals(1, matcher.pendingImages());
+    }
+
+    @Test
+    public void dropsResultWhoseImageNeverArrives() {
+        matcher.addResult(FRAME, "result1");
+        matcher.addResult(2 * FRAME, "result2");
+        matcher.addResult(3 * FRAME, "result3");
+        assertEquals(Collections.singletonList("result1"), droppedResults);
+        assertEquals(Arrays.asList("result2", "result3"), matcher.drainResults());
+        assertEquals(0, matcher.pendingResults());
+    }
+
+    @Test
+    public void removesResultWhoseImageWasLost() {
+        matcher.addResult(FRAME, "result1");
+        assertEquals("result1", matcher.removeResult(FRAME));
+        assertNull(matcher.removeResult(FRAME));
+        matcher.addImage(FRAME, "image1");
+        assertTrue(matched.isEmpty());
+        assertTrue(droppedResults.isEmpty());
+    }
+
+    @Test
+    public void drainDoesNotCallListener() {
+        matcher.addImage(FRAME, "image1");
+        assertEquals(Collections.singletonList("image1"), matcher.drainImages());
+        assertTrue(droppedImages.isEmpty());
+    }
+}
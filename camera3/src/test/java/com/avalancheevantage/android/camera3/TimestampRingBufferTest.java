@@ -0,0 +1,89 @@
+package com.avalancheevantage.android.camera3;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JVM tests for the timestamp index behind zero-shutter-lag capture. Timestamps are synthetic
+ * nanosecond values spaced like a 30fps stream.
+ */
+public class TimestampRingBufferTest {
+    private static final long FRAME = 33_333_333L;
+
+    @Test
+    public void evictsOldestWhenFull() {
+        TimestampRingBuffer<String> ring = new TimestampRingBuffer<>(3);
+        assertNull(ring.put(FRAME, "a"));
+        assertNull(ring.put(2 * FRAME, "b"));
+        assertNull(ring.put(3 * FRAME, "c"));
+        assertEquals("a", ring.put(4 * FRAME, "d"));
+        assertEquals("b", ring.put(5 * FRAME, "e"));
+        assertEquals(3, ring.size());
+        assertEquals(Arrays.asList("c", "d", "e"), ring.clear());
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    public void findsClosestFrameToTap() {
+        TimestampRingBuffer<String> ring = new TimestampRingBuffer<>(5);
+        for (int i = 1; i <= 5; i++) {
+            ring.put(i * FRAME, "frame" + i);
+        }
+        // tap lands a little after frame 3 was exposed
+        assertEquals(3 * FRAME, ring.closestTimestamp(3 * FRAME + 1_000_000L));
+        // tap after the newest frame
+        assertEquals(5 * FRAME, ring.closestTimestamp(100 * FRAME));
+        // tap before the oldest frame
+        assertEquals(FRAME, ring.closestTimestamp(0));
+        assertEquals("frame4", ring.removeClosest(4 * FRAME - 10));
+        assertEquals(4, ring.size());
+    }
+
+    @Test
+    public void tiesGoToEarlierFrame() {
+        TimestampRingBuffer<String> ring = new TimestampRingBuffer<>(2);
+        ring.put(100, "early");
+        ring.put(200, "late");
+        assertEquals("early", ring.removeClosest(150));
+    }
+
+    @Test
+    public void removeFromMiddleKeepsOrderAcrossWrap() {
+        TimestampRingBuffer<String> ring = new TimestampRingBuffer<>(4);
+        for (int i = 1; i <= 6; i++) {
+            ring.put(i * FRAME, "frame" + i);
+        }
+        // ring now wraps: frames 3..6
+        assertEquals("frame4", ring.remove(4 * FRAME));
+        assertNull(ring.remove(4 * FRAME));
+        assertNull(ring.put(7 * FRAME, "frame7"));
+        assertEquals("frame3", ring.put(8 * FRAME, "frame8"));
+        assertEquals(Arrays.asList("frame5", "frame6", "frame7", "frame8"), ring.clear());
+    }
+
+    @Test
+    public void duplicateTimestampReplacesValue() {
+        TimestampRingBuffer<String> ring = new TimestampRingBuffer<>(2);
+        ring.put(FRAME, "first");
+        assertEquals("first", ring.put(FRAME, "second"));
+        assertEquals(1, ring.size());
+        assertEquals("second", ring.get(FRAME));
+    }
+
+    @Test
+    public void emptyRing() {
+        TimestampRingBuffer<String> ring = new TimestampRingBuffer<>(2);
+        assertEquals(-1, ring.closestTimestamp(FRAME));
+        assertNull(ring.removeClosest(FRAME));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroCapacity() {
+        new TimestampRingBuffer<String>(0);
+    }
+}
@@ -0,0 +1,58 @@
+package com.avalancheevantage.android.camera3;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JVM tests for detecting changes in capture result values.
+ */
+public class ValueChangeFilterTest {
+
+    @Test
+    public void firstValueIsAChange() {
+        ValueChangeFilter filter = new ValueChangeFilter(1);
+        assertTrue(filter.offer(0, 2));
+        assertFalse(filter.offer(0, 2));
+        assertTrue(filter.offer(0, 4));
+    }
+
+    @Test
+    public void missingValuesAreIgnored() {
+        ValueChangeFilter filter = new ValueChangeFilter(2);
+        assertTrue(filter.offer(0, 1));
+        // a partial result without the key
+        assertFalse(filter.offer(0, null));
+        assertFalse(filter.offer(0, 1));
+        assertFalse(filter.offer(1, null));
+        assertTrue(filter.offer(1, 0));
+    }
+
+    @Test
+    public void slotsAreIndependent() {
+        ValueChangeFilter filter = new ValueChangeFilter(2);
+        filter.offer(0, 1);
+        filter.offer(1, 1);
+        assertTrue(filter.offer(1, 3));
+        assertFalse(filter.offer(0, 1));
+    }
+
+    @Test
+    public void comparesArraysByContent() {
+        ValueChangeFilter filter = new ValueChangeFilter(2);
+        assertTrue(filter.offer(0, new int[]{1, 2}));
+        assertFalse(filter.offer(0, new int[]{1, 2}));
+        assertTrue(filter.offer(0, new int[]{1, 3}));
+        assertTrue(filter.offer(1, new Object[]{"a"}));
+        assertFalse(filter.offer(1, new Object[]{"a"}));
+    }
+
+    @Test
+    public void resetForgetsValues() {
+        ValueChangeFilter filter = new ValueChangeFilter(1);
+        filter.offer(0, 5);
+        filter.reset();
+        assertTrue(filter.offer(0, 5));
+    }
+}
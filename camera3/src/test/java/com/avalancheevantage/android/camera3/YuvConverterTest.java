@@ -0,0 +1,167 @@
+package com.avalancheevantage.android.camera3;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * JVM tests for repacking YUV_420_888 planes, using synthetic planes with padded rows and
+ * interleaved or planar chroma like real devices produce.
+ */
+public class YuvConverterTest {
+    private static final int Y_PADDING = 24;
+    private static final int CHROMA_PADDING = 10;
+
+    // the value of each sample, so that every sample in the output can be checked
+    private static byte luma(int x, int y) {
+        return (byte) (x * 7 + y * 13);
+    }
+
+    private static byte u(int x, int y) {
+        return (byte) (x * 3 + y * 5 + 100);
+    }
+
+    private static byte v(int x, int y) {
+        return (byte) (x * 11 + y * 17 + 200);
+    }
+
+    private static ByteBuffer direct(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static YuvConverter.Plane lumaPlane(int width, int height) {
+        int rowStride = width + Y_PADDING;
+        // the last row has no padding
+        byte[] bytes = new byte[rowStride * (height - 1) + width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                bytes[y * rowStride + x] = luma(x, y);
+            }
+        }
+        return new YuvConverter.Plane(direct(bytes), rowStride, 1);
+    }
+
+    /**
+     * @return the U and V planes. With a pixel stride of 2 they share one interleaved buffer,
+     * like the semi-planar layout most devices use
+     */
+    private static YuvConverter.Plane[] chromaPlanes(int width, int height, int pixelStride) {
+        int chromaWidth = (width + 1) / 2;
+        int chromaHeight = (height + 1) / 2;
+        int rowStride = chromaWidth * pixelStride + CHROMA_PADDING;
+        int length = rowStride * (chromaHeight - 1) + (chromaWidth - 1) * pixelStride + 1;
+        if (pixelStride == 1) {
+            byte[] uBytes = new byte[length];
+            byte[] vBytes = new byte[length];
+            for (int y = 0; y < chromaHeight; y++) {
+                for (int x = 0; x < chromaWidth; x++) {
+                    uBytes[y * rowStride + x] = u(x, y);
+                    vBytes[y * rowStride + x] = v(x, y);
+                }
+            }
+            return new YuvConverter.Plane[]{
+                    new YuvConverter.Plane(direct(uBytes), rowStride, 1),
+                    new YuvConverter.Plane(direct(vBytes), rowStride, 1)};
+        }
+        // UVUV..., with the V plane starting one byte into the U plane
+        byte[] bytes = new byte[length + 1];
+        for (int y = 0; y < chromaHeight; y++) {
+            for (int x = 0; x < chromaWidth; x++) {
+                bytes[y * rowStride + x * pixelStride] = u(x, y);
+                bytes[y * rowStride + x * pixelStride + 1] = v(x, y);
+            }
+        }
+        ByteBuffer buffer = direct(bytes);
+        ByteBuffer uBuffer = buffer.duplicate();
+        uBuffer.limit(length);
+        buffer.position(1);
+        ByteBuffer vBuffer = buffer.slice();
+        return new YuvConverter.Plane[]{
+                new YuvConverter.Plane(uBuffer.slice(), rowStride, pixelStride),
+                new YuvConverter.Plane(vBuffer, rowStride, pixelStride)};
+    }
+
+    private static byte[] expected(int width, int height, YuvConverter.Layout layout) {
+        int chromaWidth = (width + 1) / 2;
+        int chromaHeight = (height + 1) / 2;
+        byte[] out = new byte[YuvConverter.getOutputSize(width, height)];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                out[y * width + x] = luma(x, y);
+            }
+        }
+        int start = width * height;
+        for (int y = 0; y < chromaHeight; y++) {
+            for (int x = 0; x < chromaWidth; x++) {
+                int i = y * chromaWidth + x;
+                if (layout == YuvConverter.Layout.NV21) {
+                    out[start + 2 * i] = v(x, y);
+                    out[start + 2 * i + 1] = u(x, y);
+                } else {
+                    out[start + i] = u(x, y);
+                    out[start + chromaWidth * chromaHeight + i] = v(x, y);
+                }
+            }
+        }
+        return out;
+    }
+
+    private static void check(YuvConverter converter, int width, int height, int pixelStride,
+                              YuvConverter.Layout layout) {
+        YuvConverter.Plane[] chroma = chromaPlanes(width, height, pixelStride);
+        byte[] out = converter.convert(width, height, lumaPlane(width, height),
+                chroma[0], chroma[1], layout);
+        assertArrayEquals(expected(width, height, layout), out);
+    }
+
+    @Test
+    public void repacksSemiPlanarToNv21() {
+        check(new YuvConverter(), 64, 48, 2, YuvConverter.Layout.NV21);
+    }
+
+    @Test
+    public void repacksSemiPlanarToI420() {
+        check(new YuvConverter(), 64, 48, 2, YuvConverter.Layout.I420);
+    }
+
+    @Test
+    public void repacksPlanarToBothLayouts() {
+        check(new YuvConverter(), 64, 48, 1, YuvConverter.Layout.NV21);
+        check(new YuvConverter(), 64, 48, 1, YuvConverter.Layout.I420);
+    }
+
+    @Test
+    public void handlesOddSizes() {
+        check(new YuvConverter(), 33, 17, 2, YuvConverter.Layout.NV21);
+        check(new YuvConverter(), 33, 17, 1, YuvConverter.Layout.I420);
+    }
+
+    @Test
+    public void copiesRowsOnSeveralThreads() {
+        YuvConverter converter = new YuvConverter(3);
+        check(converter, 320, 240, 2, YuvConverter.Layout.NV21);
+        check(converter, 321, 241, 1, YuvConverter.Layout.I420);
+        // more threads than chroma rows
+        check(new YuvConverter(8), 10, 4, 2, YuvConverter.Layout.NV21);
+    }
+
+    @Test
+    public void reusesTheOutputArray() {
+        YuvConverter converter = new YuvConverter();
+        YuvConverter.Plane[] chroma = chromaPlanes(64, 48, 2);
+        byte[] first = converter.convert(64, 48, lumaPlane(64, 48), chroma[0], chroma[1],
+                YuvConverter.Layout.NV21);
+        chroma = chromaPlanes(64, 48, 2);
+        byte[] second = converter.convert(64, 48, lumaPlane(64, 48), chroma[0], chroma[1],
+                YuvConverter.Layout.I420);
+        assertSame(first, second);
+        assertEquals(64 * 48 * 3 / 2, second.length);
+    }
+}